@@ -0,0 +1,52 @@
+package com.hello.suripu.service;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.hello.suripu.api.input.DataInputProtos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Protobuf parsing of the /in/sense/batch payload, in place from the signed message and from a copied body.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchedPeriodicDataBenchmark {
+
+    @Param({"1", "15"})
+    public int samples;
+
+    private SignedMessage signedMessage;
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        body = BenchmarkFixtures.batch(samples, System.currentTimeMillis()).toByteArray();
+        signedMessage = SignedMessage.parse(BenchmarkFixtures.toSenseFormat(body, BenchmarkFixtures.KEY));
+    }
+
+    @Benchmark
+    public DataInputProtos.batched_periodic_data parseInPlace() throws IOException {
+        return DataInputProtos.batched_periodic_data.parseFrom(signedMessage.bodyInputStream());
+    }
+
+    @Benchmark
+    public DataInputProtos.batched_periodic_data parseCopy() throws InvalidProtocolBufferException {
+        return DataInputProtos.batched_periodic_data.parseFrom(signedMessage.copyBody());
+    }
+}
@@ -0,0 +1,51 @@
+package com.hello.suripu.service;
+
+import com.hello.suripu.api.input.DataInputProtos;
+
+import java.util.Random;
+
+/**
+ * Payloads shared by the benchmarks, built the way Sense builds them.
+ */
+public class BenchmarkFixtures {
+
+    public static final String SENSE_ID = "sense-benchmark";
+    public static final byte[] KEY = "1234567891234567".getBytes();
+    public static final int FIRMWARE_VERSION = 12345678;
+
+    /**
+     * @param samples number of periodic_data, Sense batches one per minute so 1-15 is typical
+     */
+    public static DataInputProtos.batched_periodic_data batch(final int samples, final long nowMillis) {
+        final Random random = new Random(42);
+        final DataInputProtos.batched_periodic_data.Builder builder = DataInputProtos.batched_periodic_data.newBuilder()
+                .setDeviceId(SENSE_ID)
+                .setFirmwareVersion(FIRMWARE_VERSION)
+                .setUptimeInSecond(3600);
+
+        for(int i = 0; i < samples; i++) {
+            final int unixTime = (int) (nowMillis / 1000L) - (samples - i) * 60;
+            builder.addData(DataInputProtos.periodic_data.newBuilder()
+                    .setUnixTime(unixTime)
+                    .setTemperature(2000 + random.nextInt(1000))
+                    .setHumidity(3000 + random.nextInt(2000))
+                    .setLight(random.nextInt(500))
+                    .setDustMax(random.nextInt(1000))
+                    .setAudioPeakBackgroundEnergyDb(random.nextInt(60))
+                    .setAudioPeakDisturbanceEnergyDb(random.nextInt(90))
+                    .build());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Sense sends [PB][IV][Sig], the server replies [IV][Sig][PB]
+     */
+    public static byte[] toSenseFormat(final byte[] body, final byte[] key) {
+        final byte[] signed = SignedMessage.sign(body, key).get();
+        final byte[] message = new byte[signed.length];
+        System.arraycopy(body, 0, message, 0, body.length);
+        System.arraycopy(signed, 0, message, body.length, signed.length - body.length);
+        return message;
+    }
+}
@@ -0,0 +1,89 @@
+package com.hello.suripu.service;
+
+import com.google.common.base.Optional;
+import com.hello.suripu.service.signing.MessageSigner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse, validate and sign of the Sense wire format.
+ * Run with -prof gc: gc.alloc.rate.norm for {@link #verify} should stay at ~0 B/op.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SignedMessageBenchmark {
+
+    // Typical batched periodic data payload is a few hundred bytes
+    @Param({"64", "512", "4096"})
+    public int bodySize;
+
+    private byte[] body;
+    private byte[] message;
+    private SignedMessage signedMessage;
+    private SignedMessage.Verifier verifier;
+    private SecretKeySpec keySpec;
+    private MessageSigner messageSigner;
+
+    @Setup
+    public void setUp() throws Exception {
+        body = new byte[bodySize];
+        new Random(42).nextBytes(body);
+
+        message = BenchmarkFixtures.toSenseFormat(body, BenchmarkFixtures.KEY);
+        signedMessage = SignedMessage.parse(message);
+        verifier = SignedMessage.Verifier.create();
+        keySpec = SignedMessage.newKeySpec(BenchmarkFixtures.KEY);
+        messageSigner = MessageSigner.create(10);
+
+        if (signedMessage.validate(verifier, keySpec).isPresent()) {
+            throw new IllegalStateException("benchmark message does not verify");
+        }
+    }
+
+    @Benchmark
+    public SignedMessage parse() {
+        return SignedMessage.parse(message);
+    }
+
+    @Benchmark
+    public Optional<SignedMessage.Error> verify() {
+        return signedMessage.validate(verifier, keySpec);
+    }
+
+    @Benchmark
+    public Optional<SignedMessage.Error> messageSignerValidate() {
+        return messageSigner.validate(BenchmarkFixtures.SENSE_ID, signedMessage, BenchmarkFixtures.KEY);
+    }
+
+    @Benchmark
+    public Optional<SignedMessage.Error> validateWithKey() {
+        return signedMessage.validateWithKey(BenchmarkFixtures.KEY);
+    }
+
+    @Benchmark
+    public Optional<byte[]> messageSignerSign() {
+        return messageSigner.sign(BenchmarkFixtures.SENSE_ID, body, BenchmarkFixtures.KEY);
+    }
+
+    @Benchmark
+    public Optional<byte[]> sign() {
+        return SignedMessage.sign(body, BenchmarkFixtures.KEY);
+    }
+}
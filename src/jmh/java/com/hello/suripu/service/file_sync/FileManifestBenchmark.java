@@ -0,0 +1,64 @@
+package com.hello.suripu.service.file_sync;
+
+import com.google.common.collect.Lists;
+import com.google.protobuf.ByteString;
+import com.hello.suripu.api.input.FileSync;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Diff of the manifest uploaded by Sense against the expected sleep sounds.
+ * Half of the expected files are already on the SD card, the other half need to be downloaded.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FileManifestBenchmark {
+
+    @Param({"10", "50"})
+    public int files;
+
+    private FileSync.FileManifest requestManifest;
+    private List<FileSync.FileManifest.FileDownload> expectedFileDownloads;
+
+    @Setup
+    public void setUp() {
+        final FileSync.FileManifest.Builder manifest = FileSync.FileManifest.newBuilder().setSenseId("sense-benchmark");
+        expectedFileDownloads = Lists.newArrayList();
+
+        for(int i = 0; i < files; i++) {
+            final FileSync.FileManifest.FileDownload download = FileSync.FileManifest.FileDownload.newBuilder()
+                    .setSdCardPath("SLPTONES")
+                    .setSdCardFilename(String.format("ST%03d.RAW", i))
+                    .setHost("s3.amazonaws.com")
+                    .setUrl(String.format("/sleep-tones/ST%03d.RAW", i))
+                    .setSha1(ByteString.copyFromUtf8(String.format("%020d", i)))
+                    .build();
+            expectedFileDownloads.add(download);
+            if (i % 2 == 0) {
+                manifest.addFileInfo(FileSync.FileManifest.File.newBuilder().setDownloadInfo(download).build());
+            }
+        }
+        requestManifest = manifest.build();
+    }
+
+    @Benchmark
+    public FileSync.FileManifest getResponseManifest() {
+        return FileManifestUtil.getResponseManifest(requestManifest, expectedFileDownloads);
+    }
+}
@@ -0,0 +1,45 @@
+package com.hello.suripu.service.models;
+
+import com.hello.suripu.service.configuration.SenseUploadConfiguration;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UploadSettingsBenchmark {
+
+    private SenseUploadConfiguration senseUploadConfiguration;
+    private DateTime userLocalDateTime;
+
+    @Setup
+    public void setUp() {
+        senseUploadConfiguration = new SenseUploadConfiguration();
+        userLocalDateTime = DateTime.now(DateTimeZone.forID("America/Los_Angeles"));
+    }
+
+    @Benchmark
+    public Integer computeUploadIntervalPerUserPerSetting() {
+        return UploadSettings.computeUploadIntervalPerUserPerSetting(userLocalDateTime, senseUploadConfiguration, false);
+    }
+
+    @Benchmark
+    public Integer computeIncreasedUploadIntervalPerUserPerSetting() {
+        return UploadSettings.computeUploadIntervalPerUserPerSetting(userLocalDateTime, senseUploadConfiguration, true);
+    }
+}
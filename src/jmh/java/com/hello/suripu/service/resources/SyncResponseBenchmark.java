@@ -0,0 +1,160 @@
+package com.hello.suripu.service.resources;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.hello.suripu.api.output.OutputProtos;
+import com.hello.suripu.core.ObjectGraphRoot;
+import com.hello.suripu.core.db.CalibrationDAO;
+import com.hello.suripu.core.db.FeatureStore;
+import com.hello.suripu.core.db.KeyStore;
+import com.hello.suripu.core.db.MergedUserInfoDynamoDB;
+import com.hello.suripu.core.db.ResponseCommandsDAODynamoDB;
+import com.hello.suripu.core.db.RingTimeHistoryDAODynamoDB;
+import com.hello.suripu.core.db.SenseEventsDAO;
+import com.hello.suripu.core.db.SenseStateDynamoDB;
+import com.hello.suripu.core.firmware.FirmwareUpdateStore;
+import com.hello.suripu.core.models.Alarm;
+import com.hello.suripu.core.models.RingTime;
+import com.hello.suripu.core.models.UserInfo;
+import com.hello.suripu.core.util.HelloHttpHeader;
+import com.hello.suripu.service.BenchmarkFixtures;
+import com.hello.suripu.service.configuration.ClockSyncConfiguration;
+import com.hello.suripu.service.configuration.OTAConfiguration;
+import com.hello.suripu.service.configuration.RingTimeHistoryConfiguration;
+import com.hello.suripu.service.configuration.SenseStateConfiguration;
+import com.hello.suripu.service.configuration.SenseUploadConfiguration;
+import com.hello.suripu.service.configuration.SyncLookupConfiguration;
+import com.hello.suripu.service.configuration.SyncPlanConfiguration;
+import com.hello.suripu.service.configuration.UserInfoCacheConfiguration;
+import com.hello.suripu.service.db.MergedUserInfoCache;
+import com.hello.suripu.service.db.RingTimeHistoryWriter;
+import com.hello.suripu.service.db.SenseStateWriter;
+import com.hello.suripu.service.file_sync.FileSynchronizer;
+import com.hello.suripu.service.kinesis.AlarmActionPublisher;
+import com.hello.suripu.service.kinesis.BatchingKinesisProducer;
+import com.hello.suripu.service.modules.RolloutModule;
+import com.hello.suripu.service.signing.MessageSigner;
+import com.hello.suripu.service.sync.OTADecisionCache;
+import com.hello.suripu.service.sync.OTARolloutThrottle;
+import com.hello.suripu.service.sync.SyncPlanCache;
+import com.hello.suripu.service.utils.GroupMembershipIndex;
+import com.hello.suripu.service.utils.ParallelLookups;
+import com.hello.suripu.service.utils.PillBatchSanitizer;
+import com.hello.suripu.service.utils.SingleFlight;
+import com.librato.rollout.RolloutClient;
+import org.joda.time.DateTimeZone;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.when;
+
+/**
+ * End to end /in/sense/batch: parse, validate, kinesis enqueue and generateSyncResponse, DAOs stubbed like ReceiveResourceIT.
+ * Stubs are stubOnly mocks so invocations aren't recorded, but their own cost is included: compare runs, not absolute numbers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SyncResponseBenchmark {
+
+    @Param({"1", "15"})
+    public int samples;
+
+    private ReceiveResource receiveResource;
+    private byte[] body;
+
+    private static <T> T stub(final Class<T> clazz) {
+        return Mockito.mock(clazz, Mockito.withSettings().stubOnly());
+    }
+
+    @Setup
+    public void setUp() {
+        ObjectGraphRoot.getInstance().init(new RolloutModule(stub(FeatureStore.class), 30));
+
+        final HttpServletRequest request = stub(HttpServletRequest.class);
+        when(request.getHeader(HelloHttpHeader.SENSE_ID)).thenReturn(BenchmarkFixtures.SENSE_ID);
+        when(request.getHeader("X-Forwarded-For")).thenReturn("127.0.0.1");
+
+        final KeyStore keyStore = stub(KeyStore.class);
+        when(keyStore.get(BenchmarkFixtures.SENSE_ID)).thenReturn(Optional.of(BenchmarkFixtures.KEY));
+
+        final BatchingKinesisProducer senseSensorsDataProducer = stub(BatchingKinesisProducer.class);
+        when(senseSensorsDataProducer.offer(Mockito.anyString(), Mockito.any(byte[].class))).thenReturn(true);
+
+        final UserInfo userInfo = new UserInfo(
+                BenchmarkFixtures.SENSE_ID,
+                1234L,
+                Lists.<Alarm>newArrayList(),
+                Optional.<RingTime>absent(),
+                Optional.of(DateTimeZone.forID("America/Los_Angeles")),
+                Optional.<OutputProtos.SyncResponse.PillSettings>absent(),
+                12345678L);
+        final List<UserInfo> userInfoList = Lists.newArrayList(userInfo);
+        final MergedUserInfoDynamoDB mergedUserInfoDynamoDB = stub(MergedUserInfoDynamoDB.class);
+        when(mergedUserInfoDynamoDB.getInfo(BenchmarkFixtures.SENSE_ID)).thenReturn(userInfoList);
+
+        final OTAConfiguration otaConfiguration = stub(OTAConfiguration.class);
+        when(otaConfiguration.getStartUpdateWindowHour()).thenReturn(0);
+        when(otaConfiguration.getEndUpdateWindowHour()).thenReturn(23);
+
+        receiveResource = new ReceiveResource(
+                keyStore,
+                MergedUserInfoCache.create(mergedUserInfoDynamoDB, new UserInfoCacheConfiguration(), new MetricRegistry()),
+                RingTimeHistoryWriter.create(stub(RingTimeHistoryDAODynamoDB.class), new RingTimeHistoryConfiguration(), new MetricRegistry()),
+                false,
+                stub(FirmwareUpdateStore.class),
+                stub(GroupMembershipIndex.class),
+                new SenseUploadConfiguration(),
+                otaConfiguration,
+                stub(ResponseCommandsDAODynamoDB.class),
+                240,
+                stub(CalibrationDAO.class),
+                new MetricRegistry(),
+                SenseStateWriter.create(stub(SenseStateDynamoDB.class), new SenseStateConfiguration(), new MetricRegistry()),
+                stub(FileSynchronizer.class),
+                stub(SenseEventsDAO.class),
+                MessageSigner.create(10),
+                senseSensorsDataProducer,
+                stub(BatchingKinesisProducer.class),
+                PillBatchSanitizer.create(new MetricRegistry()),
+                new ParallelLookups(MoreExecutors.newDirectExecutorService(), new MetricRegistry()),
+                new SyncLookupConfiguration(),
+                SyncPlanCache.create(new SyncPlanConfiguration(), new MetricRegistry()),
+                new ClockSyncConfiguration(),
+                new SingleFlight("calibration", new MetricRegistry()),
+                AlarmActionPublisher.create(stub(BatchingKinesisProducer.class), 100L, new MetricRegistry()),
+                OTADecisionCache.create(new OTAConfiguration(), new MetricRegistry()),
+                OTARolloutThrottle.create(new OTAConfiguration(), new MetricRegistry())
+        );
+        receiveResource.request = request;
+        receiveResource.featureFlipper = stub(RolloutClient.class);
+
+        body = BenchmarkFixtures.toSenseFormat(
+                BenchmarkFixtures.batch(samples, System.currentTimeMillis()).toByteArray(),
+                BenchmarkFixtures.KEY);
+    }
+
+    @Benchmark
+    public byte[] receiveBatchSenseData() {
+        return receiveResource.receiveBatchSenseData(body);
+    }
+}
@@ -1,20 +1,20 @@
 package com.hello.suripu.service;
 
 import com.google.common.base.Optional;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+import com.hello.suripu.service.signing.IvSource;
 import org.apache.commons.codec.binary.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
@@ -25,14 +25,22 @@ public class SignedMessage {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SignedMessage.class);
 
-    private static final Integer IV_LENGTH = 16;
-    private static final Integer SIG_LENGTH = 32;
+    public static final int IV_LENGTH = 16;
+    private static final int SIG_LENGTH = 32;
+    private static final int SHA_LENGTH = 20;
+    private static final int HEADER_LENGTH = IV_LENGTH + SIG_LENGTH;
 
-    public final byte[] body;
-    public final byte[] IV;
-    public final byte[] sig;
+    private static final String DIGEST_ALGORITHM = "SHA1";
+    private static final String CIPHER_TRANSFORMATION = "AES/CBC/NoPadding";
+    private static final String BLOCK_CIPHER_TRANSFORMATION = "AES/ECB/NoPadding";
+    private static final String KEY_ALGORITHM = "AES";
 
-    public final String debugMessage;
+    /**
+     * Request body as received from Sense: [PB bytes][IV (16 bytes)][Sig (32 bytes)]
+     * It is never copied, the protobuf, IV and signature are read in place using offsets.
+     */
+    private final byte[] buffer;
+    private final int bodyLength;
 
     public static class Error {
         public final String message;
@@ -42,11 +50,9 @@ public class SignedMessage {
         }
     }
 
-    public SignedMessage(byte[] body, byte[] IV, byte[] sig, String debugMessage) {
-        this.body = body;
-        this.IV = IV;
-        this.sig = sig;
-        this.debugMessage = debugMessage;
+    private SignedMessage(final byte[] buffer, final int bodyLength) {
+        this.buffer = buffer;
+        this.bodyLength = bodyLength;
     }
 
     public static SignedMessage parse(byte[] body) {
@@ -76,76 +82,143 @@ public class SignedMessage {
             throw new RuntimeException("Invalid content");
         }
 
-        final int sigStartIndex = body.length - SIG_LENGTH;
-        final int ivStartIndex = sigStartIndex - IV_LENGTH;
+        return new SignedMessage(body, body.length - SIG_LENGTH - IV_LENGTH);
+    }
 
-        final byte[] pb = Arrays.copyOfRange(body, 0, ivStartIndex) ;
-        final byte[] IV = Arrays.copyOfRange(body, ivStartIndex, sigStartIndex);
-        final byte[] sig = Arrays.copyOfRange(body, sigStartIndex, body.length);
+    /**
+     * Protobuf parsers should read from this stream instead of a copy of the body
+     * @return stream over the protobuf bytes of the backing buffer
+     */
+    public CodedInputStream bodyInputStream() {
+        return CodedInputStream.newInstance(buffer, 0, bodyLength);
+    }
 
-        return new SignedMessage(pb, IV, sig, "");
+    public int bodyLength() {
+        return bodyLength;
     }
 
-    public Optional<Error> validateWithKey(byte[] key) {
-        final StringBuilder sb = new StringBuilder();
+    /**
+     * Copies the protobuf bytes out of the backing buffer.
+     * Only use this when the raw bytes need to outlive the request (ie. echoing them back)
+     * @return
+     */
+    public byte[] copyBody() {
+        return Arrays.copyOfRange(buffer, 0, bodyLength);
+    }
 
-        try {
-            final MessageDigest md = MessageDigest.getInstance("SHA1");
-            md.update(body);
-            final byte[] output = md.digest();
+    private int ivOffset() {
+        return bodyLength;
+    }
+
+    private int sigOffset() {
+        return bodyLength + IV_LENGTH;
+    }
+
+    public static MessageDigest newDigest() throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance(DIGEST_ALGORITHM);
+    }
+
+    public static Cipher newCipher() throws NoSuchAlgorithmException, NoSuchPaddingException {
+        return Cipher.getInstance(CIPHER_TRANSFORMATION);
+    }
+
+    public static SecretKeySpec newKeySpec(final byte[] key) {
+        return new SecretKeySpec(key, KEY_ALGORITHM);
+    }
 
-            LOGGER.trace("HexDigest: {}", new String(Hex.encodeHex(output)));
-            LOGGER.trace("Output length: {}", output.length);
+    /**
+     * Validates with a freshly created verifier.
+     * Resources should go through {@link com.hello.suripu.service.signing.MessageSigner} which reuses them.
+     */
+    public Optional<Error> validateWithKey(byte[] key) {
+        try {
+            return validate(Verifier.create(), newKeySpec(key));
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException exception) {
+            LOGGER.error(exception.getMessage());
+            return Optional.of(new Error(exception.getMessage()));
+        }
+    }
 
-            final byte[] padded = new byte[32];
-            for(int i = 0; i < output.length; i++) {
-                padded[i] = output[i];
+    /**
+     * Does not allocate when the signature matches, diagnostics are only built on mismatch
+     * @param verifier per-thread verifier
+     * @param secretKeySpec AES key of the device
+     * @return Error if signatures don't match
+     */
+    public Optional<Error> validate(final Verifier verifier, final SecretKeySpec secretKeySpec) {
+        try {
+            if(verifier.verify(buffer, bodyLength, secretKeySpec)) {
+                return Optional.absent();
             }
+            return Optional.of(new Error(verifier.describeMismatch()));
+        } catch (GeneralSecurityException exception) {
+            LOGGER.error(exception.getMessage());
+            LOGGER.error("Signatures don't match");
+            return Optional.of(new Error(exception.getMessage() + "\n"));
+        }
+    }
 
-            final String paddedHex =  new String(Hex.encodeHex(padded));
-            sb.append("padded hex: " + paddedHex);
-            sb.append("\n");
+    /**
+     * Holds a digest, an AES/ECB cipher and scratch buffers so verifying a signature doesn't allocate.
+     * CBC chaining of the two signature blocks is done by hand, which avoids an IvParameterSpec per message.
+     * Not thread safe, keep one per thread.
+     */
+    public static class Verifier {
+        private final MessageDigest md;
+        private final Cipher cipher;
+        private final byte[] sha = new byte[SHA_LENGTH];
+        private final byte[] decrypted = new byte[SIG_LENGTH];
+        private SecretKeySpec currentKeySpec;
+
+        private Verifier(final MessageDigest md, final Cipher cipher) {
+            this.md = md;
+            this.cipher = cipher;
+        }
 
-            LOGGER.trace("padded: {}", paddedHex);
+        public static Verifier create() throws NoSuchAlgorithmException, NoSuchPaddingException {
+            return new Verifier(newDigest(), Cipher.getInstance(BLOCK_CIPHER_TRANSFORMATION));
+        }
 
-            final Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
-            final SecretKeySpec secretKeySpec = new SecretKeySpec(key, "AES");
-            cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, new IvParameterSpec(IV));
+        boolean verify(final byte[] buffer, final int bodyLength, final SecretKeySpec keySpec) throws GeneralSecurityException {
+            md.reset();
+            md.update(buffer, 0, bodyLength);
+            md.digest(sha, 0, SHA_LENGTH);
 
-            final byte[] decryptedBytes = cipher.doFinal(sig);
+            // Re-keying the cipher allocates in the provider, skip it when the key hasn't changed
+            if(keySpec != currentKeySpec) {
+                currentKeySpec = null;
+                cipher.init(Cipher.DECRYPT_MODE, keySpec);
+                currentKeySpec = keySpec;
+            }
+            cipher.doFinal(buffer, bodyLength + IV_LENGTH, SIG_LENGTH, decrypted, 0);
 
-            for(int i = 0; i < 20; i ++) {
-                if(decryptedBytes[i] != output[i]) {
-                    return Optional.of(new Error(sb.toString()));
-                }
+            // CBC: each block is XOR'd with the previous ciphertext block, the IV for the first one.
+            // IV and signature are contiguous so the previous block always starts IV_LENGTH bytes earlier.
+            for(int i = 0; i < SIG_LENGTH; i++) {
+                decrypted[i] ^= buffer[bodyLength + i];
             }
 
+            // Constant time compare
+            int diff = 0;
+            for(int i = 0; i < SHA_LENGTH; i++) {
+                diff |= decrypted[i] ^ sha[i];
+            }
+            return diff == 0;
+        }
 
-            sb.append("Received sig: " + new String(Hex.encodeHex(sig)));
+        String describeMismatch() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("padded hex: ").append(Hex.encodeHex(Arrays.copyOf(sha, SIG_LENGTH)));
             sb.append("\n");
-            sb.append("Decrypted sha: " + new String(Hex.encodeHex(decryptedBytes)));
+            sb.append("decrypted hex: ").append(Hex.encodeHex(decrypted));
             sb.append("\n");
-
-            LOGGER.trace("Sig: {}", sig);
-            return Optional.absent();
-
-        } catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException | IllegalBlockSizeException | NoSuchPaddingException | InvalidKeyException exception) {
-            LOGGER.error(exception.getMessage());
-            sb.append(exception.getMessage());
-            sb.append("\n");
-        } catch (BadPaddingException exception) {
-            LOGGER.error(exception.getMessage());
-        } catch (Exception exception) {
-            LOGGER.error(exception.getMessage());
+            return sb.toString();
         }
-
-        LOGGER.error("Signatures don't match");
-        return Optional.of(new Error(sb.toString()));
     }
 
 
     /**
-     * Sign message for Sense
+     * Sign message for Sense with freshly created digest and cipher
      * Format = IV + sig + pb
      * @param body
      * @param key
@@ -155,64 +228,83 @@ public class SignedMessage {
         final Random r = new SecureRandom();
         final byte[] IV = new byte[IV_LENGTH];
         r.nextBytes(IV);
-        LOGGER.trace("random IV = {}", Hex.encodeHex(IV));
-
-        final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
 
         try {
+            return sign(body, IV, newDigest(), newCipher(), newKeySpec(key));
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            LOGGER.error(e.getMessage());
+        }
+        return Optional.absent();
+    }
 
-            final MessageDigest md = MessageDigest.getInstance("SHA1");
-            md.update(body);
-            final byte[] output = md.digest();
-            LOGGER.trace("Sha = {}", Hex.encodeHex(output));
-
-            final byte[] paddedSha = new byte[32];
-            for(int i= 0; i < paddedSha.length; i++) {
-                if(i < output.length) {
-                    paddedSha[i] = output[i];
-                } else {
-                    paddedSha[i] = 0;
-                }
-            }
+    /**
+     * Sign message for Sense
+     * Format = IV + sig + pb
+     * @param body
+     * @param IV random IV_LENGTH bytes, never reused
+     * @param md SHA-1 digest, reset before use
+     * @param cipher AES/CBC/NoPadding cipher, re-initialized before use
+     * @param secretKeySpec AES key of the device
+     * @return
+     */
+    public static Optional<byte[]> sign(final byte[] body, final byte[] IV, final MessageDigest md, final Cipher cipher, final SecretKeySpec secretKeySpec) {
+        final byte[] buffer = new byte[HEADER_LENGTH + body.length];
+        System.arraycopy(IV, 0, buffer, 0, IV_LENGTH);
+        System.arraycopy(body, 0, buffer, HEADER_LENGTH, body.length);
+        return seal(buffer, md, cipher, secretKeySpec);
+    }
 
-            final Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
-            final SecretKeySpec secretKeySpec = new SecretKeySpec(key, "AES");
-            cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec, new IvParameterSpec(IV));
+    /**
+     * Sign protobuf message for Sense
+     * The message is serialized once, straight into the body region of an exactly sized response buffer,
+     * and IV + sig are filled into the header reserved in front of it.
+     * Format = IV + sig + pb
+     * @param message protobuf response
+     * @param ivSource fills the IV of the header
+     * @param md SHA-1 digest, reset before use
+     * @param cipher AES/CBC/NoPadding cipher, re-initialized before use
+     * @param secretKeySpec AES key of the device
+     * @return
+     */
+    public static Optional<byte[]> sign(final MessageLite message, final IvSource ivSource, final MessageDigest md, final Cipher cipher, final SecretKeySpec secretKeySpec) {
+        final int bodyLength = message.getSerializedSize();
+        final byte[] buffer = new byte[HEADER_LENGTH + bodyLength];
 
+        try {
+            final CodedOutputStream outputStream = CodedOutputStream.newInstance(buffer, HEADER_LENGTH, bodyLength);
+            message.writeTo(outputStream);
+            outputStream.checkNoSpaceLeft();
+        } catch (IOException | IllegalStateException e) {
+            LOGGER.error("error=serialize-response message={}", e.getMessage());
+            return Optional.absent();
+        }
 
-            final byte[] sig = cipher.doFinal(paddedSha);
+        ivSource.fill(buffer, 0, IV_LENGTH);
+        return seal(buffer, md, cipher, secretKeySpec);
+    }
 
-            LOGGER.trace("Sig = {}", Hex.encodeHex(sig));
+    /**
+     * Computes the signature over buffer[HEADER_LENGTH..] and writes it in place after the IV
+     * @param buffer IV + reserved sig + pb
+     */
+    private static Optional<byte[]> seal(final byte[] buffer, final MessageDigest md, final Cipher cipher, final SecretKeySpec secretKeySpec) {
+        try {
+            md.reset();
+            md.update(buffer, HEADER_LENGTH, buffer.length - HEADER_LENGTH);
 
-            byteArrayOutputStream.write(IV);
-            byteArrayOutputStream.write(sig);
-            byteArrayOutputStream.write(body);
+            // sha is padded with zeros up to SIG_LENGTH, the reserved region is still zeroed
+            md.digest(buffer, IV_LENGTH, SHA_LENGTH);
 
-            final byte[] data = byteArrayOutputStream.toByteArray();
+            cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec, new IvParameterSpec(buffer, 0, IV_LENGTH));
+            cipher.doFinal(buffer, IV_LENGTH, SIG_LENGTH, buffer, IV_LENGTH);
 
-            LOGGER.trace("Body = {}", Hex.encodeHex(data));
-            return Optional.of(data);
+            if(LOGGER.isTraceEnabled()) {
+                LOGGER.trace("Sig = {}", Hex.encodeHex(Arrays.copyOfRange(buffer, IV_LENGTH, HEADER_LENGTH)));
+            }
+            return Optional.of(buffer);
 
-        } catch (NoSuchAlgorithmException e) {
-            LOGGER.error(e.getMessage());
-        } catch (NoSuchPaddingException e) {
-            LOGGER.error(e.getMessage());
-        } catch (InvalidAlgorithmParameterException e) {
+        } catch (GeneralSecurityException e) {
             LOGGER.error(e.getMessage());
-        } catch (InvalidKeyException e) {
-            LOGGER.error(e.getMessage());
-        } catch (BadPaddingException e) {
-            LOGGER.error(e.getMessage());
-        } catch (IllegalBlockSizeException e) {
-            LOGGER.error(e.getMessage());
-        } catch (IOException e) {
-            LOGGER.error(e.getMessage());
-        } finally {
-            try {
-                byteArrayOutputStream.close();
-            } catch(IOException exception) {
-                LOGGER.warn("Failed closing stream");
-            }
         }
 
         return Optional.absent();
@@ -51,7 +51,6 @@ import com.hello.suripu.core.db.util.PostgresIntegerArrayArgumentFactory;
 import com.hello.suripu.core.firmware.FirmwareUpdateStore;
 import com.hello.suripu.core.firmware.db.OTAFileSettingsDynamoDB;
 import com.hello.suripu.core.flipper.DynamoDBAdapter;
-import com.hello.suripu.core.flipper.GroupFlipper;
 import com.hello.suripu.core.logging.DataLogger;
 import com.hello.suripu.core.logging.KinesisLoggerFactory;
 import com.hello.suripu.core.oauth.stores.PersistentApplicationStore;
@@ -77,7 +76,14 @@ import com.hello.suripu.coredropwizard.oauth.stores.PersistentAccessTokenStore;
 import com.hello.suripu.coredropwizard.util.CustomJSONExceptionMapper;
 import com.hello.suripu.service.cli.CreateDynamoDBTables;
 import com.hello.suripu.service.configuration.AWSClientConfiguration;
+import com.hello.suripu.service.configuration.KeyStoreCacheConfiguration;
 import com.hello.suripu.service.configuration.SuripuConfiguration;
+import com.hello.suripu.service.configuration.SyncLookupConfiguration;
+import com.hello.suripu.service.db.CachedKeyStore;
+import com.hello.suripu.service.db.MergedUserInfoCache;
+import com.hello.suripu.service.db.RingTimeHistoryWriter;
+import com.hello.suripu.service.db.SenseStateWriter;
+import com.hello.suripu.service.file_sync.FileInfoCache;
 import com.hello.suripu.service.file_sync.FileSynchronizer;
 import com.hello.suripu.service.modules.RolloutModule;
 import com.hello.suripu.service.pairing.PairingManager;
@@ -89,6 +95,17 @@ import com.hello.suripu.service.resources.CheckResource;
 import com.hello.suripu.service.resources.LogsResource;
 import com.hello.suripu.service.resources.ReceiveResource;
 import com.hello.suripu.service.resources.RegisterResource;
+import com.hello.suripu.service.kinesis.AlarmActionPublisher;
+import com.hello.suripu.service.kinesis.BatchingKinesisProducer;
+import com.hello.suripu.service.signing.MessageSigner;
+import com.hello.suripu.service.signing.ReseedingIvSource;
+import com.hello.suripu.service.sync.OTADecisionCache;
+import com.hello.suripu.service.sync.OTARolloutThrottle;
+import com.hello.suripu.service.sync.SyncPlanCache;
+import com.hello.suripu.service.utils.GroupMembershipIndex;
+import com.hello.suripu.service.utils.ParallelLookups;
+import com.hello.suripu.service.utils.PillBatchSanitizer;
+import com.hello.suripu.service.utils.SingleFlight;
 import com.librato.rollout.RolloutClient;
 import io.dropwizard.Application;
 import io.dropwizard.jdbi.DBIFactory;
@@ -108,6 +125,9 @@ import javax.servlet.FilterRegistration;
 import java.net.InetSocketAddress;
 import java.util.EnumSet;
 import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 public class SuripuService extends Application<SuripuConfiguration> {
@@ -180,6 +200,7 @@ public class SuripuService extends Application<SuripuConfiguration> {
 
         final AmazonDynamoDB ringTimeHistoryDynamoDBClient = dynamoDBFactory.getForTable(DynamoDBTableName.RING_TIME_HISTORY);
         final RingTimeHistoryDAODynamoDB ringTimeHistoryDAODynamoDB = new RingTimeHistoryDAODynamoDB(ringTimeHistoryDynamoDBClient, tableNames.get(DynamoDBTableName.RING_TIME_HISTORY));
+        final RingTimeHistoryWriter ringTimeHistoryWriter = RingTimeHistoryWriter.create(ringTimeHistoryDAODynamoDB, configuration.ringTimeHistory(), environment.metrics());
 
         final AmazonDynamoDB otaHistoryDynamoDBClient = dynamoDBFactory.getForTable(DynamoDBTableName.OTA_HISTORY);
         final OTAHistoryDAODynamoDB otaHistoryDAODynamoDB = new OTAHistoryDAODynamoDB(otaHistoryDynamoDBClient, tableNames.get(DynamoDBTableName.OTA_HISTORY));
@@ -227,13 +248,28 @@ public class SuripuService extends Application<SuripuConfiguration> {
         );
 
 
-        final KeyStore senseKeyStore = new KeyStoreDynamoDB(
+        final KeyStore senseKeyStoreDynamoDB = new KeyStoreDynamoDB(
                 senseKeyStoreDynamoDBClient,
                 tableNames.get(DynamoDBTableName.SENSE_KEY_STORE),
                 "1234567891234567".getBytes(), // TODO: REMOVE THIS WHEN WE ARE NOT SUPPOSED TO HAVE A DEFAULT KEY
                 120 // 2 minutes for cache
         );
 
+        final KeyStoreCacheConfiguration keyStoreCacheConfiguration = configuration.keyStoreCache();
+        final ExecutorService keyStoreRefreshExecutor = environment.lifecycle().executorService("key-store-refresh-%d")
+                .minThreads(keyStoreCacheConfiguration.getRefreshThreads())
+                .maxThreads(keyStoreCacheConfiguration.getRefreshThreads())
+                .workQueue(new ArrayBlockingQueue<Runnable>(keyStoreCacheConfiguration.getRefreshQueueSize()))
+                .rejectionHandler(new ThreadPoolExecutor.CallerRunsPolicy())
+                .build();
+        final KeyStore senseKeyStore = CachedKeyStore.create(senseKeyStoreDynamoDB, keyStoreCacheConfiguration, keyStoreRefreshExecutor, environment.metrics());
+
+        // Digests, ciphers and expanded keys are reused across all signed endpoints
+        final MessageSigner messageSigner = MessageSigner.create(
+                configuration.signingKeyCacheSize(),
+                ReseedingIvSource.create(environment.metrics())
+        );
+
         if(configuration.getMetricsEnabled()) {
           final String graphiteHostName = configuration.getGraphite().getHost();
           final String apiKey = configuration.getGraphite().getApiKey();
@@ -297,7 +333,7 @@ public class SuripuService extends Application<SuripuConfiguration> {
         final AmazonDynamoDB teamStoreDynamoDBClient = dynamoDBFactory.getForTable(DynamoDBTableName.TEAMS);
         final TeamStore teamStore = new TeamStore(teamStoreDynamoDBClient, tableNames.get(DynamoDBTableName.TEAMS));
 
-        final GroupFlipper groupFlipper = new GroupFlipper(teamStore, 30);
+        final GroupMembershipIndex groupFlipper = new GroupMembershipIndex(teamStore, 30, environment.metrics());
 
         final String namespace = (configuration.getDebug()) ? "dev" : "prod";
         final AmazonDynamoDB featuresDynamoDBClient = dynamoDBFactory.getForTable(DynamoDBTableName.FEATURES);
@@ -305,6 +341,7 @@ public class SuripuService extends Application<SuripuConfiguration> {
 
         final AmazonDynamoDB senseStateDynamoDBClient = dynamoDBFactory.getForTable(DynamoDBTableName.SENSE_STATE);
         final SenseStateDynamoDB senseStateDynamoDB = new SenseStateDynamoDB(senseStateDynamoDBClient, tableNames.get(DynamoDBTableName.SENSE_STATE));
+        final SenseStateWriter senseStateWriter = SenseStateWriter.create(senseStateDynamoDB, configuration.senseState(), environment.metrics());
 
         final AmazonDynamoDB fileManifestDynamoDBClient = dynamoDBFactory.getForTable(DynamoDBTableName.FILE_MANIFEST);
         final FileManifestDAO fileManifestDAO = new FileManifestDynamoDB(fileManifestDynamoDBClient, tableNames.get(DynamoDBTableName.FILE_MANIFEST));
@@ -313,13 +350,13 @@ public class SuripuService extends Application<SuripuConfiguration> {
         final SenseEventsDAO senseEventsDAO = new SenseEventsDynamoDB(senseEventsDBClient, tableNames.get(DynamoDBTableName.SENSE_EVENTS));
 
 
-        final RolloutModule module = new RolloutModule(featureStore, 30);
+        final RolloutModule module = new RolloutModule(featureStore, configuration.featurePollingIntervalSeconds());
         ObjectGraphRoot.getInstance().init(module);
 
         environment.jersey().register(new AbstractBinder() {
           @Override
           protected void configure() {
-            bind(new RolloutClient(new DynamoDBAdapter(featureStore, 30))).to(RolloutClient.class);
+            bind(new RolloutClient(new DynamoDBAdapter(featureStore, configuration.featurePollingIntervalSeconds()))).to(RolloutClient.class);
           }
         });
 
@@ -333,11 +370,48 @@ public class SuripuService extends Application<SuripuConfiguration> {
                 configuration.calibrationCacheDurationSeconds()
         );
 
+        final BatchingKinesisProducer senseSensorsDataProducer = BatchingKinesisProducer.create(
+                kinesisClient,
+                configuration.getKinesisConfiguration().getStreams().get(QueueName.SENSE_SENSORS_DATA),
+                configuration.senseSensorsDataBatching(),
+                environment.metrics()
+        );
+        final BatchingKinesisProducer alarmActionsProducer = BatchingKinesisProducer.create(
+                kinesisClient,
+                configuration.getKinesisConfiguration().getStreams().get(QueueName.ALARM_ACTIONS),
+                configuration.alarmActionsBatching(),
+                environment.metrics()
+        );
+
+        final BatchingKinesisProducer batchPillDataProducer = BatchingKinesisProducer.create(
+                kinesisClient,
+                configuration.getKinesisConfiguration().getStreams().get(QueueName.BATCH_PILL_DATA),
+                configuration.batchPillDataBatching(),
+                environment.metrics()
+        );
+
+        final SyncLookupConfiguration syncLookupConfiguration = configuration.syncLookups();
+        final ExecutorService syncLookupExecutor = environment.lifecycle().executorService("sync-lookups-%d")
+                .minThreads(syncLookupConfiguration.getThreads())
+                .maxThreads(syncLookupConfiguration.getThreads())
+                .workQueue(new ArrayBlockingQueue<Runnable>(syncLookupConfiguration.getQueueSize()))
+                .rejectionHandler(new ThreadPoolExecutor.CallerRunsPolicy())
+                .build();
+
+        // Presigned URLs and expected files, rejected refreshes run on the request that triggered them
+        final ExecutorService fileSyncRefreshExecutor = environment.lifecycle().executorService("file-sync-refresh-%d")
+                .minThreads(2)
+                .maxThreads(2)
+                .workQueue(new ArrayBlockingQueue<Runnable>(1000))
+                .rejectionHandler(new ThreadPoolExecutor.CallerRunsPolicy())
+                .build();
+        final FileInfoCache fileInfoCache = FileInfoCache.create(fileInfoSenseOneDAO, fileInfoSenseOneFiveDAO,
+                configuration.fileInfoCache(), fileSyncRefreshExecutor, environment.metrics());
+
         final ReceiveResource receiveResource = new ReceiveResource(
                 senseKeyStore,
-                kinesisLoggerFactory,
-                mergedUserInfoDynamoDB,
-                ringTimeHistoryDAODynamoDB,
+                MergedUserInfoCache.create(mergedUserInfoDynamoDB, configuration.userInfoCache(), environment.metrics()),
+                ringTimeHistoryWriter,
                 configuration.getDebug(),
                 firmwareUpdateStore,
                 groupFlipper,
@@ -347,9 +421,21 @@ public class SuripuService extends Application<SuripuConfiguration> {
                 configuration.getRingDuration(),
                 calibrationDAO,
                 environment.metrics(),
-                senseStateDynamoDB,
-                FileSynchronizer.create(fileInfoSenseOneDAO, fileInfoSenseOneFiveDAO, fileManifestDAO, amazonS3UrlSigner, 15L, 300L),
-                senseEventsDAO
+                senseStateWriter,
+                FileSynchronizer.create(fileInfoCache, fileManifestDAO, amazonS3UrlSigner, 15L, 300L, fileSyncRefreshExecutor, environment.metrics()),
+                senseEventsDAO,
+                messageSigner,
+                senseSensorsDataProducer,
+                batchPillDataProducer,
+                PillBatchSanitizer.create(environment.metrics()),
+                new ParallelLookups(syncLookupExecutor, environment.metrics()),
+                syncLookupConfiguration,
+                SyncPlanCache.create(configuration.syncPlan(), environment.metrics()),
+                configuration.clockSync(),
+                new SingleFlight("calibration", environment.metrics()),
+                AlarmActionPublisher.create(alarmActionsProducer, configuration.alarmActionsDedupeSize(), environment.metrics()),
+                OTADecisionCache.create(configuration.getOTAConfiguration(), environment.metrics()),
+                OTARolloutThrottle.create(configuration.getOTAConfiguration(), environment.metrics())
                 // TODO move to config
         );
 
@@ -379,7 +465,8 @@ public class SuripuService extends Application<SuripuConfiguration> {
                 kinesisLoggerFactory,
                 senseKeyStore,
                 groupFlipper,
-                pairingManager
+                pairingManager,
+                messageSigner
         );
 
         environment.jersey().register(registerResource);
@@ -392,10 +479,11 @@ public class SuripuService extends Application<SuripuConfiguration> {
         final LogsResource logsResource = new LogsResource(
                 !configuration.getDebug(),
                 senseKeyStore,
-                senseLogs
+                senseLogs,
+                messageSigner
         );
 
-        environment.jersey().register(new CheckResource(senseKeyStore));
+        environment.jersey().register(new CheckResource(senseKeyStore, messageSigner));
         environment.jersey().register(logsResource);
 
         environment.jersey().register(new PingResource());
@@ -422,7 +510,8 @@ public class SuripuService extends Application<SuripuConfiguration> {
                     audioMetaDataLogger,
                     senseKeyStore,
                     groupFlipper,
-                    environment.getObjectMapper()));
+                    environment.getObjectMapper(),
+                    messageSigner));
 
         // Manage the lifecycle of our clients
         environment.lifecycle().manage(new DynamoDBClientManaged(senseKeyStoreDynamoDBClient));
@@ -430,6 +519,13 @@ public class SuripuService extends Application<SuripuConfiguration> {
         environment.lifecycle().manage(new DynamoDBClientManaged(featuresDynamoDBClient));
         environment.lifecycle().manage(new DynamoDBClientManaged(senseKeyStoreDynamoDBClient));
         environment.lifecycle().manage(new KinesisClientManaged(kinesisClient));
+        // Stopped before the kinesis client so buffered records are flushed
+        environment.lifecycle().manage(senseSensorsDataProducer);
+        environment.lifecycle().manage(alarmActionsProducer);
+        environment.lifecycle().manage(batchPillDataProducer);
+        environment.lifecycle().manage(groupFlipper);
+        environment.lifecycle().manage(ringTimeHistoryWriter);
+        environment.lifecycle().manage(senseStateWriter);
 
         // Make sure we can connect
         environment.healthChecks().register("keystore-healthcheck", new DynamoDbHealthCheck(senseKeyStoreDynamoDBClient));
@@ -0,0 +1,29 @@
+package com.hello.suripu.service.configuration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableSet;
+
+import javax.validation.constraints.NotNull;
+import java.util.Set;
+
+/**
+ * What we do about Senses uploading samples with a clock out of sync
+ */
+public class ClockSyncConfiguration {
+    private static final Set<Integer> DEFAULT_REBOOT_FIRMWARE_VERSIONS = ImmutableSet.of(
+            1425228832,  // 1.0.5.2
+            510963780,   // 1.0.5.3.1
+            782503713,   // 1.0.5.3.4
+            2121778303,  // 1.0.5.3.5
+            3892         // 1.8.1
+    );
+
+    // Senses on these firmware versions are told to reset their MCU (REBOOT_CLOCK_OUT_OF_SYNC_DEVICES feature)
+    @NotNull
+    @JsonProperty("reboot_firmware_versions")
+    private Set<Integer> rebootFirmwareVersions = DEFAULT_REBOOT_FIRMWARE_VERSIONS;
+
+    public Set<Integer> getRebootFirmwareVersions() {
+        return rebootFirmwareVersions;
+    }
+}
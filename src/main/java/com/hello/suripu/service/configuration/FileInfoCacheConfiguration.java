@@ -0,0 +1,42 @@
+package com.hello.suripu.service.configuration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+
+/**
+ * Local cache of the files each Sense is expected to have, read from the file_info tables
+ */
+public class FileInfoCacheConfiguration {
+    private static final Long DEFAULT_MAX_SIZE = 200000L;
+    private static final Long DEFAULT_REFRESH_AFTER_SECONDS = 300L;  // how late a file added or removed may be picked up
+    private static final Long DEFAULT_EXPIRE_AFTER_MINUTES = 60L;  // Senses not syncing their files stop being reloaded
+
+    @Valid
+    @Min(0)
+    @JsonProperty("max_size")
+    private Long maxSize = DEFAULT_MAX_SIZE;
+
+    @Valid
+    @Min(1)
+    @JsonProperty("refresh_after_seconds")
+    private Long refreshAfterSeconds = DEFAULT_REFRESH_AFTER_SECONDS;
+
+    @Valid
+    @Min(1)
+    @JsonProperty("expire_after_minutes")
+    private Long expireAfterMinutes = DEFAULT_EXPIRE_AFTER_MINUTES;
+
+    public Long getMaxSize() {
+        return maxSize;
+    }
+
+    public Long getRefreshAfterSeconds() {
+        return refreshAfterSeconds;
+    }
+
+    public Long getExpireAfterMinutes() {
+        return expireAfterMinutes;
+    }
+}
@@ -0,0 +1,74 @@
+package com.hello.suripu.service.configuration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
+/**
+ * Local cache of Sense keys, in front of the KeyStoreDynamoDB one
+ */
+public class KeyStoreCacheConfiguration {
+    private static final Long DEFAULT_MAX_SIZE = 200000L;
+    private static final Long DEFAULT_REFRESH_AFTER_SECONDS = 60L;  // keys accessed after this are reloaded in the background
+    private static final Long DEFAULT_EXPIRE_AFTER_SECONDS = 300L;  // keys not accessed for that long are loaded on the request thread
+    private static final Long DEFAULT_NEGATIVE_TTL_SECONDS = 10L;  // unknown device ids
+    private static final Integer DEFAULT_REFRESH_THREADS = 4;
+    private static final Integer DEFAULT_REFRESH_QUEUE_SIZE = 1000;
+
+    @Valid
+    @Min(0)
+    @JsonProperty("max_size")
+    private Long maxSize = DEFAULT_MAX_SIZE;
+
+    @Valid
+    @Min(1)
+    @JsonProperty("refresh_after_seconds")
+    private Long refreshAfterSeconds = DEFAULT_REFRESH_AFTER_SECONDS;
+
+    @Valid
+    @Min(1)
+    @JsonProperty("expire_after_seconds")
+    private Long expireAfterSeconds = DEFAULT_EXPIRE_AFTER_SECONDS;
+
+    @Valid
+    @Min(0)
+    @JsonProperty("negative_ttl_seconds")
+    private Long negativeTtlSeconds = DEFAULT_NEGATIVE_TTL_SECONDS;
+
+    @Valid
+    @Min(1)
+    @Max(32)
+    @JsonProperty("refresh_threads")
+    private Integer refreshThreads = DEFAULT_REFRESH_THREADS;
+
+    @Valid
+    @Min(1)
+    @JsonProperty("refresh_queue_size")
+    private Integer refreshQueueSize = DEFAULT_REFRESH_QUEUE_SIZE;
+
+    public Long getMaxSize() {
+        return maxSize;
+    }
+
+    public Long getRefreshAfterSeconds() {
+        return refreshAfterSeconds;
+    }
+
+    public Long getExpireAfterSeconds() {
+        return expireAfterSeconds;
+    }
+
+    public Long getNegativeTtlSeconds() {
+        return negativeTtlSeconds;
+    }
+
+    public Integer getRefreshThreads() {
+        return refreshThreads;
+    }
+
+    public Integer getRefreshQueueSize() {
+        return refreshQueueSize;
+    }
+}
@@ -0,0 +1,95 @@
+package com.hello.suripu.service.configuration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
+/**
+ * Buffering of records sent to a Kinesis stream with PutRecords
+ */
+public class KinesisBatchConfiguration {
+    private static final Integer DEFAULT_QUEUE_CAPACITY = 20000;  // records buffered before we start returning 503s
+    private static final Integer DEFAULT_MAX_BATCH_RECORDS = 500;  // PutRecords limit
+    private static final Integer DEFAULT_MAX_BATCH_BYTES = 4 * 1024 * 1024;  // PutRecords limit is 5MB
+    private static final Integer DEFAULT_MAX_BUFFER_TIME_MILLIS = 250;
+    private static final Integer DEFAULT_MAX_ATTEMPTS = 3;  // on shutdown only, records are retried until put otherwise
+    private static final Integer DEFAULT_RETRY_BASE_BACKOFF_MILLIS = 100;
+    private static final Integer DEFAULT_RETRY_MAX_BACKOFF_MILLIS = 5000;  // well under the 10s shutdown wait
+    private static final Integer DEFAULT_FLUSHER_THREADS = 2;
+
+    @Valid
+    @Min(1)
+    @JsonProperty("queue_capacity")
+    private Integer queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+    @Valid
+    @Min(1)
+    @Max(500)
+    @JsonProperty("max_batch_records")
+    private Integer maxBatchRecords = DEFAULT_MAX_BATCH_RECORDS;
+
+    @Valid
+    @Min(1)
+    @Max(5 * 1024 * 1024)
+    @JsonProperty("max_batch_bytes")
+    private Integer maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+
+    @Valid
+    @Min(1)
+    @JsonProperty("max_buffer_time_millis")
+    private Integer maxBufferTimeMillis = DEFAULT_MAX_BUFFER_TIME_MILLIS;
+
+    @Valid
+    @Min(1)
+    @JsonProperty("max_attempts")
+    private Integer maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    @Valid
+    @Min(0)
+    @JsonProperty("retry_base_backoff_millis")
+    private Integer retryBaseBackoffMillis = DEFAULT_RETRY_BASE_BACKOFF_MILLIS;
+
+    @Valid
+    @Min(0)
+    @JsonProperty("retry_max_backoff_millis")
+    private Integer retryMaxBackoffMillis = DEFAULT_RETRY_MAX_BACKOFF_MILLIS;
+
+    @Valid
+    @Min(1)
+    @JsonProperty("flusher_threads")
+    private Integer flusherThreads = DEFAULT_FLUSHER_THREADS;
+
+    public Integer getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public Integer getMaxBatchRecords() {
+        return maxBatchRecords;
+    }
+
+    public Integer getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    public Integer getMaxBufferTimeMillis() {
+        return maxBufferTimeMillis;
+    }
+
+    public Integer getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public Integer getRetryBaseBackoffMillis() {
+        return retryBaseBackoffMillis;
+    }
+
+    public Integer getRetryMaxBackoffMillis() {
+        return retryMaxBackoffMillis;
+    }
+
+    public Integer getFlusherThreads() {
+        return flusherThreads;
+    }
+}
@@ -13,6 +13,11 @@ public class OTAConfiguration extends Configuration {
     private static final Integer DEFAULT_END_UPDATE_WINDOW_HOUR = 22;  // non peak periods end at 22:59:59
     private static final Integer DEFAULT_DEVICE_UPTIME_DELAY = 20;  // How long to wait (in minutes) after device boot before allowing updates
     private static final Integer DEFAULT_S3_CACHE_EXPIRE_MINUTES = 60;  // How long to wait (in minutes) after device boot before allowing updates
+    private static final Long DEFAULT_DECISION_CACHE_SIZE = 100000L;  // Senses known to have no firmware update
+    private static final Integer DEFAULT_DECISION_MAX_AGE_MINUTES = 10;  // Added on top of s3cache_expire_minutes before a new release is seen
+    private static final Integer DEFAULT_ROLLOUT_GRANTS_PER_MINUTE = 300;  // Senses sent OTA files per minute on this node, 0 disables the throttle
+    private static final Integer DEFAULT_ROLLOUT_BURST = 100;  // Senses that can be sent OTA files at once after a quiet period
+    private static final Integer DEFAULT_ROLLOUT_RETRY_MAX_MINUTES = 10;  // Senses over the cap retry after a random 1 to 10 minutes
 
     @Valid
     @Max(10)
@@ -29,6 +34,31 @@ public class OTAConfiguration extends Configuration {
     @JsonProperty("s3cache_expire_minutes")
     private Integer s3CacheExpireMinutes = DEFAULT_S3_CACHE_EXPIRE_MINUTES;
 
+    @Valid
+    @Min(0)
+    @JsonProperty("decision_cache_size")
+    private Long decisionCacheSize = DEFAULT_DECISION_CACHE_SIZE;
+
+    @Valid
+    @Min(0)
+    @JsonProperty("decision_max_age_minutes")
+    private Integer decisionMaxAgeMinutes = DEFAULT_DECISION_MAX_AGE_MINUTES;
+
+    @Valid
+    @Min(0)
+    @JsonProperty("rollout_grants_per_minute")
+    private Integer rolloutGrantsPerMinute = DEFAULT_ROLLOUT_GRANTS_PER_MINUTE;
+
+    @Valid
+    @Min(1)
+    @JsonProperty("rollout_burst")
+    private Integer rolloutBurst = DEFAULT_ROLLOUT_BURST;
+
+    @Valid
+    @Min(1)
+    @JsonProperty("rollout_retry_max_minutes")
+    private Integer rolloutRetryMaxMinutes = DEFAULT_ROLLOUT_RETRY_MAX_MINUTES;
+
     public Integer getStartUpdateWindowHour() {
         return this.startUpdateWindowHour;
     }
@@ -44,4 +74,24 @@ public class OTAConfiguration extends Configuration {
     public Integer getS3CacheExpireMinutes() {
         return this.s3CacheExpireMinutes;
     }
+
+    public Long getDecisionCacheSize() {
+        return this.decisionCacheSize;
+    }
+
+    public Integer getDecisionMaxAgeMinutes() {
+        return this.decisionMaxAgeMinutes;
+    }
+
+    public Integer getRolloutGrantsPerMinute() {
+        return this.rolloutGrantsPerMinute;
+    }
+
+    public Integer getRolloutBurst() {
+        return this.rolloutBurst;
+    }
+
+    public Integer getRolloutRetryMaxMinutes() {
+        return this.rolloutRetryMaxMinutes;
+    }
 }
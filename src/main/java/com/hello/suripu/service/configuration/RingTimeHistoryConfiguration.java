@@ -0,0 +1,62 @@
+package com.hello.suripu.service.configuration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+
+/**
+ * Write-behind of the ring time history, written by Senses about to ring
+ */
+public class RingTimeHistoryConfiguration {
+    private static final Integer DEFAULT_MAX_PENDING = 20000;
+    private static final Long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000L;
+    private static final Double DEFAULT_MAX_WRITES_PER_SECOND = 50.0;  // spreads the top of the hour over a few minutes
+    private static final Long DEFAULT_DEDUPE_MINUTES = 60L;
+    private static final Integer DEFAULT_MAX_ATTEMPTS = 5;  // a failed write is retried on the next flushes
+
+    @Valid
+    @Min(1)
+    @JsonProperty("max_pending")
+    private Integer maxPending = DEFAULT_MAX_PENDING;
+
+    @Valid
+    @Min(10)
+    @JsonProperty("flush_interval_millis")
+    private Long flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MILLIS;
+
+    @Valid
+    @Min(1)
+    @JsonProperty("max_writes_per_second")
+    private Double maxWritesPerSecond = DEFAULT_MAX_WRITES_PER_SECOND;
+
+    @Valid
+    @Min(0)
+    @JsonProperty("dedupe_minutes")
+    private Long dedupeMinutes = DEFAULT_DEDUPE_MINUTES;
+
+    @Valid
+    @Min(1)
+    @JsonProperty("max_attempts")
+    private Integer maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    public Integer getMaxPending() {
+        return maxPending;
+    }
+
+    public Long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    public Double getMaxWritesPerSecond() {
+        return maxWritesPerSecond;
+    }
+
+    public Long getDedupeMinutes() {
+        return dedupeMinutes;
+    }
+
+    public Integer getMaxAttempts() {
+        return maxAttempts;
+    }
+}
@@ -0,0 +1,62 @@
+package com.hello.suripu.service.configuration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+
+/**
+ * Write-behind of the state reported by Senses, and the last state reported to this node
+ */
+public class SenseStateConfiguration {
+    private static final Long DEFAULT_MAX_SIZE = 200000L;
+    private static final Integer DEFAULT_MAX_PENDING = 20000;
+    private static final Long DEFAULT_FLUSH_INTERVAL_MILLIS = 500L;
+    private static final Long DEFAULT_REWRITE_UNCHANGED_MINUTES = 5L;  // bounds how long a skipped state can leave another node's write in the table
+    private static final Long DEFAULT_LAST_KNOWN_SECONDS = 60L;  // how long a state reported here is trusted over the table
+
+    @Valid
+    @Min(0)
+    @JsonProperty("max_size")
+    private Long maxSize = DEFAULT_MAX_SIZE;
+
+    @Valid
+    @Min(1)
+    @JsonProperty("max_pending")
+    private Integer maxPending = DEFAULT_MAX_PENDING;
+
+    @Valid
+    @Min(10)
+    @JsonProperty("flush_interval_millis")
+    private Long flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MILLIS;
+
+    @Valid
+    @Min(0)
+    @JsonProperty("rewrite_unchanged_minutes")
+    private Long rewriteUnchangedMinutes = DEFAULT_REWRITE_UNCHANGED_MINUTES;
+
+    @Valid
+    @Min(0)
+    @JsonProperty("last_known_seconds")
+    private Long lastKnownSeconds = DEFAULT_LAST_KNOWN_SECONDS;
+
+    public Long getMaxSize() {
+        return maxSize;
+    }
+
+    public Integer getMaxPending() {
+        return maxPending;
+    }
+
+    public Long getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    public Long getRewriteUnchangedMinutes() {
+        return rewriteUnchangedMinutes;
+    }
+
+    public Long getLastKnownSeconds() {
+        return lastKnownSeconds;
+    }
+}
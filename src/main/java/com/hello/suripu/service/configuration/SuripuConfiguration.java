@@ -67,6 +67,83 @@ public class SuripuConfiguration extends Configuration {
         return kinesisConfiguration;
     }
 
+    @Valid
+    @JsonProperty("sense_sensors_data_batching")
+    private KinesisBatchConfiguration senseSensorsDataBatching = new KinesisBatchConfiguration();
+    public KinesisBatchConfiguration senseSensorsDataBatching() {
+        return senseSensorsDataBatching;
+    }
+
+    @Valid
+    @JsonProperty("alarm_actions_batching")
+    private KinesisBatchConfiguration alarmActionsBatching = new KinesisBatchConfiguration();
+    public KinesisBatchConfiguration alarmActionsBatching() {
+        return alarmActionsBatching;
+    }
+
+    @Valid
+    @JsonProperty("batch_pill_data_batching")
+    private KinesisBatchConfiguration batchPillDataBatching = new KinesisBatchConfiguration();
+    public KinesisBatchConfiguration batchPillDataBatching() {
+        return batchPillDataBatching;
+    }
+
+    @Valid
+    @JsonProperty("sync_lookups")
+    private SyncLookupConfiguration syncLookups = new SyncLookupConfiguration();
+    public SyncLookupConfiguration syncLookups() {
+        return syncLookups;
+    }
+
+    @Valid
+    @JsonProperty("user_info_cache")
+    private UserInfoCacheConfiguration userInfoCache = new UserInfoCacheConfiguration();
+    public UserInfoCacheConfiguration userInfoCache() {
+        return userInfoCache;
+    }
+
+    @Valid
+    @JsonProperty("key_store_cache")
+    private KeyStoreCacheConfiguration keyStoreCache = new KeyStoreCacheConfiguration();
+    public KeyStoreCacheConfiguration keyStoreCache() {
+        return keyStoreCache;
+    }
+
+    @Valid
+    @JsonProperty("ring_time_history")
+    private RingTimeHistoryConfiguration ringTimeHistory = new RingTimeHistoryConfiguration();
+    public RingTimeHistoryConfiguration ringTimeHistory() {
+        return ringTimeHistory;
+    }
+
+    @Valid
+    @JsonProperty("sense_state")
+    private SenseStateConfiguration senseState = new SenseStateConfiguration();
+    public SenseStateConfiguration senseState() {
+        return senseState;
+    }
+
+    @Valid
+    @JsonProperty("file_info_cache")
+    private FileInfoCacheConfiguration fileInfoCache = new FileInfoCacheConfiguration();
+    public FileInfoCacheConfiguration fileInfoCache() {
+        return fileInfoCache;
+    }
+
+    @Valid
+    @JsonProperty("sync_plan")
+    private SyncPlanConfiguration syncPlan = new SyncPlanConfiguration();
+    public SyncPlanConfiguration syncPlan() {
+        return syncPlan;
+    }
+
+    @Valid
+    @JsonProperty("clock_sync")
+    private ClockSyncConfiguration clockSync = new ClockSyncConfiguration();
+    public ClockSyncConfiguration clockSync() {
+        return clockSync;
+    }
+
     @JsonProperty("sense_upload_configuration")
     private SenseUploadConfiguration senseUploadConfiguration;
     public SenseUploadConfiguration getSenseUploadConfiguration() { return this.senseUploadConfiguration; }
@@ -102,6 +179,26 @@ public class SuripuConfiguration extends Configuration {
         return calibrationCacheDurationSeconds;
     }
 
+    @JsonProperty("signing_key_cache_size")
+    private Long signingKeyCacheSize = 50000L;
+    public Long signingKeyCacheSize() {
+        return signingKeyCacheSize;
+    }
+
+    @Valid
+    @Min(1)
+    @JsonProperty("feature_polling_interval_seconds")
+    private Integer featurePollingIntervalSeconds = 30;
+    public Integer featurePollingIntervalSeconds() {
+        return featurePollingIntervalSeconds;
+    }
+
+    @JsonProperty("alarm_actions_dedupe_size")
+    private Long alarmActionsDedupeSize = 100000L;
+    public Long alarmActionsDedupeSize() {
+        return alarmActionsDedupeSize;
+    }
+
     @Valid
     @NotNull
     @JsonProperty("dynamodb")
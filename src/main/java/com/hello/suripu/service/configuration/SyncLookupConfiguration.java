@@ -0,0 +1,82 @@
+package com.hello.suripu.service.configuration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+
+/**
+ * Concurrent lookups issued while building a SyncResponse, and how long we wait on each of them
+ */
+public class SyncLookupConfiguration {
+    private static final Integer DEFAULT_THREADS = 64;
+    private static final Integer DEFAULT_QUEUE_SIZE = 256;  // beyond that lookups run on the request thread
+    private static final Long DEFAULT_USER_INFO_TIMEOUT_MILLIS = 1000L;
+    private static final Long DEFAULT_CALIBRATION_TIMEOUT_MILLIS = 500L;
+    private static final Long DEFAULT_RING_TIME_TIMEOUT_MILLIS = 3000L;  // no fallback, we return a 503 rather than an empty alarm
+    private static final Long DEFAULT_OTA_TIMEOUT_MILLIS = 1000L;
+    private static final Long DEFAULT_SENSE_STATE_TIMEOUT_MILLIS = 500L;
+
+    @Valid
+    @Min(1)
+    @JsonProperty("threads")
+    private Integer threads = DEFAULT_THREADS;
+
+    @Valid
+    @Min(1)
+    @JsonProperty("queue_size")
+    private Integer queueSize = DEFAULT_QUEUE_SIZE;
+
+    @Valid
+    @Min(1)
+    @JsonProperty("user_info_timeout_millis")
+    private Long userInfoTimeoutMillis = DEFAULT_USER_INFO_TIMEOUT_MILLIS;
+
+    @Valid
+    @Min(1)
+    @JsonProperty("calibration_timeout_millis")
+    private Long calibrationTimeoutMillis = DEFAULT_CALIBRATION_TIMEOUT_MILLIS;
+
+    @Valid
+    @Min(1)
+    @JsonProperty("ring_time_timeout_millis")
+    private Long ringTimeTimeoutMillis = DEFAULT_RING_TIME_TIMEOUT_MILLIS;
+
+    @Valid
+    @Min(1)
+    @JsonProperty("ota_timeout_millis")
+    private Long otaTimeoutMillis = DEFAULT_OTA_TIMEOUT_MILLIS;
+
+    @Valid
+    @Min(1)
+    @JsonProperty("sense_state_timeout_millis")
+    private Long senseStateTimeoutMillis = DEFAULT_SENSE_STATE_TIMEOUT_MILLIS;
+
+    public Integer getThreads() {
+        return threads;
+    }
+
+    public Integer getQueueSize() {
+        return queueSize;
+    }
+
+    public Long getUserInfoTimeoutMillis() {
+        return userInfoTimeoutMillis;
+    }
+
+    public Long getCalibrationTimeoutMillis() {
+        return calibrationTimeoutMillis;
+    }
+
+    public Long getRingTimeTimeoutMillis() {
+        return ringTimeTimeoutMillis;
+    }
+
+    public Long getOtaTimeoutMillis() {
+        return otaTimeoutMillis;
+    }
+
+    public Long getSenseStateTimeoutMillis() {
+        return senseStateTimeoutMillis;
+    }
+}
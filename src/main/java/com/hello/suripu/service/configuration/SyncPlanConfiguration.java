@@ -0,0 +1,42 @@
+package com.hello.suripu.service.configuration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+
+/**
+ * Memoized, non sensor dependent, parts of the SyncResponse of each Sense
+ */
+public class SyncPlanConfiguration {
+    private static final Long DEFAULT_MAX_SIZE = 100000L;
+    private static final Long DEFAULT_MAX_AGE_SECONDS = 600L;
+    private static final Long DEFAULT_NEAR_RING_WINDOW_MINUTES = 30L;  // smart alarm window, plans are rebuilt on every sync within it
+
+    @Valid
+    @Min(0)
+    @JsonProperty("max_size")
+    private Long maxSize = DEFAULT_MAX_SIZE;
+
+    @Valid
+    @Min(0)
+    @JsonProperty("max_age_seconds")
+    private Long maxAgeSeconds = DEFAULT_MAX_AGE_SECONDS;
+
+    @Valid
+    @Min(0)
+    @JsonProperty("near_ring_window_minutes")
+    private Long nearRingWindowMinutes = DEFAULT_NEAR_RING_WINDOW_MINUTES;
+
+    public Long getMaxSize() {
+        return maxSize;
+    }
+
+    public Long getMaxAgeSeconds() {
+        return maxAgeSeconds;
+    }
+
+    public Long getNearRingWindowMinutes() {
+        return nearRingWindowMinutes;
+    }
+}
@@ -0,0 +1,52 @@
+package com.hello.suripu.service.configuration;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+
+/**
+ * Local cache of the alarm related info (merged user info) of each Sense
+ */
+public class UserInfoCacheConfiguration {
+    private static final Long DEFAULT_MAX_SIZE = 100000L;
+    private static final Long DEFAULT_SHORT_TTL_SECONDS = 10L;  // below the upload interval, so effectively no caching
+    private static final Long DEFAULT_LONG_TTL_SECONDS = 120L;  // how late an alarm edited in the app may be picked up
+    private static final Long DEFAULT_NEAR_RING_WINDOW_MINUTES = 30L;  // smart alarm window
+
+    @Valid
+    @Min(0)
+    @JsonProperty("max_size")
+    private Long maxSize = DEFAULT_MAX_SIZE;
+
+    @Valid
+    @Min(0)
+    @JsonProperty("short_ttl_seconds")
+    private Long shortTtlSeconds = DEFAULT_SHORT_TTL_SECONDS;
+
+    @Valid
+    @Min(0)
+    @JsonProperty("long_ttl_seconds")
+    private Long longTtlSeconds = DEFAULT_LONG_TTL_SECONDS;
+
+    @Valid
+    @Min(0)
+    @JsonProperty("near_ring_window_minutes")
+    private Long nearRingWindowMinutes = DEFAULT_NEAR_RING_WINDOW_MINUTES;
+
+    public Long getMaxSize() {
+        return maxSize;
+    }
+
+    public Long getShortTtlSeconds() {
+        return shortTtlSeconds;
+    }
+
+    public Long getLongTtlSeconds() {
+        return longTtlSeconds;
+    }
+
+    public Long getNearRingWindowMinutes() {
+        return nearRingWindowMinutes;
+    }
+}
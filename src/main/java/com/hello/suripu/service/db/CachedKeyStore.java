@@ -0,0 +1,190 @@
+package com.hello.suripu.service.db;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.hello.suripu.core.db.KeyStore;
+import com.hello.suripu.core.models.DeviceKeyStoreRecord;
+import com.hello.suripu.service.configuration.KeyStoreCacheConfiguration;
+import org.joda.time.DateTime;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Caches the keys returned by {@link KeyStore#get} on top of the delegate's own cache.
+ *
+ * Keys read after refresh_after_seconds are reloaded on the refresh executor while the current key keeps being served,
+ * so a Sense uploading every minute never waits on DynamoDB. Unknown device ids are remembered for negative_ttl_seconds.
+ * getStrict, batch reads and writes go to the delegate, writes also invalidate the device.
+ */
+public class CachedKeyStore implements KeyStore {
+
+    private static final Boolean UNKNOWN = Boolean.TRUE;
+
+    private final KeyStore delegate;
+    private final LoadingCache<String, Optional<byte[]>> keys;
+    private final Cache<String, Boolean> unknownDeviceIds;
+
+    private final Meter negativeHits;
+
+    private CachedKeyStore(final KeyStore delegate,
+                           final LoadingCache<String, Optional<byte[]>> keys,
+                           final Cache<String, Boolean> unknownDeviceIds,
+                           final MetricRegistry metrics) {
+        this.delegate = delegate;
+        this.keys = keys;
+        this.unknownDeviceIds = unknownDeviceIds;
+        this.negativeHits = metrics.meter(name(CachedKeyStore.class, "negative-hits"));
+        metrics.register(name(CachedKeyStore.class, "hit-ratio"), new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return keys.stats().hitRate();
+            }
+        });
+        metrics.register(name(CachedKeyStore.class, "loads"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return keys.stats().loadCount();
+            }
+        });
+        metrics.register(name(CachedKeyStore.class, "evictions"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return keys.stats().evictionCount();
+            }
+        });
+        metrics.register(name(CachedKeyStore.class, "size"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return keys.size();
+            }
+        });
+    }
+
+    public static CachedKeyStore create(final KeyStore delegate,
+                                        final KeyStoreCacheConfiguration configuration,
+                                        final Executor refreshExecutor,
+                                        final MetricRegistry metrics) {
+        if(configuration.getRefreshAfterSeconds() >= configuration.getExpireAfterSeconds()) {
+            throw new IllegalArgumentException("refresh_after_seconds must be lower than expire_after_seconds");
+        }
+
+        final LoadingCache<String, Optional<byte[]>> keys = CacheBuilder.newBuilder()
+                .maximumSize(configuration.getMaxSize())
+                .refreshAfterWrite(configuration.getRefreshAfterSeconds(), TimeUnit.SECONDS)
+                .expireAfterAccess(configuration.getExpireAfterSeconds(), TimeUnit.SECONDS)
+                .recordStats()
+                .build(new CacheLoader<String, Optional<byte[]>>() {
+                    @Override
+                    public Optional<byte[]> load(final String deviceId) throws Exception {
+                        return delegate.get(deviceId);
+                    }
+
+                    @Override
+                    public ListenableFuture<Optional<byte[]>> reload(final String deviceId, final Optional<byte[]> oldKey) throws Exception {
+                        final ListenableFutureTask<Optional<byte[]>> task = ListenableFutureTask.create(new Callable<Optional<byte[]>>() {
+                            @Override
+                            public Optional<byte[]> call() throws Exception {
+                                return delegate.get(deviceId);
+                            }
+                        });
+                        refreshExecutor.execute(task);
+                        return task;
+                    }
+                });
+
+        final Cache<String, Boolean> unknownDeviceIds = CacheBuilder.newBuilder()
+                .maximumSize(configuration.getMaxSize())
+                .expireAfterWrite(configuration.getNegativeTtlSeconds(), TimeUnit.SECONDS)
+                .build();
+
+        return new CachedKeyStore(delegate, keys, unknownDeviceIds, metrics);
+    }
+
+    @Override
+    public Optional<byte[]> get(final String deviceId) {
+        if(unknownDeviceIds.getIfPresent(deviceId) != null) {
+            negativeHits.mark();
+            return Optional.absent();
+        }
+
+        final Optional<byte[]> key;
+        try {
+            key = keys.get(deviceId);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            // Same exceptions as the delegate
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+
+        if(!key.isPresent()) {
+            // Also when a refresh found the key gone
+            keys.invalidate(deviceId);
+            unknownDeviceIds.put(deviceId, UNKNOWN);
+        }
+        return key;
+    }
+
+    /**
+     * Not cached here, CheckResource relies on it
+     */
+    @Override
+    public Optional<byte[]> getStrict(final String deviceId) {
+        return delegate.getStrict(deviceId);
+    }
+
+    @Override
+    public Optional<DeviceKeyStoreRecord> getKeyStoreRecord(final String deviceId) {
+        return delegate.getKeyStoreRecord(deviceId);
+    }
+
+    @Override
+    public Map<String, Optional<byte[]>> getBatch(final Set<String> deviceIds) {
+        return delegate.getBatch(deviceIds);
+    }
+
+    @Override
+    public Map<String, Optional<DeviceKeyStoreRecord>> getKeyStoreRecordBatch(final Set<String> deviceIds) {
+        return delegate.getKeyStoreRecordBatch(deviceIds);
+    }
+
+    @Override
+    public void put(final String deviceId, final String publicKey) {
+        delegate.put(deviceId, publicKey);
+        invalidate(deviceId);
+    }
+
+    @Override
+    public void put(final String deviceId, final String publicKey, final String serialNumber) {
+        delegate.put(deviceId, publicKey, serialNumber);
+        invalidate(deviceId);
+    }
+
+    @Override
+    public void put(final String deviceId, final String publicKey, final String serialNumber, final DateTime createdAt) {
+        delegate.put(deviceId, publicKey, serialNumber, createdAt);
+        invalidate(deviceId);
+    }
+
+    public void invalidate(final String deviceId) {
+        keys.invalidate(deviceId);
+        unknownDeviceIds.invalidate(deviceId);
+    }
+}
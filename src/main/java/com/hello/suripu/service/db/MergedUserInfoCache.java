@@ -0,0 +1,154 @@
+package com.hello.suripu.service.db;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableList;
+import com.hello.suripu.core.db.MergedUserInfoDynamoDB;
+import com.hello.suripu.core.models.RingTime;
+import com.hello.suripu.core.models.UserInfo;
+import com.hello.suripu.service.configuration.UserInfoCacheConfiguration;
+import com.hello.suripu.service.utils.SingleFlight;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Read-through cache in front of MergedUserInfoDynamoDB.getInfo, Sense asks for it on every upload.
+ *
+ * Entries live longTtl, except around the next ring time of one of the accounts where they live shortTtl:
+ * that's when the ring time computed by the workers must be picked up quickly.
+ * A long lived entry never outlives the start of its next ring window, longTtl bounds how late alarms edited in the app are seen.
+ */
+public class MergedUserInfoCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MergedUserInfoCache.class);
+
+    private static class Entry {
+        final List<UserInfo> userInfoList;
+        final long expiresAtMillis;
+
+        Entry(final List<UserInfo> userInfoList, final long expiresAtMillis) {
+            this.userInfoList = userInfoList;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    private final MergedUserInfoDynamoDB mergedUserInfoDynamoDB;
+    private final Cache<String, Entry> cache;
+    private final SingleFlight reads;
+    private final long shortTtlMillis;
+    private final long longTtlMillis;
+    private final long nearRingWindowMillis;
+
+    private final Meter hits;
+    private final Meter misses;
+
+    private MergedUserInfoCache(final MergedUserInfoDynamoDB mergedUserInfoDynamoDB,
+                                final Cache<String, Entry> cache,
+                                final SingleFlight reads,
+                                final long shortTtlMillis,
+                                final long longTtlMillis,
+                                final long nearRingWindowMillis,
+                                final MetricRegistry metrics) {
+        this.mergedUserInfoDynamoDB = mergedUserInfoDynamoDB;
+        this.cache = cache;
+        this.reads = reads;
+        this.shortTtlMillis = shortTtlMillis;
+        this.longTtlMillis = longTtlMillis;
+        this.nearRingWindowMillis = nearRingWindowMillis;
+        this.hits = metrics.meter(name(MergedUserInfoCache.class, "hits"));
+        this.misses = metrics.meter(name(MergedUserInfoCache.class, "misses"));
+        metrics.register(name(MergedUserInfoCache.class, "size"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return cache.size();
+            }
+        });
+    }
+
+    public static MergedUserInfoCache create(final MergedUserInfoDynamoDB mergedUserInfoDynamoDB,
+                                             final UserInfoCacheConfiguration configuration,
+                                             final MetricRegistry metrics) {
+        final long shortTtlMillis = TimeUnit.SECONDS.toMillis(configuration.getShortTtlSeconds());
+        final long longTtlMillis = TimeUnit.SECONDS.toMillis(configuration.getLongTtlSeconds());
+        if(shortTtlMillis > longTtlMillis) {
+            throw new IllegalArgumentException("short_ttl_seconds can not be greater than long_ttl_seconds");
+        }
+
+        final Meter evictions = metrics.meter(name(MergedUserInfoCache.class, "evictions"));
+        final Meter expirations = metrics.meter(name(MergedUserInfoCache.class, "expirations"));
+        final Cache<String, Entry> cache = CacheBuilder.newBuilder()
+                .maximumSize(configuration.getMaxSize())
+                .expireAfterWrite(longTtlMillis, TimeUnit.MILLISECONDS)
+                .removalListener(new RemovalListener<String, Entry>() {
+                    @Override
+                    public void onRemoval(final RemovalNotification<String, Entry> notification) {
+                        if(notification.getCause() == RemovalCause.SIZE) {
+                            evictions.mark();
+                        } else if (notification.getCause() == RemovalCause.EXPIRED) {
+                            expirations.mark();
+                        }
+                    }
+                })
+                .build();
+
+        return new MergedUserInfoCache(mergedUserInfoDynamoDB, cache, new SingleFlight("merged_user_info", metrics), shortTtlMillis, longTtlMillis,
+                TimeUnit.MINUTES.toMillis(configuration.getNearRingWindowMinutes()), metrics);
+    }
+
+    public List<UserInfo> getInfo(final String senseId) {
+        final long nowMillis = DateTime.now(DateTimeZone.UTC).getMillis();
+        final Entry cached = cache.getIfPresent(senseId);
+        if(cached != null && cached.expiresAtMillis > nowMillis) {
+            hits.mark();
+            return cached.userInfoList;
+        }
+
+        misses.mark();
+        // Retries and concurrent endpoints of the same Sense miss together
+        final List<UserInfo> userInfoList = reads.execute(senseId, new Callable<List<UserInfo>>() {
+            @Override
+            public List<UserInfo> call() throws Exception {
+                return ImmutableList.copyOf(mergedUserInfoDynamoDB.getInfo(senseId));
+            }
+        });
+        final long ttlMillis = ttlMillis(userInfoList, nowMillis);
+        LOGGER.trace("action=cache-user-info sense_id={} ttl_millis={}", senseId, ttlMillis);
+        cache.put(senseId, new Entry(userInfoList, nowMillis + ttlMillis));
+        return userInfoList;
+    }
+
+    long ttlMillis(final List<UserInfo> userInfoList, final long nowMillis) {
+        long ttlMillis = longTtlMillis;
+        for(final UserInfo userInfo : userInfoList) {
+            if(!userInfo.ringTime.isPresent() || userInfo.ringTime.get().isEmpty()) {
+                continue;
+            }
+
+            // Smart alarms ring before the expected time, within the window
+            final RingTime ringTime = userInfo.ringTime.get();
+            final long ringWindowStartMillis = Math.min(ringTime.actualRingTimeUTC, ringTime.expectedRingTimeUTC) - nearRingWindowMillis;
+            final long ringWindowEndMillis = Math.max(ringTime.actualRingTimeUTC, ringTime.expectedRingTimeUTC) + nearRingWindowMillis;
+            if(nowMillis >= ringWindowStartMillis && nowMillis <= ringWindowEndMillis) {
+                return shortTtlMillis;
+            }
+            if(nowMillis < ringWindowStartMillis) {
+                ttlMillis = Math.min(ttlMillis, ringWindowStartMillis - nowMillis);
+            }
+        }
+        return Math.max(ttlMillis, shortTtlMillis);
+    }
+}
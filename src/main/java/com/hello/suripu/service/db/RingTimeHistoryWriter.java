@@ -0,0 +1,233 @@
+package com.hello.suripu.service.db;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.hello.suripu.core.db.RingTimeHistoryDAODynamoDB;
+import com.hello.suripu.core.models.RingTime;
+import com.hello.suripu.core.models.UserInfo;
+import com.hello.suripu.service.configuration.RingTimeHistoryConfiguration;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Writes the ring time history off the request thread.
+ *
+ * Writes are deduplicated by (sense id, ring time), including against the ones made in the last dedupe_minutes,
+ * and sent at most max_writes_per_second: Senses about to ring all ask at the top of the hour.
+ * A failed write is not deduplicated against and is retried on the next flushes, up to max_attempts.
+ * What is still pending on shutdown is written before the DynamoDB client is closed.
+ */
+public class RingTimeHistoryWriter implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RingTimeHistoryWriter.class);
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10L;
+
+    private static class Key {
+        final String senseId;
+        final long actualRingTimeUTC;
+        final long expectedRingTimeUTC;
+
+        Key(final String senseId, final RingTime ringTime) {
+            this.senseId = senseId;
+            this.actualRingTimeUTC = ringTime.actualRingTimeUTC;
+            this.expectedRingTimeUTC = ringTime.expectedRingTimeUTC;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return actualRingTimeUTC == other.actualRingTimeUTC
+                    && expectedRingTimeUTC == other.expectedRingTimeUTC
+                    && senseId.equals(other.senseId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(senseId, actualRingTimeUTC, expectedRingTimeUTC);
+        }
+    }
+
+    private static class PendingWrite {
+        final String senseId;
+        final List<UserInfo> userInfoList;
+        final RingTime ringTime;
+        final int attempt;
+
+        PendingWrite(final String senseId, final List<UserInfo> userInfoList, final RingTime ringTime, final int attempt) {
+            this.senseId = senseId;
+            this.userInfoList = userInfoList;
+            this.ringTime = ringTime;
+            this.attempt = attempt;
+        }
+    }
+
+    private final RingTimeHistoryDAODynamoDB ringTimeHistoryDAODynamoDB;
+    private final ConcurrentMap<Key, PendingWrite> pending = new ConcurrentHashMap<>();
+    private final Cache<Key, Boolean> written;
+    private final int maxPending;
+    private final int maxAttempts;
+    private final long flushIntervalMillis;
+    private final RateLimiter rateLimiter;
+
+    private final Meter deduplicated;
+    private final Meter rejected;
+    private final Meter failures;
+    private final Meter dropped;
+    private final Timer writes;
+
+    private volatile boolean draining = false;
+    private ScheduledExecutorService flusher;
+
+    private RingTimeHistoryWriter(final RingTimeHistoryDAODynamoDB ringTimeHistoryDAODynamoDB,
+                                  final Cache<Key, Boolean> written,
+                                  final RingTimeHistoryConfiguration configuration,
+                                  final MetricRegistry metrics) {
+        this.ringTimeHistoryDAODynamoDB = ringTimeHistoryDAODynamoDB;
+        this.written = written;
+        this.maxPending = configuration.getMaxPending();
+        this.maxAttempts = configuration.getMaxAttempts();
+        this.flushIntervalMillis = configuration.getFlushIntervalMillis();
+        this.rateLimiter = RateLimiter.create(configuration.getMaxWritesPerSecond());
+
+        this.deduplicated = metrics.meter(name(RingTimeHistoryWriter.class, "deduplicated"));
+        this.rejected = metrics.meter(name(RingTimeHistoryWriter.class, "rejected"));
+        this.failures = metrics.meter(name(RingTimeHistoryWriter.class, "failures"));
+        this.dropped = metrics.meter(name(RingTimeHistoryWriter.class, "dropped"));
+        this.writes = metrics.timer(name(RingTimeHistoryWriter.class, "writes"));
+        metrics.register(name(RingTimeHistoryWriter.class, "pending"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return pending.size();
+            }
+        });
+    }
+
+    public static RingTimeHistoryWriter create(final RingTimeHistoryDAODynamoDB ringTimeHistoryDAODynamoDB,
+                                               final RingTimeHistoryConfiguration configuration,
+                                               final MetricRegistry metrics) {
+        final Cache<Key, Boolean> written = CacheBuilder.newBuilder()
+                .maximumSize(configuration.getMaxPending())
+                .expireAfterWrite(configuration.getDedupeMinutes(), TimeUnit.MINUTES)
+                .build();
+        return new RingTimeHistoryWriter(ringTimeHistoryDAODynamoDB, written, configuration, metrics);
+    }
+
+    /**
+     * Never blocks
+     * @return false if the write was dropped, too many are pending
+     */
+    public boolean setNextRingTime(final String senseId, final List<UserInfo> userInfoList, final RingTime ringTime) {
+        final Key key = new Key(senseId, ringTime);
+        if (written.getIfPresent(key) != null) {
+            deduplicated.mark();
+            return true;
+        }
+
+        if (pending.size() >= maxPending && !pending.containsKey(key)) {
+            rejected.mark();
+            LOGGER.warn("warning=ring-time-history-dropped sense_id={} ring_time={}", senseId, ringTime.actualRingTimeUTC);
+            return false;
+        }
+
+        if (pending.put(key, new PendingWrite(senseId, userInfoList, ringTime, 1)) != null) {
+            deduplicated.mark();
+        }
+        return true;
+    }
+
+    /**
+     * Writes everything pending now, rate limited unless draining. Failed writes stay pending until max_attempts
+     */
+    void flush() {
+        final Map<Key, PendingWrite> failed = Maps.newHashMap();
+        for (final Map.Entry<Key, PendingWrite> entry : pending.entrySet()) {
+            if (!pending.remove(entry.getKey(), entry.getValue())) {
+                continue;  // replaced by a newer write, picked up by the iteration or the next flush
+            }
+            if (!draining) {
+                rateLimiter.acquire();
+            }
+
+            final PendingWrite write = entry.getValue();
+            final Timer.Context context = writes.time();
+            try {
+                ringTimeHistoryDAODynamoDB.setNextRingTime(write.senseId, write.userInfoList, write.ringTime);
+                written.put(entry.getKey(), Boolean.TRUE);
+            } catch (Exception e) {
+                failures.mark();
+                LOGGER.error("error=ring-time-history-write-failure sense_id={} ring_time={} attempt={} message={}",
+                        write.senseId, write.ringTime.actualRingTimeUTC, write.attempt, e.getMessage());
+                // The next upload asking for the same ring time must not be skipped
+                written.invalidate(entry.getKey());
+                if (write.attempt < maxAttempts) {
+                    failed.put(entry.getKey(), new PendingWrite(write.senseId, write.userInfoList, write.ringTime, write.attempt + 1));
+                } else {
+                    dropped.mark();
+                }
+            } finally {
+                context.stop();
+            }
+        }
+
+        // After the iteration so they are not retried within this flush, a write queued meanwhile replaces them
+        for (final Map.Entry<Key, PendingWrite> entry : failed.entrySet()) {
+            pending.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void start() throws Exception {
+        flusher = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("ring-time-history-%d").setDaemon(true).build());
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (Exception e) {
+                    LOGGER.error("error=ring-time-history-flush-failure message={}", e.getMessage());
+                }
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        // Lifts the rate limit of a flush in progress too
+        draining = true;
+        if (flusher != null) {
+            flusher.shutdown();
+            if (!flusher.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warn("warning=ring-time-history-flusher-still-running");
+            }
+        }
+        LOGGER.info("action=stop-ring-time-history-writer pending={}", pending.size());
+        flush();
+    }
+}
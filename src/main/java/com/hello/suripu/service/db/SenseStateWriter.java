@@ -0,0 +1,201 @@
+package com.hello.suripu.service.db;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.hello.suripu.api.input.State;
+import com.hello.suripu.core.db.SenseStateDynamoDB;
+import com.hello.suripu.core.models.SenseStateAtTime;
+import com.hello.suripu.service.configuration.SenseStateConfiguration;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Writes the state reported by Senses off the request thread, and remembers it.
+ *
+ * Only the latest pending state of a Sense is written, a failed write is retried on the next flush unless a newer
+ * state replaced it. A state identical to the last one this node wrote is skipped for rewrite_unchanged_minutes.
+ * Senses are load balanced, so another node may have written a different state in between: the table can lag
+ * behind by up to rewrite_unchanged_minutes, which is why that window is kept short.
+ * The last state reported to this node is served by {@link #getState} for last_known_seconds, older than that
+ * the table is read.
+ * What is still pending on shutdown is written before the DynamoDB client is closed.
+ */
+public class SenseStateWriter implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SenseStateWriter.class);
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10L;
+
+    private final SenseStateDynamoDB senseStateDynamoDB;
+    private final ConcurrentMap<String, SenseStateAtTime> pending = new ConcurrentHashMap<>();
+    private final Cache<String, State.SenseState> written;
+    private final Cache<String, SenseStateAtTime> lastKnown;
+    private final int maxPending;
+    private final long flushIntervalMillis;
+
+    private final Meter unchanged;
+    private final Meter coalesced;
+    private final Meter rejected;
+    private final Meter failures;
+    private final Meter localReads;
+    private final Timer writes;
+
+    private ScheduledExecutorService flusher;
+
+    private SenseStateWriter(final SenseStateDynamoDB senseStateDynamoDB,
+                             final Cache<String, State.SenseState> written,
+                             final Cache<String, SenseStateAtTime> lastKnown,
+                             final SenseStateConfiguration configuration,
+                             final MetricRegistry metrics) {
+        this.senseStateDynamoDB = senseStateDynamoDB;
+        this.written = written;
+        this.lastKnown = lastKnown;
+        this.maxPending = configuration.getMaxPending();
+        this.flushIntervalMillis = configuration.getFlushIntervalMillis();
+
+        this.unchanged = metrics.meter(name(SenseStateWriter.class, "unchanged"));
+        this.coalesced = metrics.meter(name(SenseStateWriter.class, "coalesced"));
+        this.rejected = metrics.meter(name(SenseStateWriter.class, "rejected"));
+        this.failures = metrics.meter(name(SenseStateWriter.class, "failures"));
+        this.localReads = metrics.meter(name(SenseStateWriter.class, "local-reads"));
+        this.writes = metrics.timer(name(SenseStateWriter.class, "writes"));
+        metrics.register(name(SenseStateWriter.class, "pending"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return pending.size();
+            }
+        });
+    }
+
+    public static SenseStateWriter create(final SenseStateDynamoDB senseStateDynamoDB,
+                                          final SenseStateConfiguration configuration,
+                                          final MetricRegistry metrics) {
+        final Cache<String, State.SenseState> written = CacheBuilder.newBuilder()
+                .maximumSize(configuration.getMaxSize())
+                .expireAfterWrite(configuration.getRewriteUnchangedMinutes(), TimeUnit.MINUTES)
+                .build();
+        final Cache<String, SenseStateAtTime> lastKnown = CacheBuilder.newBuilder()
+                .maximumSize(configuration.getMaxSize())
+                .expireAfterWrite(configuration.getLastKnownSeconds(), TimeUnit.SECONDS)
+                .build();
+        return new SenseStateWriter(senseStateDynamoDB, written, lastKnown, configuration, metrics);
+    }
+
+    /**
+     * Never blocks
+     * @return false if the write was dropped, too many are pending
+     */
+    public boolean updateState(final SenseStateAtTime senseStateAtTime) {
+        final String senseId = senseStateAtTime.state.getSenseId();
+        lastKnown.put(senseId, senseStateAtTime);
+
+        // A pending state is always replaced, it may differ from the one written
+        if (!pending.containsKey(senseId) && senseStateAtTime.state.equals(written.getIfPresent(senseId))) {
+            unchanged.mark();
+            return true;
+        }
+
+        if (pending.size() >= maxPending && !pending.containsKey(senseId)) {
+            rejected.mark();
+            LOGGER.warn("warning=sense-state-dropped sense_id={}", senseId);
+            return false;
+        }
+
+        if (pending.put(senseId, senseStateAtTime) != null) {
+            coalesced.mark();
+        }
+        return true;
+    }
+
+    /**
+     * Last state reported to this node if recent enough, from the table otherwise
+     */
+    public Optional<SenseStateAtTime> getState(final String senseId) {
+        final SenseStateAtTime senseStateAtTime = lastKnown.getIfPresent(senseId);
+        if (senseStateAtTime != null) {
+            localReads.mark();
+            return Optional.of(senseStateAtTime);
+        }
+        return senseStateDynamoDB.getState(senseId);
+    }
+
+    /**
+     * Writes everything pending now, failed writes stay pending
+     */
+    void flush() {
+        // Cleared when a newer state of the same Sense is written later in this iteration
+        final Map<String, SenseStateAtTime> failed = Maps.newHashMap();
+        for (final Map.Entry<String, SenseStateAtTime> entry : pending.entrySet()) {
+            // Before the removal, so a state equal to the previous one is not skipped while this one is in flight
+            written.invalidate(entry.getKey());
+            if (!pending.remove(entry.getKey(), entry.getValue())) {
+                continue;  // replaced by a newer state, picked up by the iteration or the next flush
+            }
+
+            final SenseStateAtTime senseStateAtTime = entry.getValue();
+            final Timer.Context context = writes.time();
+            try {
+                senseStateDynamoDB.updateState(senseStateAtTime);
+                written.put(entry.getKey(), senseStateAtTime.state);
+                failed.remove(entry.getKey());
+            } catch (Exception e) {
+                failures.mark();
+                LOGGER.error("error=sense-state-write-failure sense_id={} message={}", entry.getKey(), e.getMessage());
+                failed.put(entry.getKey(), senseStateAtTime);
+            } finally {
+                context.stop();
+            }
+        }
+
+        // After the iteration so they are not retried within this flush. Unless a newer state came in meanwhile,
+        // that one is written instead
+        for (final Map.Entry<String, SenseStateAtTime> entry : failed.entrySet()) {
+            pending.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void start() throws Exception {
+        flusher = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("sense-state-%d").setDaemon(true).build());
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    flush();
+                } catch (Exception e) {
+                    LOGGER.error("error=sense-state-flush-failure message={}", e.getMessage());
+                }
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (flusher != null) {
+            flusher.shutdown();
+            if (!flusher.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warn("warning=sense-state-flusher-still-running");
+            }
+        }
+        LOGGER.info("action=stop-sense-state-writer pending={}", pending.size());
+        flush();
+    }
+}
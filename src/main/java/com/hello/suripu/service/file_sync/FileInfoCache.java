@@ -0,0 +1,125 @@
+package com.hello.suripu.service.file_sync;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Objects;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.hello.suripu.core.db.FileInfoDAO;
+import com.hello.suripu.core.firmware.HardwareVersion;
+import com.hello.suripu.core.models.FileInfo;
+import com.hello.suripu.service.configuration.FileInfoCacheConfiguration;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Caches {@link FileInfoDAO#getAll} per (hardware version, firmware version, sense id), the files a Sense is expected to have.
+ *
+ * The DAO only exposes the public files merged with the ones assigned to the Sense, so that's what is cached.
+ * Entries read after refresh_after_seconds are reloaded on the refresh executor and swapped in whole,
+ * the previous list is served meanwhile. Entries not read for expire_after_minutes are dropped.
+ */
+public class FileInfoCache {
+
+    private static class Key {
+        final HardwareVersion hardwareVersion;
+        final int firmwareVersion;
+        final String senseId;
+
+        Key(final HardwareVersion hardwareVersion, final int firmwareVersion, final String senseId) {
+            this.hardwareVersion = hardwareVersion;
+            this.firmwareVersion = firmwareVersion;
+            this.senseId = senseId;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return firmwareVersion == other.firmwareVersion
+                    && hardwareVersion == other.hardwareVersion
+                    && senseId.equals(other.senseId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(hardwareVersion, firmwareVersion, senseId);
+        }
+    }
+
+    private final LoadingCache<Key, List<FileInfo>> fileInfos;
+
+    private FileInfoCache(final LoadingCache<Key, List<FileInfo>> fileInfos, final MetricRegistry metrics) {
+        this.fileInfos = fileInfos;
+        metrics.register(name(FileInfoCache.class, "hit-ratio"), new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return fileInfos.stats().hitRate();
+            }
+        });
+        metrics.register(name(FileInfoCache.class, "loads"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return fileInfos.stats().loadCount();
+            }
+        });
+        metrics.register(name(FileInfoCache.class, "size"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return fileInfos.size();
+            }
+        });
+    }
+
+    /**
+     * @param fileInfoSenseOneDAO files of Sense 1.0
+     * @param fileInfoSenseOneFiveDAO files of Sense 1.5
+     */
+    public static FileInfoCache create(final FileInfoDAO fileInfoSenseOneDAO,
+                                       final FileInfoDAO fileInfoSenseOneFiveDAO,
+                                       final FileInfoCacheConfiguration configuration,
+                                       final Executor refreshExecutor,
+                                       final MetricRegistry metrics) {
+        final CacheLoader<Key, List<FileInfo>> loader = new CacheLoader<Key, List<FileInfo>>() {
+            @Override
+            public List<FileInfo> load(final Key key) throws Exception {
+                // pick the right DAO based on hardware version
+                final FileInfoDAO fileInfoDAO = (key.hardwareVersion.equals(HardwareVersion.SENSE_ONE)) ? fileInfoSenseOneDAO : fileInfoSenseOneFiveDAO;
+                return ImmutableList.copyOf(fileInfoDAO.getAll(key.firmwareVersion, key.senseId));
+            }
+        };
+
+        final LoadingCache<Key, List<FileInfo>> fileInfos = CacheBuilder.newBuilder()
+                .maximumSize(configuration.getMaxSize())
+                .refreshAfterWrite(configuration.getRefreshAfterSeconds(), TimeUnit.SECONDS)
+                .expireAfterAccess(configuration.getExpireAfterMinutes(), TimeUnit.MINUTES)
+                .recordStats()
+                .build(CacheLoader.asyncReload(loader, refreshExecutor));
+        return new FileInfoCache(fileInfos, metrics);
+    }
+
+    public List<FileInfo> getAll(final HardwareVersion hardwareVersion, final int firmwareVersion, final String senseId) {
+        try {
+            return fileInfos.get(new Key(hardwareVersion, firmwareVersion, senseId));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            // Same exceptions as the DAO
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
@@ -2,13 +2,17 @@ package com.hello.suripu.service.file_sync;
 
 import com.amazonaws.HttpMethod;
 import com.amazonaws.services.s3.AmazonS3;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import com.google.common.base.Joiner;
-import com.google.common.cache.Cache;
+import com.google.common.base.Objects;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Lists;
 import com.google.protobuf.ByteString;
 import com.hello.suripu.api.input.FileSync;
-import com.hello.suripu.core.db.FileInfoDAO;
 import com.hello.suripu.core.db.FileManifestDAO;
 import com.hello.suripu.core.firmware.HardwareVersion;
 import com.hello.suripu.core.models.FileInfo;
@@ -24,10 +28,12 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
+import static com.codahale.metrics.MetricRegistry.name;
+
 /**
  * Created by jakepiccolo on 3/14/16.
  */
@@ -35,59 +41,125 @@ public class FileSynchronizer {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FileSynchronizer.class);
 
-    private final FileInfoDAO fileInfoSenseOneDAO;
-    private final FileInfoDAO fileInfoSenseOneFiveDAO;
+    private final FileInfoCache fileInfoCache;
 
     private final FileManifestDAO fileManifestDAO;
 
     private final AmazonS3 s3Signer;
 
-    // FileInfo.id -> FileDownload (contains presigned URL)
-    private final Cache<String, FileSync.FileManifest.FileDownload> fileDownloadCache;
+    // (hardware version, FileInfo) -> FileDownload (contains presigned URL), re-signed in the background
+    private final LoadingCache<FileKey, SignedFileDownload> fileDownloadCache;
 
     // How long the new presigned S3 URL should exist
     private final Long presignedUrlExpirationMinutes;
 
-    private FileSynchronizer(final FileInfoDAO fileInfoSenseOneDAO,
-                             final FileInfoDAO fileInfoSenseOneFiveDAO,
+    // Entries older than this are served while being re-signed
+    private final long refreshAfterMillis;
+
+    private final Timer signing;
+    private final Meter staleServes;
+
+    /**
+     * A file is re-signed if its uri, sha or path changed even though its id did not
+     */
+    private static class FileKey {
+        final String cacheKey;
+        final FileInfo fileInfo;
+
+        FileKey(final String cacheKey, final FileInfo fileInfo) {
+            this.cacheKey = cacheKey;
+            this.fileInfo = fileInfo;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final FileKey other = (FileKey) o;
+            return cacheKey.equals(other.cacheKey)
+                    && Objects.equal(fileInfo.uri, other.fileInfo.uri)
+                    && Objects.equal(fileInfo.sha, other.fileInfo.sha)
+                    && Objects.equal(fileInfo.path, other.fileInfo.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(cacheKey, fileInfo.uri, fileInfo.sha, fileInfo.path);
+        }
+    }
+
+    private static class SignedFileDownload {
+        final FileSync.FileManifest.FileDownload fileDownload;
+        final long signedAtMillis;
+
+        SignedFileDownload(final FileSync.FileManifest.FileDownload fileDownload, final long signedAtMillis) {
+            this.fileDownload = fileDownload;
+            this.signedAtMillis = signedAtMillis;
+        }
+    }
+
+    private FileSynchronizer(final FileInfoCache fileInfoCache,
                              final FileManifestDAO fileManifestDAO,
                              final AmazonS3 s3Signer,
-                             final Cache<String, FileSync.FileManifest.FileDownload> fileDownloadCache,
-                             final Long presignedUrlExpirationMinutes)
+                             final Long fileDownLoadCacheExpirationMinutes,
+                             final Long presignedUrlExpirationMinutes,
+                             final Executor refreshExecutor,
+                             final MetricRegistry metrics)
     {
-        this.fileInfoSenseOneDAO = fileInfoSenseOneDAO;
-        this.fileInfoSenseOneFiveDAO = fileInfoSenseOneFiveDAO;
+        this.fileInfoCache = fileInfoCache;
         this.fileManifestDAO = fileManifestDAO;
         this.s3Signer = s3Signer;
-        this.fileDownloadCache = fileDownloadCache;
         this.presignedUrlExpirationMinutes = presignedUrlExpirationMinutes;
+        this.refreshAfterMillis = TimeUnit.MINUTES.toMillis(fileDownLoadCacheExpirationMinutes);
+        this.signing = metrics.timer(name(FileSynchronizer.class, "presigned-url-signing"));
+        this.staleServes = metrics.meter(name(FileSynchronizer.class, "presigned-url-stale-serves"));
+
+        final CacheLoader<FileKey, SignedFileDownload> loader = new CacheLoader<FileKey, SignedFileDownload>() {
+            @Override
+            public SignedFileDownload load(final FileKey key) throws URISyntaxException, DecoderException {
+                return sign(key.fileInfo);
+            }
+        };
+
+        // A URL served stale is at least refresh interval away from its expiration
+        final CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .expireAfterWrite(presignedUrlExpirationMinutes - fileDownLoadCacheExpirationMinutes, TimeUnit.MINUTES);
+        if (fileDownLoadCacheExpirationMinutes > 0) {
+            builder.refreshAfterWrite(fileDownLoadCacheExpirationMinutes, TimeUnit.MINUTES);
+        }
+        this.fileDownloadCache = builder.build(CacheLoader.asyncReload(loader, refreshExecutor));
     }
 
     /**
-     * @param fileInfoSenseOneDAO DAO for getting FileInfo so we know what files Sense should have. (Version 1.0)
-     * @param fileInfoSenseOneFiveDAO same as above but for 1.5.
+     * @param fileInfoCache Cached FileInfo so we know what files Sense should have, for Sense 1.0 and 1.5.
      * @param fileManifestDAO DAO for saving FileManifests from Sense so we know what files Sense does have.
      * @param s3Signer S3 client for generating presigned URLs
      * @param fileDownLoadCacheExpirationMinutes Time in minutes to keep FileDownload objects in cache (for generating
      *                                           response FileManifest). This cache is reused for all Senses, and is per file.
      * @param presignedUrlExpirationMinutes How long the presigned URL should stay around in minutes.
      *                                      Must be greater than fileDownLoadCacheExpirationMinutes.
+     *                                      FileDownload objects older than fileDownLoadCacheExpirationMinutes are served while
+     *                                      they are re-signed, and evicted fileDownLoadCacheExpirationMinutes before their URL expires.
+     * @param refreshExecutor Executor re-signing the presigned URLs
      * @return New FileSynchronizer object
      */
-    public static FileSynchronizer create(final FileInfoDAO fileInfoSenseOneDAO,
-                                          final FileInfoDAO fileInfoSenseOneFiveDAO,
+    public static FileSynchronizer create(final FileInfoCache fileInfoCache,
                                           final FileManifestDAO fileManifestDAO,
                                           final AmazonS3 s3Signer,
                                           final Long fileDownLoadCacheExpirationMinutes,
-                                          final Long presignedUrlExpirationMinutes)
+                                          final Long presignedUrlExpirationMinutes,
+                                          final Executor refreshExecutor,
+                                          final MetricRegistry metrics)
     {
         if (presignedUrlExpirationMinutes < fileDownLoadCacheExpirationMinutes) {
             throw new IllegalArgumentException("presignedUrlExpirationMinutes cannot be less than fileDownLoadCacheExpirationMinutes");
         }
-        final Cache<String, FileSync.FileManifest.FileDownload> cache = CacheBuilder.newBuilder()
-                .expireAfterWrite(fileDownLoadCacheExpirationMinutes, TimeUnit.MINUTES)
-                .build();
-        return new FileSynchronizer(fileInfoSenseOneDAO, fileInfoSenseOneFiveDAO, fileManifestDAO, s3Signer, cache, presignedUrlExpirationMinutes);
+        return new FileSynchronizer(fileInfoCache, fileManifestDAO, s3Signer,
+                fileDownLoadCacheExpirationMinutes, presignedUrlExpirationMinutes, refreshExecutor, metrics);
     }
 
     /**
@@ -151,20 +223,28 @@ public class FileSynchronizer {
         return String.format("%s_%s", String.valueOf(hardwareVersion.value), String.valueOf(fileInfoId));
     }
 
+    private SignedFileDownload sign(final FileInfo fileInfo) throws URISyntaxException, DecoderException {
+        final Timer.Context context = signing.time();
+        try {
+            return new SignedFileDownload(toFileDownload(fileInfo), System.currentTimeMillis());
+        } finally {
+            context.stop();
+        }
+    }
+
     /**
-     * Get the FileDownload from cache, or generate it.
+     * Get the FileDownload from cache, or generate it. Only the first request for a file signs inline.
      * @throws URISyntaxException
      */
     private FileSync.FileManifest.FileDownload fileDownloadFromCache(final String cacheKey, final FileInfo fileInfo)
             throws URISyntaxException, DecoderException
     {
         try {
-            return fileDownloadCache.get(cacheKey, new Callable<FileSync.FileManifest.FileDownload>() {
-                @Override
-                public FileSync.FileManifest.FileDownload call() throws URISyntaxException, DecoderException {
-                    return toFileDownload(fileInfo);
-                }
-            });
+            final SignedFileDownload signed = fileDownloadCache.get(new FileKey(cacheKey, fileInfo));
+            if (refreshAfterMillis > 0 && System.currentTimeMillis() - signed.signedAtMillis > refreshAfterMillis) {
+                staleServes.mark();
+            }
+            return signed.fileDownload;
         } catch (ExecutionException e) {
             LOGGER.error("error=ExecutionException method=FileSynchronizer.fileDownloadFromCache file-info-id={} exception={}",
                     fileInfo.id, e);
@@ -197,12 +277,9 @@ public class FileSynchronizer {
     {
         final List<FileSync.FileManifest.FileDownload> expectedFileDownloads;
 
-        // pick the right DAO based on hardware version
-        final FileInfoDAO fileInfoDAO = (hardwareVersion.equals(HardwareVersion.SENSE_ONE)) ? fileInfoSenseOneDAO : fileInfoSenseOneFiveDAO;
-
         if (fileDownloadsEnabled) {
             LOGGER.debug("sense_id={} file_downloads_enabled={}", senseId, fileDownloadsEnabled);
-            final List<FileInfo> expectedFileInfo = fileInfoDAO.getAll(requestManifest.getFirmwareVersion(), senseId);
+            final List<FileInfo> expectedFileInfo = fileInfoCache.getAll(hardwareVersion, requestManifest.getFirmwareVersion(), senseId);
             expectedFileDownloads = getFileDownloadsFromFileInfo(expectedFileInfo, hardwareVersion);
         } else {
             LOGGER.info("sense_id={} file_downloads_enabled={}", senseId, fileDownloadsEnabled);
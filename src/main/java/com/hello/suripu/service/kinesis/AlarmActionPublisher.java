@@ -0,0 +1,118 @@
+package com.hello.suripu.service.kinesis;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.hello.suripu.api.expansions.ExpansionProtos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Publishes alarm actions to the ALARM_ACTIONS stream once per (device, expected ring time, expansion),
+ * and again only if the action changed (service, target values).
+ *
+ * Senses ask for the same alarm every minute of the alarm actions window, the workers only need it once.
+ * An action is only remembered once the producer has put it: one it drops is published again on the next upload.
+ */
+public class AlarmActionPublisher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AlarmActionPublisher.class);
+
+    // Longer than the alarm actions window
+    private static final long DEDUPE_HOURS = 2L;
+
+    private static class Key {
+        final String deviceId;
+        final long expectedRingTimeUTC;
+        final long expansionId;
+
+        Key(final String deviceId, final long expectedRingTimeUTC, final long expansionId) {
+            this.deviceId = deviceId;
+            this.expectedRingTimeUTC = expectedRingTimeUTC;
+            this.expansionId = expansionId;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return expectedRingTimeUTC == other.expectedRingTimeUTC
+                    && expansionId == other.expansionId
+                    && deviceId.equals(other.deviceId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(deviceId, expectedRingTimeUTC, expansionId);
+        }
+    }
+
+    private final BatchingKinesisProducer producer;
+    private final Cache<Key, ExpansionProtos.AlarmAction> published;
+
+    private final Meter deduplicated;
+    private final Meter dropped;
+
+    private AlarmActionPublisher(final BatchingKinesisProducer producer, final Cache<Key, ExpansionProtos.AlarmAction> published, final MetricRegistry metrics) {
+        this.producer = producer;
+        this.published = published;
+        this.deduplicated = metrics.meter(name(AlarmActionPublisher.class, "deduplicated"));
+        this.dropped = metrics.meter(name(AlarmActionPublisher.class, "dropped"));
+    }
+
+    public static AlarmActionPublisher create(final BatchingKinesisProducer producer, final long maxSize, final MetricRegistry metrics) {
+        final Cache<Key, ExpansionProtos.AlarmAction> published = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(DEDUPE_HOURS, TimeUnit.HOURS)
+                .build();
+        return new AlarmActionPublisher(producer, published, metrics);
+    }
+
+    /**
+     * Never blocks
+     * @return true if the action was handed to the producer, false if it was already published or dropped
+     */
+    public boolean publish(final long expansionId, final ExpansionProtos.AlarmAction alarmAction) {
+        final Key key = new Key(alarmAction.getDeviceId(), alarmAction.getExpectedRingtimeUtc(), expansionId);
+        // unix_time is the time of the upload, it changes every time
+        final ExpansionProtos.AlarmAction content = alarmAction.toBuilder().clearUnixTime().build();
+        if (content.equals(published.getIfPresent(key))) {
+            deduplicated.mark();
+            return false;
+        }
+
+        final BatchingKinesisProducer.Callback callback = new BatchingKinesisProducer.Callback() {
+            @Override
+            public void onPut() {
+                published.put(key, content);
+            }
+
+            @Override
+            public void onDropped() {
+                // Not remembered, the next upload tries again
+                markDropped(alarmAction.getDeviceId(), expansionId);
+            }
+        };
+        if (!producer.offer(alarmAction.getDeviceId(), alarmAction.toByteArray(), callback)) {
+            markDropped(alarmAction.getDeviceId(), expansionId);
+            return false;
+        }
+        return true;
+    }
+
+    private void markDropped(final String deviceId, final long expansionId) {
+        dropped.mark();
+        LOGGER.warn("warning=alarm-action-dropped sense_id={} expansion_id={}", deviceId, expansionId);
+    }
+}
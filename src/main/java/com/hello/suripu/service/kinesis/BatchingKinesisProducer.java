@@ -0,0 +1,407 @@
+package com.hello.suripu.service.kinesis;
+
+import com.amazonaws.services.kinesis.AmazonKinesis;
+import com.amazonaws.services.kinesis.model.PutRecordsRequest;
+import com.amazonaws.services.kinesis.model.PutRecordsRequestEntry;
+import com.amazonaws.services.kinesis.model.PutRecordsResult;
+import com.amazonaws.services.kinesis.model.PutRecordsResultEntry;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.hello.suripu.service.configuration.KinesisBatchConfiguration;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Buffers records in a bounded queue and sends them to a Kinesis stream with PutRecords,
+ * flushing whenever a batch is full (records or bytes) or the oldest record has waited maxBufferTimeMillis.
+ *
+ * Request threads only enqueue, {@link #offer} returning false is the signal to push back on the client.
+ * Kinesis routes each entry to its shard by partition key, so one producer per stream is enough.
+ *
+ * The client has been acked once a record is accepted: failed records stay with the flusher that sent them and are
+ * retried with a jittered exponential backoff, ahead of newer records, until they are put. They are only dropped after
+ * maxAttempts when the producer stops. A flusher backing off does not drain the queue, so a throttled stream fills it
+ * and uploads get 503s until Kinesis catches up.
+ */
+public class BatchingKinesisProducer implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchingKinesisProducer.class);
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10L;
+
+    /**
+     * What became of an accepted record, called on a flusher thread (or the thread stopping the producer): must not block
+     */
+    public interface Callback {
+        void onPut();
+        void onDropped();
+    }
+
+    private static final Callback NO_CALLBACK = new Callback() {
+        @Override
+        public void onPut() {
+        }
+
+        @Override
+        public void onDropped() {
+        }
+    };
+
+    private static class PendingRecord {
+        final String partitionKey;
+        final byte[] data;
+        final int attempt;
+        final Callback callback;
+
+        PendingRecord(final String partitionKey, final byte[] data, final int attempt, final Callback callback) {
+            this.partitionKey = partitionKey;
+            this.data = data;
+            this.attempt = attempt;
+            this.callback = callback;
+        }
+
+        int size() {
+            return partitionKey.length() + data.length;
+        }
+    }
+
+    private final AmazonKinesis kinesis;
+    private final String streamName;
+    private final BlockingQueue<PendingRecord> queue;
+    private final int maxBatchRecords;
+    private final int maxBatchBytes;
+    private final long maxBufferTimeMillis;
+    private final int maxAttempts;
+    private final long retryBaseBackoffMillis;
+    private final long retryMaxBackoffMillis;
+    private final int flusherThreads;
+
+    private final Meter rejected;
+    private final Meter recordsPut;
+    private final Meter recordsRetried;
+    private final Meter recordsDropped;
+    private final Histogram batchSize;
+    private final Timer putRecords;
+
+    private volatile boolean running = false;
+    private ExecutorService flushers;
+
+    private BatchingKinesisProducer(final AmazonKinesis kinesis, final String streamName, final KinesisBatchConfiguration configuration, final MetricRegistry metrics) {
+        this.kinesis = kinesis;
+        this.streamName = streamName;
+        this.queue = new ArrayBlockingQueue<>(configuration.getQueueCapacity());
+        this.maxBatchRecords = configuration.getMaxBatchRecords();
+        this.maxBatchBytes = configuration.getMaxBatchBytes();
+        this.maxBufferTimeMillis = configuration.getMaxBufferTimeMillis();
+        this.maxAttempts = configuration.getMaxAttempts();
+        this.retryBaseBackoffMillis = configuration.getRetryBaseBackoffMillis();
+        this.retryMaxBackoffMillis = configuration.getRetryMaxBackoffMillis();
+        this.flusherThreads = configuration.getFlusherThreads();
+
+        this.rejected = metrics.meter(name(BatchingKinesisProducer.class, streamName, "rejected"));
+        this.recordsPut = metrics.meter(name(BatchingKinesisProducer.class, streamName, "records-put"));
+        this.recordsRetried = metrics.meter(name(BatchingKinesisProducer.class, streamName, "records-retried"));
+        this.recordsDropped = metrics.meter(name(BatchingKinesisProducer.class, streamName, "records-dropped"));
+        this.batchSize = metrics.histogram(name(BatchingKinesisProducer.class, streamName, "batch-size"));
+        this.putRecords = metrics.timer(name(BatchingKinesisProducer.class, streamName, "put-records"));
+        metrics.register(name(BatchingKinesisProducer.class, streamName, "queue-size"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return queue.size();
+            }
+        });
+    }
+
+    public static BatchingKinesisProducer create(final AmazonKinesis kinesis, final String streamName, final KinesisBatchConfiguration configuration, final MetricRegistry metrics) {
+        if(streamName == null || streamName.isEmpty()) {
+            throw new IllegalArgumentException("streamName can not be empty");
+        }
+        return new BatchingKinesisProducer(kinesis, streamName, configuration, metrics);
+    }
+
+    /**
+     * Never blocks
+     * @return false if the queue is full and the record was not accepted
+     */
+    public boolean offer(final String partitionKey, final byte[] data) {
+        return offer(partitionKey, data, NO_CALLBACK);
+    }
+
+    /**
+     * Never blocks
+     * @param callback told once the record is put or dropped, not called if the record is not accepted
+     * @return false if the queue is full and the record was not accepted
+     */
+    public boolean offer(final String partitionKey, final byte[] data, final Callback callback) {
+        if(queue.offer(new PendingRecord(partitionKey, data, 1, callback))) {
+            return true;
+        }
+        rejected.mark();
+        return false;
+    }
+
+    @Override
+    public void start() throws Exception {
+        running = true;
+        flushers = Executors.newFixedThreadPool(flusherThreads,
+                new ThreadFactoryBuilder().setNameFormat("kinesis-" + streamName + "-%d").setDaemon(true).build());
+        for(int i = 0; i < flusherThreads; i++) {
+            flushers.submit(new Runnable() {
+                @Override
+                public void run() {
+                    flushLoop();
+                }
+            });
+        }
+        LOGGER.info("action=start-kinesis-producer stream={} flusher_threads={}", streamName, flusherThreads);
+    }
+
+    /**
+     * Lets each flusher send what it holds, then sends whatever is left on the queue from the calling thread.
+     * Flushers never hand records back to the queue, so nothing can land on it after the final drain.
+     */
+    @Override
+    public void stop() throws Exception {
+        running = false;
+        if(flushers != null) {
+            flushers.shutdown();
+            if(!flushers.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                // Cuts backoffs short, flushers still send what they hold on the way out
+                flushers.shutdownNow();
+                if(!flushers.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    LOGGER.warn("warning=kinesis-flushers-still-running stream={} message=records-held-by-flushers-may-be-lost", streamName);
+                }
+            }
+        }
+
+        final List<PendingRecord> remaining = Lists.newArrayList();
+        queue.drainTo(remaining);
+        LOGGER.info("action=stop-kinesis-producer stream={} remaining_records={}", streamName, remaining.size());
+        flushRemaining(remaining);
+    }
+
+    /**
+     * Failed records stay with the flusher that took them and go out ahead of anything still on the queue,
+     * they never compete with request threads for queue capacity
+     */
+    private void flushLoop() {
+        // Records taken off the queue and not yet put: retries first, then at most one record that did not fit the last batch
+        final List<PendingRecord> held = Lists.newArrayList();
+        try {
+            while(running) {
+                try {
+                    final int batchRecords = fillBatch(held);
+                    if(batchRecords == 0) {
+                        continue;
+                    }
+
+                    final List<PendingRecord> batch = Lists.newArrayList(held.subList(0, batchRecords));
+                    held.subList(0, batchRecords).clear();
+                    final List<PendingRecord> retries = retries(flush(batch), false);
+                    if(!retries.isEmpty()) {
+                        held.addAll(0, retries);
+                        // Throttling lasts longer than a flush, going straight back to Kinesis only fails again
+                        backOff(maxAttempt(retries));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (Exception e) {
+                    LOGGER.error("error=kinesis-flush-failure stream={} message={}", streamName, e.getMessage());
+                }
+            }
+        } finally {
+            // The interrupt from stop() only cuts backoffs short, the SDK would abort the final puts
+            final boolean interrupted = Thread.interrupted();
+            flushRemaining(held);
+            if(interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Tops held up from the queue until its head makes a full batch (records or bytes) or maxBufferTimeMillis has passed
+     * @return how many records at the head of held make the next batch
+     */
+    private int fillBatch(final List<PendingRecord> held) throws InterruptedException {
+        if(held.isEmpty()) {
+            final PendingRecord first = queue.poll(maxBufferTimeMillis, TimeUnit.MILLISECONDS);
+            if(first == null) {
+                return 0;
+            }
+            held.add(first);
+        }
+
+        int batchRecords = 0;
+        int batchBytes = 0;
+        for(final PendingRecord record : held) {
+            if(batchRecords == maxBatchRecords || (batchRecords > 0 && batchBytes + record.size() > maxBatchBytes)) {
+                return batchRecords;
+            }
+            batchRecords++;
+            batchBytes += record.size();
+        }
+
+        final long deadline = System.currentTimeMillis() + maxBufferTimeMillis;
+        while(batchRecords < maxBatchRecords) {
+            final long waitMillis = deadline - System.currentTimeMillis();
+            final PendingRecord next = (waitMillis > 0) ? queue.poll(waitMillis, TimeUnit.MILLISECONDS) : queue.poll();
+            if(next == null) {
+                break;
+            }
+            held.add(next);
+            if(batchBytes + next.size() > maxBatchBytes) {
+                // Held for the next batch
+                break;
+            }
+            batchRecords++;
+            batchBytes += next.size();
+        }
+        return batchRecords;
+    }
+
+    /**
+     * Sends records inline once the flushers are stopping, retrying each up to maxAttempts
+     */
+    private void flushRemaining(final List<PendingRecord> records) {
+        for(final List<PendingRecord> batch : Lists.partition(records, maxBatchRecords)) {
+            List<PendingRecord> retries = retries(flush(batch), true);
+            while(!retries.isEmpty()) {
+                backOff(maxAttempt(retries));
+                retries = retries(flush(retries), true);
+            }
+        }
+    }
+
+    /**
+     * @return the records that failed, put ones have been told so
+     */
+    private List<PendingRecord> flush(final List<PendingRecord> batch) {
+        if(batch.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final List<PutRecordsRequestEntry> entries = Lists.newArrayListWithCapacity(batch.size());
+        for(final PendingRecord record : batch) {
+            entries.add(new PutRecordsRequestEntry()
+                    .withPartitionKey(record.partitionKey)
+                    .withData(ByteBuffer.wrap(record.data)));
+        }
+        batchSize.update(batch.size());
+
+        final List<PendingRecord> put = Lists.newArrayListWithCapacity(batch.size());
+        final List<PendingRecord> failed = Lists.newArrayList();
+        final Timer.Context context = putRecords.time();
+        try {
+            final PutRecordsResult result = kinesis.putRecords(new PutRecordsRequest()
+                    .withStreamName(streamName)
+                    .withRecords(entries));
+
+            // Result entries are in the same order as the request entries
+            final List<PutRecordsResultEntry> resultEntries = result.getRecords();
+            String errorCode = null;
+            for(int i = 0; i < resultEntries.size(); i++) {
+                if(resultEntries.get(i).getErrorCode() != null) {
+                    errorCode = resultEntries.get(i).getErrorCode();
+                    failed.add(batch.get(i));
+                } else {
+                    put.add(batch.get(i));
+                }
+            }
+            if(!failed.isEmpty()) {
+                LOGGER.warn("warning=kinesis-partial-failure stream={} failed={} total={} error_code={}",
+                        streamName, failed.size(), batch.size(), errorCode);
+            }
+        } catch (Exception e) {
+            LOGGER.error("error=kinesis-put-records stream={} records={} message={}", streamName, batch.size(), e.getMessage());
+            put.clear();
+            failed.clear();
+            failed.addAll(batch);
+        } finally {
+            context.stop();
+        }
+
+        recordsPut.mark(put.size());
+        for(final PendingRecord record : put) {
+            notify(record, true);
+        }
+        return failed;
+    }
+
+    /**
+     * @param finalFlush drop records that have had maxAttempts, the flushers keep retrying until they are put
+     */
+    private List<PendingRecord> retries(final List<PendingRecord> failed, final boolean finalFlush) {
+        final List<PendingRecord> retries = Lists.newArrayListWithCapacity(failed.size());
+        for(final PendingRecord record : failed) {
+            if(finalFlush && record.attempt >= maxAttempts) {
+                drop(record);
+                continue;
+            }
+            retries.add(new PendingRecord(record.partitionKey, record.data, record.attempt + 1, record.callback));
+        }
+        recordsRetried.mark(retries.size());
+        return retries;
+    }
+
+    private static int maxAttempt(final List<PendingRecord> records) {
+        int attempt = 1;
+        for(final PendingRecord record : records) {
+            attempt = Math.max(attempt, record.attempt);
+        }
+        return attempt;
+    }
+
+    private void drop(final PendingRecord record) {
+        recordsDropped.mark();
+        notify(record, false);
+    }
+
+    private void notify(final PendingRecord record, final boolean put) {
+        try {
+            if(put) {
+                record.callback.onPut();
+            } else {
+                record.callback.onDropped();
+            }
+        } catch (Exception e) {
+            LOGGER.error("error=kinesis-callback-failure stream={} message={}", streamName, e.getMessage());
+        }
+    }
+
+    /**
+     * Sleeps between half and all of retryBaseBackoffMillis * 2^(attempt - 1), capped at retryMaxBackoffMillis,
+     * so flushers throttled together do not retry together
+     */
+    private void backOff(final int attempt) {
+        final long backoffMillis = Math.min(retryMaxBackoffMillis, retryBaseBackoffMillis << Math.min(attempt - 1, 20));
+        if(backoffMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(backoffMillis / 2 + ThreadLocalRandom.current().nextLong(backoffMillis / 2 + 1));
+        } catch (InterruptedException e) {
+            // The flush loop exits on the interrupt and sends what it holds
+            Thread.currentThread().interrupt();
+        }
+    }
+}
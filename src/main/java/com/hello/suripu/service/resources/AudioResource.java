@@ -17,11 +17,12 @@ import com.hello.suripu.api.audio.MatrixProtos;
 import com.hello.suripu.api.audio.SimpleMatrixProtos;
 import com.hello.suripu.core.db.KeyStore;
 import com.hello.suripu.core.flipper.FeatureFlipper;
-import com.hello.suripu.core.flipper.GroupFlipper;
 import com.hello.suripu.core.logging.DataLogger;
 import com.hello.suripu.core.util.HelloHttpHeader;
 import com.hello.suripu.service.SignedMessage;
 import com.hello.suripu.service.models.SimpleMatrix;
+import com.hello.suripu.service.signing.MessageSigner;
+import com.hello.suripu.service.utils.GroupMembershipIndex;
 import com.hello.suripu.service.utils.ServiceFeatureFlipper;
 import com.librato.rollout.RolloutClient;
 import org.joda.time.DateTime;
@@ -51,7 +52,7 @@ public class AudioResource extends BaseResource {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AudioResource.class);
 
-    private final GroupFlipper groupFlipper;
+    private final GroupMembershipIndex groupFlipper;
 
     private final AmazonS3Client s3Client;
     private final String audioBucketName;
@@ -62,6 +63,7 @@ public class AudioResource extends BaseResource {
     private final String audioFeaturesFirehoseStreamName;
 
     private final ObjectMapper objectMapper;
+    private final MessageSigner messageSigner;
 
 
     public AudioResource(
@@ -72,8 +74,9 @@ public class AudioResource extends BaseResource {
             final boolean debug,
             final DataLogger audioMetadataLogger,
             final KeyStore senseKeyStore,
-            final GroupFlipper groupFlipper,
-            final ObjectMapper objectMapper) {
+            final GroupMembershipIndex groupFlipper,
+            final ObjectMapper objectMapper,
+            final MessageSigner messageSigner) {
         this.s3Client = s3Client;
         this.audioBucketName = audioBucketName;
         this.audioFeaturesFirehose = audioFeaturesFirehose;
@@ -83,6 +86,7 @@ public class AudioResource extends BaseResource {
         this.groupFlipper = groupFlipper;
         this.audioFeaturesFirehoseStreamName = audioFeaturesFirehoseStreamName;
         this.objectMapper = objectMapper;
+        this.messageSigner = messageSigner;
     }
 
     @POST
@@ -105,7 +109,7 @@ public class AudioResource extends BaseResource {
 
         //deserialize protobuf
         try {
-            message = SimpleMatrixProtos.SimpleMatrix.parseFrom(signedMessage.body);
+            message = SimpleMatrixProtos.SimpleMatrix.parseFrom(signedMessage.bodyInputStream());
         } catch (IOException exception) {
             LOGGER.error("endpoint=keyword-features error=protobuf-parsing-failed sense_id={} ip_address={} message={}", debugSenseId, ipAddress, exception.getMessage());
             throwPlainTextError(Response.Status.BAD_REQUEST, "");
@@ -144,7 +148,7 @@ public class AudioResource extends BaseResource {
         final Optional<byte[]> keyBytes = keyStore.get(senseId);
 
         //verify message is signed
-        final Optional<SignedMessage.Error> error = signedMessage.validateWithKey(keyBytes.get());
+        final Optional<SignedMessage.Error> error = messageSigner.validate(senseId, signedMessage, keyBytes.get());
 
         if(error.isPresent()) {
             LOGGER.error("endpoint=keyword-features error=signature-failed sense_id={} ip_address={} message={}", senseId, ipAddress, error.get().message);
@@ -193,7 +197,7 @@ public class AudioResource extends BaseResource {
         MatrixProtos.MatrixClientMessage message = MatrixProtos.MatrixClientMessage.getDefaultInstance();
 
         try {
-            message = MatrixProtos.MatrixClientMessage.parseFrom(signedMessage.body);
+            message = MatrixProtos.MatrixClientMessage.parseFrom(signedMessage.bodyInputStream());
         } catch (IOException exception) {
             final String errorMessage = String.format("Failed parsing protobuf: %s", exception.getMessage());
             LOGGER.error(errorMessage);
@@ -209,7 +213,7 @@ public class AudioResource extends BaseResource {
 
         final Optional<byte[]> keyBytes = keyStore.get(deviceId);
 
-        final Optional<SignedMessage.Error> error = signedMessage.validateWithKey(keyBytes.get());
+        final Optional<SignedMessage.Error> error = messageSigner.validate(deviceId, signedMessage, keyBytes.get());
 
         if(error.isPresent()) {
             LOGGER.error(error.get().message);
@@ -217,7 +221,7 @@ public class AudioResource extends BaseResource {
         }
 
         //DO NOTHING!
-        //dataLogger.put(deviceId, signedMessage.body);
+        //dataLogger.put(deviceId, signedMessage.copyBody());
     }
 
 
@@ -229,7 +233,7 @@ public class AudioResource extends BaseResource {
         final SignedMessage signedMessage = SignedMessage.parse(body);
         FileTransfer.FileMessage message = FileTransfer.FileMessage.getDefaultInstance();
         try {
-            message = FileTransfer.FileMessage.parseFrom(signedMessage.body);
+            message = FileTransfer.FileMessage.parseFrom(signedMessage.bodyInputStream());
         } catch (IOException exception) {
             final String errorMessage = String.format("Failed parsing protobuf: %s", exception.getMessage());
             LOGGER.error(errorMessage);
@@ -246,7 +250,7 @@ public class AudioResource extends BaseResource {
         if(!keyBytes.isPresent()) {
             throwPlainTextError(Response.Status.UNAUTHORIZED, "");
         }
-        final Optional<SignedMessage.Error> error = signedMessage.validateWithKey(keyBytes.get());
+        final Optional<SignedMessage.Error> error = messageSigner.validate(message.getDeviceId(), signedMessage, keyBytes.get());
 
         if(error.isPresent()) {
             LOGGER.error(error.get().message);
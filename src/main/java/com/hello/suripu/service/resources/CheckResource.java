@@ -6,6 +6,7 @@ import com.hello.suripu.core.db.KeyStore;
 import com.hello.suripu.core.db.KeyStoreDynamoDB;
 import com.hello.suripu.core.util.HelloHttpHeader;
 import com.hello.suripu.service.SignedMessage;
+import com.hello.suripu.service.signing.MessageSigner;
 import org.apache.commons.codec.binary.Hex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,12 +26,14 @@ public class CheckResource extends BaseResource {
     private final static Logger LOGGER = LoggerFactory.getLogger(CheckResource.class);
 
     private final KeyStore senseKeyStore;
+    private final MessageSigner messageSigner;
 
     @Context
     HttpServletRequest request;
 
-    public CheckResource(final KeyStore senseKeyStore) {
+    public CheckResource(final KeyStore senseKeyStore, final MessageSigner messageSigner) {
         this.senseKeyStore = senseKeyStore;
+        this.messageSigner = messageSigner;
     }
 
     @POST
@@ -72,13 +75,13 @@ public class CheckResource extends BaseResource {
             return plainTextError(Response.Status.BAD_REQUEST, "");
         }
 
-        final Optional<SignedMessage.Error> error = signedMessage.validateWithKey(keyBytes.get());
+        final Optional<SignedMessage.Error> error = messageSigner.validate(senseId, signedMessage, keyBytes.get());
         if (error.isPresent()) {
             LOGGER.warn("CHECK_KEY FAILED. Could not verify signature for senseId = {} with key = {}. IP: {}", senseId, Hex.encodeHexString(keyBytes.get()), ipAddress);
             return plainTextError(Response.Status.FORBIDDEN, "");
         }
 
-        final Optional<byte[]> signedResponse = SignedMessage.sign(signedMessage.body, keyBytes.get());
+        final Optional<byte[]> signedResponse = messageSigner.sign(senseId, signedMessage.copyBody(), keyBytes.get());
         if (!signedResponse.isPresent()) {
             LOGGER.warn("CHECK_KEY FAILED. Could not sign response for senseId = {} with key = {}. IP: {}", senseId, Hex.encodeHexString(keyBytes.get()), ipAddress);
             return plainTextError(Response.Status.INTERNAL_SERVER_ERROR, "");
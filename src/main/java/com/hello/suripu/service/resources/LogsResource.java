@@ -11,6 +11,7 @@ import com.hello.suripu.core.logging.DataLogger;
 import com.hello.suripu.core.util.HelloHttpHeader;
 import com.hello.suripu.service.SignedMessage;
 import com.hello.suripu.service.Util;
+import com.hello.suripu.service.signing.MessageSigner;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -31,14 +32,16 @@ public class LogsResource {
     private final KeyStore senseKeyStore;
     private final DataLogger dataLogger;
     private final Boolean isProd;
+    private final MessageSigner messageSigner;
 
     @Context
     HttpServletRequest request;
 
-    public LogsResource(final Boolean isProd, final KeyStore senseKeyStore, final DataLogger dataLogger) {
+    public LogsResource(final Boolean isProd, final KeyStore senseKeyStore, final DataLogger dataLogger, final MessageSigner messageSigner) {
         this.isProd = isProd;
         this.senseKeyStore = senseKeyStore;
         this.dataLogger = dataLogger;
+        this.messageSigner = messageSigner;
 
     }
 
@@ -58,7 +61,7 @@ public class LogsResource {
         LOGGER.info("DebugSenseId device_id = {}", debugSenseId);
 
         try {
-            log = LogProtos.sense_log.parseFrom(signedMessage.body);
+            log = LogProtos.sense_log.parseFrom(signedMessage.bodyInputStream());
         } catch (IOException exception) {
             final String errorMessage = String.format("Failed parsing protobuf for deviceId = %s: %s", debugSenseId, exception.getMessage());
             LOGGER.error(errorMessage);
@@ -78,7 +81,7 @@ public class LogsResource {
             return;
         }
 
-        final Optional<SignedMessage.Error> error = signedMessage.validateWithKey(keyBytes.get());
+        final Optional<SignedMessage.Error> error = messageSigner.validate(log.getDeviceId(), signedMessage, keyBytes.get());
 
         if(error.isPresent()) {
             LOGGER.error(error.get().message);
@@ -5,10 +5,10 @@ import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.annotation.Timed;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 import com.google.protobuf.TextFormat;
 import com.hello.dropwizard.mikkusu.helpers.AdditionalMediaTypes;
 import com.hello.suripu.api.audio.AudioControlProtos;
@@ -19,24 +19,17 @@ import com.hello.suripu.api.input.DataInputProtos;
 import com.hello.suripu.api.input.FileSync;
 import com.hello.suripu.api.input.State;
 import com.hello.suripu.api.output.OutputProtos;
-import com.hello.suripu.core.configuration.QueueName;
 import com.hello.suripu.core.db.CalibrationDAO;
 import com.hello.suripu.core.db.KeyStore;
 import com.hello.suripu.core.db.KeyStoreDynamoDB;
-import com.hello.suripu.core.db.MergedUserInfoDynamoDB;
 import com.hello.suripu.core.db.ResponseCommandsDAODynamoDB;
 import com.hello.suripu.core.db.ResponseCommandsDAODynamoDB.ResponseCommand;
-import com.hello.suripu.core.db.RingTimeHistoryDAODynamoDB;
 import com.hello.suripu.core.db.SenseEventsDAO;
-import com.hello.suripu.core.db.SenseStateDynamoDB;
 import com.hello.suripu.core.firmware.FirmwareUpdate;
 import com.hello.suripu.core.firmware.FirmwareUpdateStore;
 import com.hello.suripu.core.firmware.HardwareVersion;
 import com.hello.suripu.core.firmware.SenseFirmwareUpdateQuery;
 import com.hello.suripu.core.flipper.FeatureFlipper;
-import com.hello.suripu.core.flipper.GroupFlipper;
-import com.hello.suripu.core.logging.DataLogger;
-import com.hello.suripu.core.logging.KinesisLoggerFactory;
 import com.hello.suripu.core.models.Alarm;
 import com.hello.suripu.core.models.AlarmExpansion;
 import com.hello.suripu.core.models.Calibration;
@@ -47,25 +40,41 @@ import com.hello.suripu.core.processors.OTAProcessor;
 import com.hello.suripu.core.processors.RingProcessor;
 import com.hello.suripu.core.roomstate.Condition;
 import com.hello.suripu.core.roomstate.CurrentRoomState;
-import com.hello.suripu.core.util.DateTimeUtil;
 import com.hello.suripu.core.util.HelloHttpHeader;
 import com.hello.suripu.core.util.RoomConditionUtil;
 import com.hello.suripu.core.util.SenseLogLevelUtil;
 import com.hello.suripu.service.SignedMessage;
 import com.hello.suripu.service.Util;
+import com.hello.suripu.service.configuration.ClockSyncConfiguration;
 import com.hello.suripu.service.configuration.OTAConfiguration;
 import com.hello.suripu.service.configuration.SenseUploadConfiguration;
+import com.hello.suripu.service.configuration.SyncLookupConfiguration;
+import com.hello.suripu.service.db.MergedUserInfoCache;
+import com.hello.suripu.service.db.SenseStateWriter;
+import com.hello.suripu.service.db.RingTimeHistoryWriter;
 import com.hello.suripu.service.file_sync.FileManifestUtil;
 import com.hello.suripu.service.file_sync.FileSynchronizer;
 import com.hello.suripu.service.models.UploadSettings;
+import com.hello.suripu.service.kinesis.AlarmActionPublisher;
+import com.hello.suripu.service.kinesis.BatchingKinesisProducer;
+import com.hello.suripu.service.signing.MessageSigner;
+import com.hello.suripu.service.sync.OTADecisionCache;
+import com.hello.suripu.service.sync.OTARolloutThrottle;
+import com.hello.suripu.service.sync.SyncPlan;
+import com.hello.suripu.service.sync.SyncPlanCache;
+import com.hello.suripu.service.utils.DeviceFeature;
+import com.hello.suripu.service.utils.DeviceFeatureSnapshot;
 import com.hello.suripu.service.utils.FileShaChecker;
+import com.hello.suripu.service.utils.GroupMembershipIndex;
+import com.hello.suripu.service.utils.ParallelLookups;
+import com.hello.suripu.service.utils.PillBatchSanitizer;
 import com.hello.suripu.service.utils.ServiceFeatureFlipper;
+import com.hello.suripu.service.utils.SingleFlight;
 import com.librato.rollout.RolloutClient;
 import org.apache.commons.codec.binary.Hex;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeConstants;
 import org.joda.time.DateTimeZone;
-import org.joda.time.Minutes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -85,6 +94,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import static com.codahale.metrics.MetricRegistry.name;
 
@@ -99,27 +110,36 @@ public class ReceiveResource extends BaseResource {
     private static final Logger LOGGER = LoggerFactory.getLogger(ReceiveResource.class);
     private static final int CLOCK_SKEW_TOLERATED_IN_HOURS = 2;
     private static final int CLOCK_DRIFT_MEASUREMENT_THRESHOLD = 2;
-    private static final int CLOCK_BUG_SKEW_IN_HOURS = 6 * 30 * 24 - 1; // 6 months in hours
     private static final String LOCAL_OFFICE_IP_ADDRESS = "204.28.123.251";
     private static final String FW_VERSION_0_9_22_RC7 = "1530439804";
     private static final Integer CLOCK_SYNC_SPECIAL_OTA_UPTIME_MINS = 15;
     private static final Integer ALARM_ACTIONS_WINDOW_MINS = 60;
     private static final Integer RING_UPTIME_THRESHOLD = 30; //mins
+    //SyncResponse commands fetched from DynamoDB for a given device & firmware, in the order they are applied
+    private static final List<ResponseCommand> RESPONSE_COMMANDS_TO_FETCH = ImmutableList.of(
+            ResponseCommand.RESET_TO_FACTORY_FW,
+            ResponseCommand.RESET_MCU,
+            ResponseCommand.SET_LOG_LEVEL
+    );
+    private static final List<ResponseCommand> FORCE_OTA_TO_FETCH = ImmutableList.of(ResponseCommand.FORCE_OTA);
+    private static final List<ResponseCommand> FORCE_OTA_AND_RESPONSE_COMMANDS_TO_FETCH = ImmutableList.<ResponseCommand>builder()
+            .addAll(FORCE_OTA_TO_FETCH)
+            .addAll(RESPONSE_COMMANDS_TO_FETCH)
+            .build();
     private final int ringDurationSec;
 
     private final KeyStore keyStore;
-    private final MergedUserInfoDynamoDB mergedInfoDynamoDB;
-    private final RingTimeHistoryDAODynamoDB ringTimeHistoryDAODynamoDB;
-    private final SenseStateDynamoDB senseStateDynamoDB;
+    private final MergedUserInfoCache mergedInfoCache;
+    private final RingTimeHistoryWriter ringTimeHistoryWriter;
+    private final SenseStateWriter senseStateWriter;
 
     // File endpoint
     private final FileSynchronizer fileSynchronizer;
 
-    private final KinesisLoggerFactory kinesisLoggerFactory;
     private final Boolean debug;
 
     private final FirmwareUpdateStore firmwareUpdateStore;
-    private final GroupFlipper groupFlipper;
+    private final GroupMembershipIndex groupFlipper;
     private final SenseUploadConfiguration senseUploadConfiguration;
     private final OTAConfiguration otaConfiguration;
     private final ResponseCommandsDAODynamoDB responseCommandsDAODynamoDB;
@@ -135,32 +155,54 @@ public class ReceiveResource extends BaseResource {
     protected Histogram drift;
     private final CalibrationDAO calibrationDAO;
     private final SenseEventsDAO senseEventsDAO;
+    private final MessageSigner messageSigner;
+    private final BatchingKinesisProducer senseSensorsDataProducer;
+    private final BatchingKinesisProducer batchPillDataProducer;
+    private final PillBatchSanitizer pillBatchSanitizer;
+    private final ParallelLookups parallelLookups;
+    private final SyncLookupConfiguration syncLookupConfiguration;
+    private final SyncPlanCache syncPlanCache;
+    private final Set<Integer> rebootClockOutOfSyncFirmwareVersions;
+    private final SingleFlight calibrationReads;
+    private final AlarmActionPublisher alarmActionPublisher;
+    private final OTADecisionCache otaDecisionCache;
+    private final OTARolloutThrottle otaRolloutThrottle;
 
     @Context
     HttpServletRequest request;
 
     public ReceiveResource(final KeyStore keyStore,
-                           final KinesisLoggerFactory kinesisLoggerFactory,
-                           final MergedUserInfoDynamoDB mergedInfoDynamoDB,
-                           final RingTimeHistoryDAODynamoDB ringTimeHistoryDAODynamoDB,
+                           final MergedUserInfoCache mergedInfoCache,
+                           final RingTimeHistoryWriter ringTimeHistoryWriter,
                            final Boolean debug,
                            final FirmwareUpdateStore firmwareUpdateStore,
-                           final GroupFlipper groupFlipper,
+                           final GroupMembershipIndex groupFlipper,
                            final SenseUploadConfiguration senseUploadConfiguration,
                            final OTAConfiguration otaConfiguration,
                            final ResponseCommandsDAODynamoDB responseCommandsDAODynamoDB,
                            final int ringDurationSec,
                            final CalibrationDAO calibrationDAO,
                            final MetricRegistry metricRegistry,
-                           final SenseStateDynamoDB senseStateDynamoDB,
+                           final SenseStateWriter senseStateWriter,
                            final FileSynchronizer fileSynchronizer,
-                           final SenseEventsDAO senseEventsDAO) {
+                           final SenseEventsDAO senseEventsDAO,
+                           final MessageSigner messageSigner,
+                           final BatchingKinesisProducer senseSensorsDataProducer,
+                           final BatchingKinesisProducer batchPillDataProducer,
+                           final PillBatchSanitizer pillBatchSanitizer,
+                           final ParallelLookups parallelLookups,
+                           final SyncLookupConfiguration syncLookupConfiguration,
+                           final SyncPlanCache syncPlanCache,
+                           final ClockSyncConfiguration clockSyncConfiguration,
+                           final SingleFlight calibrationReads,
+                           final AlarmActionPublisher alarmActionPublisher,
+                           final OTADecisionCache otaDecisionCache,
+                           final OTARolloutThrottle otaRolloutThrottle) {
 
         this.keyStore = keyStore;
-        this.kinesisLoggerFactory = kinesisLoggerFactory;
 
-        this.mergedInfoDynamoDB = mergedInfoDynamoDB;
-        this.ringTimeHistoryDAODynamoDB = ringTimeHistoryDAODynamoDB;
+        this.mergedInfoCache = mergedInfoCache;
+        this.ringTimeHistoryWriter = ringTimeHistoryWriter;
         this.metrics= metricRegistry;
 
         this.debug = debug;
@@ -180,9 +222,21 @@ public class ReceiveResource extends BaseResource {
         this.otaFileResponses = metrics.meter(name(ReceiveResource.class, "ota-file-responses"));
         this.ringDurationSec = ringDurationSec;
         this.calibrationDAO = calibrationDAO;
-        this.senseStateDynamoDB = senseStateDynamoDB;
+        this.senseStateWriter = senseStateWriter;
         this.fileSynchronizer = fileSynchronizer;
         this.senseEventsDAO = senseEventsDAO;
+        this.messageSigner = messageSigner;
+        this.senseSensorsDataProducer = senseSensorsDataProducer;
+        this.batchPillDataProducer = batchPillDataProducer;
+        this.pillBatchSanitizer = pillBatchSanitizer;
+        this.parallelLookups = parallelLookups;
+        this.syncLookupConfiguration = syncLookupConfiguration;
+        this.syncPlanCache = syncPlanCache;
+        this.rebootClockOutOfSyncFirmwareVersions = ImmutableSet.copyOf(clockSyncConfiguration.getRebootFirmwareVersions());
+        this.calibrationReads = calibrationReads;
+        this.alarmActionPublisher = alarmActionPublisher;
+        this.otaDecisionCache = otaDecisionCache;
+        this.otaRolloutThrottle = otaRolloutThrottle;
     }
 
 
@@ -210,7 +264,7 @@ public class ReceiveResource extends BaseResource {
         final String ipAddress = getIpAddress(request);
 
         try {
-            data = DataInputProtos.batched_periodic_data.parseFrom(signedMessage.body);
+            data = DataInputProtos.batched_periodic_data.parseFrom(signedMessage.bodyInputStream());
         } catch (IOException exception) {
             LOGGER.error("error=protobuf-parsing-failed sense_id={} ip_address={} message={}", debugSenseId, ipAddress, exception.getMessage());
             return plainTextError(Response.Status.BAD_REQUEST, "bad request");
@@ -241,7 +295,7 @@ public class ReceiveResource extends BaseResource {
             return plainTextError(Response.Status.BAD_REQUEST, "");
         }
 
-        final Optional<SignedMessage.Error> error = signedMessage.validateWithKey(optionalKeyBytes.get());
+        final Optional<SignedMessage.Error> error = messageSigner.validate(deviceId, signedMessage, optionalKeyBytes.get());
 
         if (error.isPresent()) {
             // Only log this if this sense is voluntarily disabled
@@ -254,14 +308,21 @@ public class ReceiveResource extends BaseResource {
             return plainTextError(Response.Status.UNAUTHORIZED, "");
         }
 
+        // Only for authenticated Senses
+        final Future<List<UserInfo>> userInfoFuture = parallelLookups.submit(new Callable<List<UserInfo>>() {
+            @Override
+            public List<UserInfo> call() throws Exception {
+                return mergedInfoCache.getInfo(deviceId);  // get alarm related info from DynamoDB "cache".
+            }
+        });
 
-        final List<UserInfo> userInfoList = new ArrayList<>();
+        // Only for authenticated Senses, each flag read below is evaluated once, when first needed
+        final DeviceFeatureSnapshot features = DeviceFeatureSnapshot.of(featureFlipper, deviceId, groups);
 
-        try {
-            userInfoList.addAll(this.mergedInfoDynamoDB.getInfo(data.getDeviceId()));  // get alarm related info from DynamoDB "cache".
-        } catch (Exception ex) {
-            LOGGER.error("error=merge-info-retrieve-failure sense_id={} message={}", deviceId, ex.getMessage());
-        }
+        // Not copied, the cached instance keys the sync plan
+        final Optional<List<UserInfo>> optionalUserInfoList = parallelLookups.await(userInfoFuture, "user-info", syncLookupConfiguration.getUserInfoTimeoutMillis(), deviceId);
+        // The data is still logged, without timezones
+        final List<UserInfo> userInfoList = optionalUserInfoList.or(Collections.<UserInfo>emptyList());
         LOGGER.debug("accounts_paired={} sense_id={}", userInfoList.size(), data.getDeviceId());
 
         final Map<Long, DateTimeZone> accountTimezones = getUserTimeZones(userInfoList);
@@ -282,16 +343,19 @@ public class ReceiveResource extends BaseResource {
             batchPeriodicDataWorkerMessageBuilder.addTimezones(metadata);
         }
 
-        try {
-            final DataLogger batchSenseDataLogger = kinesisLoggerFactory.get(QueueName.SENSE_SENSORS_DATA);
-            batchSenseDataLogger.put(data.getDeviceId(), batchPeriodicDataWorkerMessageBuilder.build().toByteArray());
-        } catch (Exception e) {
-            LOGGER.error("error=kinesis-insert-sense_sensors_data {}", e.getMessage());
+        // Sent to kinesis in batches by the producer, only refuse the upload if its queue is full
+        if (!senseSensorsDataProducer.offer(data.getDeviceId(), batchPeriodicDataWorkerMessageBuilder.build().toByteArray())) {
+            LOGGER.error("error=kinesis-queue-full stream=sense_sensors_data sense_id={}", deviceId);
+            return plainTextError(Response.Status.SERVICE_UNAVAILABLE, "");
+        }
+
+        if (!optionalUserInfoList.isPresent()) {
+            // Without the timezone the response would have no alarm, Sense keeps its current alarm and retries
             return plainTextError(Response.Status.SERVICE_UNAVAILABLE, "");
         }
 
         final String tempSenseId = data.hasDeviceId() ? data.getDeviceId() : debugSenseId;
-        return generateSyncResponse(tempSenseId, data.getFirmwareVersion(), optionalKeyBytes.get(), data, userInfoList, ipAddress, hardwareVersion, senseEventsDAO);
+        return generateSyncResponse(tempSenseId, data.getFirmwareVersion(), optionalKeyBytes.get(), data, userInfoList, ipAddress, hardwareVersion, senseEventsDAO, groups, features);
     }
 
 
@@ -322,7 +386,7 @@ public class ReceiveResource extends BaseResource {
         LOGGER.debug("sense_id={}", debugSenseId);
 
         try {
-            senseState = State.SenseState.parseFrom(signedMessage.body);
+            senseState = State.SenseState.parseFrom(signedMessage.bodyInputStream());
         } catch (IOException exception) {
             LOGGER.error("error=failed-parsing-protobuf sense_id={} exception={}",
                     debugSenseId, exception.getMessage());
@@ -354,7 +418,7 @@ public class ReceiveResource extends BaseResource {
             return plainTextError(Response.Status.BAD_REQUEST, "");
         }
 
-        final Optional<SignedMessage.Error> error = signedMessage.validateWithKey(optionalKeyBytes.get());
+        final Optional<SignedMessage.Error> error = messageSigner.validate(senseId, signedMessage, optionalKeyBytes.get());
 
         if (error.isPresent()) {
             LOGGER.error("endpoint=sense-state error={} sense_id={}", error.get().message, senseId);
@@ -365,10 +429,10 @@ public class ReceiveResource extends BaseResource {
             return plainTextError(Response.Status.BAD_REQUEST, "");
         }
 
-        // Update state in Dynamo
-        senseStateDynamoDB.updateState(new SenseStateAtTime(senseState, DateTime.now(DateTimeZone.UTC)));
+        // Update state in Dynamo, off the request thread and only if it changed
+        senseStateWriter.updateState(new SenseStateAtTime(senseState, DateTime.now(DateTimeZone.UTC)));
 
-        final Optional<byte[]> signedResponse = SignedMessage.sign(senseState.toByteArray(), optionalKeyBytes.get());
+        final Optional<byte[]> signedResponse = messageSigner.sign(senseId, senseState, optionalKeyBytes.get());
         if (!signedResponse.isPresent()) {
             LOGGER.error("endpoint=sense-state error=failed-signing-message sense_id={}", senseId);
             return plainTextError(Response.Status.INTERNAL_SERVER_ERROR, "");
@@ -396,7 +460,7 @@ public class ReceiveResource extends BaseResource {
         final FileSync.FileManifest fileManifest;
 
         try {
-            fileManifest = FileSync.FileManifest.parseFrom(signedMessage.body);
+            fileManifest = FileSync.FileManifest.parseFrom(signedMessage.bodyInputStream());
         } catch (IOException exception) {
             LOGGER.error("error=failed-parsing-protobuf sense_id={} exception={}",
                     debugSenseId, exception.getMessage());
@@ -428,7 +492,7 @@ public class ReceiveResource extends BaseResource {
             return plainTextError(Response.Status.BAD_REQUEST, "");
         }
 
-        final Optional<SignedMessage.Error> error = signedMessage.validateWithKey(optionalKeyBytes.get());
+        final Optional<SignedMessage.Error> error = messageSigner.validate(senseId, signedMessage, optionalKeyBytes.get());
 
         if (error.isPresent()) {
             LOGGER.error("endpoint=files signed-message-error={} sense_id={}", error.get().message, senseId);
@@ -487,7 +551,7 @@ public class ReceiveResource extends BaseResource {
         LOGGER.info("endpoint=files response-protobuf={}", TextFormat.shortDebugString(newManifest));
 
         // TODO this could most likely be refactored as well
-        final Optional<byte[]> signedResponse = SignedMessage.sign(newManifest.toByteArray(), optionalKeyBytes.get());
+        final Optional<byte[]> signedResponse = messageSigner.sign(senseId, newManifest, optionalKeyBytes.get());
         if (!signedResponse.isPresent()) {
             LOGGER.error("endpoint=files error=failed-signing-message sense-id={}", senseId);
             return plainTextError(Response.Status.INTERNAL_SERVER_ERROR, "");
@@ -531,25 +595,105 @@ public class ReceiveResource extends BaseResource {
                                         final List<UserInfo> userInfoList,
                                         final String ipAddress,
                                         final HardwareVersion hardwareVersion,
-                                        final SenseEventsDAO senseEventsDAO) {
+                                        final SenseEventsDAO senseEventsDAO,
+                                        final List<String> groups,
+                                        final DeviceFeatureSnapshot features) {
         // TODO: Warning, since we query dynamoDB based on user input, the user can generate a lot of
         // requests to break our bank(Assume that Dynamo DB never goes down).
         // May be we should somehow cache these data to reduce load & cost.
 
         final OutputProtos.SyncResponse.Builder responseBuilder = OutputProtos.SyncResponse.newBuilder();
 
-        final List<String> groups = groupFlipper.getGroups(deviceName);
+        // Issue the independent lookups now, they are awaited where their result is needed
+        final Optional<DateTimeZone> userTimeZone = getUserTimeZone(userInfoList);
+
+        final int uptime;
+        if (batch.hasUptimeInSecond()){
+            uptime= batch.getUptimeInSecond();
+        } else {
+            uptime= 0;
+        }
+
+        boolean hasSufficientUptime = true ;
+        if (features.isActive(DeviceFeature.SMART_ALARM_SAFEGUARD)) {
+            if (uptime < DateTimeConstants.SECONDS_PER_MINUTE * RING_UPTIME_THRESHOLD) { //smart alarm window = 30 minutes.
+                hasSufficientUptime = false;
+            }
+        }
+
+        final boolean useFutureAlarm = features.isActive(DeviceFeature.FUTURE_ALARM_ENABLED);
+        final int syncPlanFlags = SyncPlan.flags(
+                useFutureAlarm,
+                features.isActive(DeviceFeature.RING_DURATION_FROM_CONFIG),
+                features.isActive(DeviceFeature.ALWAYS_ON_AUDIO),
+                features.isActive(DeviceFeature.SENSE_UPLOADS_KEYWORD_FEATURES),
+                hasSufficientUptime);
+        final Optional<SyncPlan> cachedSyncPlan = (userTimeZone.isPresent())
+                ? syncPlanCache.get(deviceName, userInfoList, firmwareVersion, syncPlanFlags, DateTime.now(DateTimeZone.UTC).getMillis())
+                : Optional.<SyncPlan>absent();
+
+        final Future<RingTime> ringTimeFuture;
+        if (cachedSyncPlan.isPresent()) {
+            ringTimeFuture = ParallelLookups.completed(cachedSyncPlan.get().nextRingTime);
+        } else if (userTimeZone.isPresent()) {
+            final boolean sufficientUptime = hasSufficientUptime;
+            ringTimeFuture = parallelLookups.submit(new Callable<RingTime>() {
+                @Override
+                public RingTime call() throws Exception {
+                    return RingProcessor.getNextRingTimeForSenseWithFutureAlarm(deviceName, userInfoList, DateTime.now(), sufficientUptime, senseEventsDAO, useFutureAlarm);
+                }
+            });
+        } else {
+            ringTimeFuture = ParallelLookups.completed(null);
+        }
+
+        final Future<Optional<Calibration>> calibrationFuture;
+        if (batch.getDataCount() > 0 && features.isActive(DeviceFeature.CALIBRATION)) {
+            calibrationFuture = parallelLookups.submit(new Callable<Optional<Calibration>>() {
+                @Override
+                public Optional<Calibration> call() throws Exception {
+                    return calibrationReads.execute(deviceName, new Callable<Optional<Calibration>>() {
+                        @Override
+                        public Optional<Calibration> call() throws Exception {
+                            return calibrationDAO.get(deviceName);
+                        }
+                    });
+                }
+            });
+        } else {
+            calibrationFuture = ParallelLookups.completed(Optional.<Calibration>absent());
+        }
+
+        final boolean otaEnabled = features.isActive(DeviceFeature.ENABLE_OTA_UPDATES);
+        final Future<Boolean> audioPlayingFuture;
+        if (otaEnabled && features.isActive(DeviceFeature.SLEEP_SOUNDS_OVERRIDE_OTA)) {
+            audioPlayingFuture = parallelLookups.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return isAudioPlaying(deviceName);
+                }
+            });
+        } else {
+            audioPlayingFuture = ParallelLookups.completed(false);
+        }
 
         Boolean deviceHasOutOfSyncClock = false;
         final Integer numMessagesInQueue = (batch.hasMessagesInQueue()) ? batch.getMessagesInQueue() : 0;
 
+        // Invariant over the batch, which can hold hours of samples when a Sense reconnects
+        final long nowMillis = DateTime.now(DateTimeZone.UTC).getMillis();
+        final boolean measureClockDrift = features.isActive(DeviceFeature.MEASURE_CLOCK_DRIFT);
+        final boolean rebootIfClockOutOfSync = features.isActive(DeviceFeature.REBOOT_CLOCK_OUT_OF_SYNC_DEVICES)
+                && batch.hasFirmwareVersion() && rebootClockOutOfSyncFirmwareVersions.contains(batch.getFirmwareVersion());
+        final int lastSampleIndex = batch.getDataCount() - 1;
+        int outOfSyncSamples = 0;
+
         for (int i = 0; i < batch.getDataCount(); i++) {
             final DataInputProtos.periodic_data data = batch.getData(i);
-            final Long timestampMillis = data.getUnixTime() * 1000L;
-            final DateTime roundedDateTime = new DateTime(timestampMillis, DateTimeZone.UTC).withSecondOfMinute(0);
+            final long roundedMillis = roundToMinute(data.getUnixTime() * 1000L);
 
-            if (featureFlipper.deviceFeatureActive(FeatureFlipper.MEASURE_CLOCK_DRIFT, deviceName, groups)) {
-                final int driftInMinutes = Minutes.minutesBetween(DateTime.now(DateTimeZone.UTC), roundedDateTime).getMinutes();
+            if (measureClockDrift) {
+                final int driftInMinutes = (int) ((roundedMillis - nowMillis) / DateTimeConstants.MILLIS_PER_MINUTE);
                 this.drift.update(Math.abs(driftInMinutes));
                 if(Math.abs(driftInMinutes) >= CLOCK_DRIFT_MEASUREMENT_THRESHOLD) {
                     LOGGER.warn("action=measure-clock-drift drift={} sense_id={} number_samples={} fw_version={} ip_address={}",
@@ -562,20 +706,26 @@ public class ReceiveResource extends BaseResource {
                 }
             }
 
-            if(isClockOutOfSync(roundedDateTime, DateTime.now(DateTimeZone.UTC), CLOCK_SKEW_TOLERATED_IN_HOURS)) {
-                LOGGER.error("The clock for device {} is not within reasonable bounds (2h), current time = {}, received time = {}",
-                        deviceName,
-                        DateTime.now(),
-                        roundedDateTime
-                );
-
-                LOGGER.error("error=clock-out-of-sync sense_id={} current_time={} received_time={} fw_version={} ip_address={} num_messages={}",
-                        deviceName,
-                        DateTime.now(),
-                        roundedDateTime,
-                        batch.getFirmwareVersion(),
-                        ipAddress,
-                        numMessagesInQueue);
+            if(isClockOutOfSync(roundedMillis, nowMillis, CLOCK_SKEW_TOLERATED_IN_HOURS)) {
+                // Logged for the first sample only, the batch is summarized below
+                if (outOfSyncSamples == 0) {
+                    final DateTime now = new DateTime(nowMillis);
+                    final DateTime roundedDateTime = new DateTime(roundedMillis, DateTimeZone.UTC);
+                    LOGGER.error("The clock for device {} is not within reasonable bounds (2h), current time = {}, received time = {}",
+                            deviceName,
+                            now,
+                            roundedDateTime
+                    );
+
+                    LOGGER.error("error=clock-out-of-sync sense_id={} current_time={} received_time={} fw_version={} ip_address={} num_messages={}",
+                            deviceName,
+                            now,
+                            roundedDateTime,
+                            batch.getFirmwareVersion(),
+                            ipAddress,
+                            numMessagesInQueue);
+                }
+                outOfSyncSamples++;
 
                 // TODO: throw exception?
                 senseClockOutOfSync.mark(1);
@@ -583,24 +733,15 @@ public class ReceiveResource extends BaseResource {
 
                 // Additional logic to measure clock drift
                 // Sense keeps up to 3h of data in case of connection issue. We'd like to measure how many devices are outside these bounds
-                if(isClockOutOfSync(roundedDateTime, DateTime.now(DateTimeZone.UTC), CLOCK_SKEW_TOLERATED_IN_HOURS + 1)) {
+                if(isClockOutOfSync(roundedMillis, nowMillis, CLOCK_SKEW_TOLERATED_IN_HOURS + 1)) {
                     senseClockOutOfSync3h.mark(1);
                 }
 
-
-                // TODO: pull firmware version dynamically
-                final Set<Integer> fwVersionsToRebootIfClockOutOfSync = Sets.newHashSet(
-                    1425228832,  // 1.0.5.2
-                    510963780,   // 1.0.5.3.1
-                    782503713,   // 1.0.5.3.4
-                    2121778303,  // 1.0.5.3.5
-                    3892         // 1.8.1
-                );
-
-                final boolean isLatestFirmware = batch.hasFirmwareVersion() && fwVersionsToRebootIfClockOutOfSync.contains(batch.getFirmwareVersion());
-                if (featureFlipper.deviceFeatureActive(FeatureFlipper.REBOOT_CLOCK_OUT_OF_SYNC_DEVICES, deviceName, groups) && isLatestFirmware) {
-                    LOGGER.warn("Reset MCU set for sense {}", deviceName); // keeping this for papertrail alerts
-                    LOGGER.warn("action=reset-mcu sense_id={}", deviceName);
+                if (rebootIfClockOutOfSync) {
+                    if (!responseBuilder.getResetMcu()) {
+                        LOGGER.warn("Reset MCU set for sense {}", deviceName); // keeping this for papertrail alerts
+                        LOGGER.warn("action=reset-mcu sense_id={}", deviceName);
+                    }
                     responseBuilder.setResetMcu(true);
                 } else {
                     continue;
@@ -609,21 +750,21 @@ public class ReceiveResource extends BaseResource {
 
             // only compute the state for the most recent conditions
 
-            if (i == batch.getDataCount() - 1) {
-                final Optional<Calibration> calibrationOptional = this.hasCalibrationEnabled(deviceName) ? calibrationDAO.get(deviceName) : Optional.<Calibration>absent();
+            if (i == lastSampleIndex) {
+                final Optional<Calibration> calibrationOptional = parallelLookups.await(calibrationFuture, "calibration", syncLookupConfiguration.getCalibrationTimeoutMillis(), deviceName, Optional.<Calibration>absent());
                 if(calibrationOptional.isPresent()) {
                     responseBuilder.setLightsOffThreshold(calibrationOptional.get().lightsOutDelta());
                     LOGGER.trace("sense_id={} lights_out_delta={}", deviceName, calibrationOptional.get().lightsOutDelta());
                 }
                 final CurrentRoomState currentRoomState = CurrentRoomState.fromRawData(data.getTemperature(), data.getHumidity(), data.getDustMax(), data.getLight(), data.getAudioPeakBackgroundEnergyDb(), data.getAudioPeakDisturbanceEnergyDb(),
-                        roundedDateTime.getMillis(),
+                        roundedMillis,
                         data.getFirmwareVersion(),
-                        DateTime.now(),
+                        new DateTime(nowMillis),
                         2,
                         calibrationOptional);
 
-                if (featureFlipper.deviceFeatureActive(FeatureFlipper.NEW_ROOM_CONDITION, deviceName, groups)) {
-                    final Boolean hasCalibration = featureFlipper.deviceFeatureActive(FeatureFlipper.CALIBRATION, deviceName, groups);
+                if (features.isActive(DeviceFeature.NEW_ROOM_CONDITION)) {
+                    final Boolean hasCalibration = features.isActive(DeviceFeature.CALIBRATION_WITH_GROUPS);
                     final Condition roomConditions = RoomConditionUtil.getGeneralRoomConditionV2(currentRoomState, hasCalibration && calibrationOptional.isPresent());
                     final Condition roomConditionsLightsOff = RoomConditionUtil.getRoomConditionV2LightOff(currentRoomState, hasCalibration && calibrationOptional.isPresent());
                     responseBuilder.setRoomConditions(
@@ -642,36 +783,49 @@ public class ReceiveResource extends BaseResource {
             }
         }
 
-        final Optional<DateTimeZone> userTimeZone = getUserTimeZone(userInfoList);
+        if (outOfSyncSamples > 1) {
+            LOGGER.error("error=clock-out-of-sync-samples sense_id={} out_of_sync={} number_samples={}", deviceName, outOfSyncSamples, batch.getDataCount());
+        }
 
-        final int uptime;
-        if (batch.hasUptimeInSecond()){
-            uptime= batch.getUptimeInSecond();
+        // Depends on the clock check above
+        final boolean hasOutOfSyncClock = deviceHasOutOfSyncClock;
+        final Future<List<OutputProtos.SyncResponse.FileDownload>> otaFilesFuture;
+        if (otaEnabled) {
+            // Without FORCE_OTA, which is only read once nothing can drop the response
+            otaFilesFuture = parallelLookups.submit(new Callable<List<OutputProtos.SyncResponse.FileDownload>>() {
+                @Override
+                public List<OutputProtos.SyncResponse.FileDownload> call() throws Exception {
+                    return computeOTAFileList(deviceName, groups, features, userTimeZone.or(DateTimeZone.UTC), batch, userInfoList, hasOutOfSyncClock, false, hardwareVersion, ipAddress);
+                }
+            });
         } else {
-            uptime= 0;
+            otaFilesFuture = ParallelLookups.completed(Collections.<OutputProtos.SyncResponse.FileDownload>emptyList());
         }
 
-        boolean hasSufficientUptime = true ;
-        if (featureFlipper.deviceFeatureActive(ServiceFeatureFlipper.SMART_ALARM_SAFEGAURD.getFeatureName(), deviceName, Collections.EMPTY_LIST)) {
-            if (uptime < DateTimeConstants.SECONDS_PER_MINUTE * RING_UPTIME_THRESHOLD) { //smart alarm window = 30 minutes.
-                hasSufficientUptime = false;
-            }
-        }
         if (userTimeZone.isPresent()) {
 
-            final boolean useFutureAlarm = featureFlipper.deviceFeatureActive(ServiceFeatureFlipper.FUTURE_ALARM_ENABLED.getFeatureName(), deviceName, groups);
-            final RingTime nextRingTime = RingProcessor.getNextRingTimeForSenseWithFutureAlarm(deviceName, userInfoList, DateTime.now(), hasSufficientUptime, senseEventsDAO, useFutureAlarm);
+            final Optional<RingTime> nextRingTimeOptional = parallelLookups.await(ringTimeFuture, "ring-time", syncLookupConfiguration.getRingTimeTimeoutMillis(), deviceName);
+            if (!nextRingTimeOptional.isPresent()) {
+                // Never reply with an empty alarm because a lookup was slow, Sense keeps its current alarm and retries
+                otaFilesFuture.cancel(true);
+                audioPlayingFuture.cancel(true);
+                return plainTextError(Response.Status.SERVICE_UNAVAILABLE, "");
+            }
+            final RingTime nextRingTime = nextRingTimeOptional.get();
 
             // WARNING: now must generated after getNextRingTimeForSense, because that function can take a long time.
             final DateTime now = Alarm.Utils.alignToMinuteGranularity(DateTime.now().withZone(userTimeZone.get()));
 
-            // Start generate protobuf for alarm
-            int ringOffsetFromNowInSecond = -1;
-            int ringDurationInMS = 120 * DateTimeConstants.MILLIS_PER_SECOND;
-            if (this.featureFlipper.deviceFeatureActive(FeatureFlipper.RING_DURATION_FROM_CONFIG, deviceName, Collections.EMPTY_LIST)) {
-                ringDurationInMS = this.ringDurationSec * DateTimeConstants.MILLIS_PER_SECOND;
+            final SyncPlan syncPlan;
+            if (cachedSyncPlan.isPresent()) {
+                syncPlan = cachedSyncPlan.get();
+            } else {
+                syncPlan = buildSyncPlan(userInfoList, firmwareVersion, syncPlanFlags, nextRingTime, now);
+                syncPlanCache.put(deviceName, syncPlan);
             }
 
+            // Start generate protobuf for alarm
+            int ringOffsetFromNowInSecond = -1;
             if (!nextRingTime.isEmpty()) {
                 ringOffsetFromNowInSecond = (int) ((nextRingTime.actualRingTimeUTC - now.getMillis()) / DateTimeConstants.MILLIS_PER_SECOND);
                 if (ringOffsetFromNowInSecond < 0) {
@@ -679,22 +833,10 @@ public class ReceiveResource extends BaseResource {
                     ringOffsetFromNowInSecond = 1;
                 }
             }
-
-            int soundId = 0;
-            if (nextRingTime.soundIds != null && nextRingTime.soundIds.length > 0) {
-                soundId = (int) nextRingTime.soundIds[0];
-            }
-            final OutputProtos.SyncResponse.Alarm.Builder alarmBuilder = OutputProtos.SyncResponse.Alarm.newBuilder()
-                    .setStartTime((int) (nextRingTime.actualRingTimeUTC / DateTimeConstants.MILLIS_PER_SECOND))
-                    .setEndTime((int) ((nextRingTime.actualRingTimeUTC + ringDurationInMS) / DateTimeConstants.MILLIS_PER_SECOND))
-                    .setRingDurationInSecond(ringDurationInMS / DateTimeConstants.MILLIS_PER_SECOND)
-                    .setRingtoneId(soundId)
-                    .setRingtonePath(Alarm.Utils.getSoundPathFromSoundId(soundId))
-                    .setRingOffsetFromNowInSecond(ringOffsetFromNowInSecond);
-            responseBuilder.setAlarm(alarmBuilder.build());
+            responseBuilder.setAlarm(syncPlan.alarm.toBuilder().setRingOffsetFromNowInSecond(ringOffsetFromNowInSecond));
             responseBuilder.setRingTimeAck(String.valueOf(nextRingTime.actualRingTimeUTC));
 
-            if(nextRingTime.fromSmartAlarm && featureFlipper.deviceFeatureActive(ServiceFeatureFlipper.PRINT_ALARM_ACK.getFeatureName(), deviceName, Collections.EMPTY_LIST)) {
+            if(nextRingTime.fromSmartAlarm && features.isActive(DeviceFeature.PRINT_ALARM_ACK)) {
                 LOGGER.warn("action=print-smart-alarm sense_id={} actual_ring_time={} expected_ring_time={}", deviceName, nextRingTime.actualRingTimeUTC, nextRingTime.expectedRingTimeUTC);
             }
 
@@ -703,53 +845,19 @@ public class ReceiveResource extends BaseResource {
 
             // End generate protobuf for alarm
 
-            if (featureFlipper.deviceFeatureActive(FeatureFlipper.ENABLE_OTA_UPDATES, deviceName, groups)) {
-                //Perform all OTA checks and compute the update file list (if necessary)
-                final List<OutputProtos.SyncResponse.FileDownload> fileDownloadList = computeOTAFileList(deviceName, groups, userTimeZone.get(), batch, userInfoList, deviceHasOutOfSyncClock, hardwareVersion);
-                if (!fileDownloadList.isEmpty()) {
-                    if (shouldOverrideOTA(deviceName, groups)) {
-                        LOGGER.warn("action=ota-override sense_id={}", deviceName);
-                        fileDownloadList.clear();
-                    }
-                    responseBuilder.addAllFiles(fileDownloadList);
-                    responseBuilder.setResetMcu(false); //Clear the reset MCU command since in the fw it will take precedence over the OTA
-                }
-            }
-
-
-
-            final AudioControlProtos.AudioControl.Builder audioControl = AudioControlProtos.AudioControl
-                    .newBuilder()
-                    .setAudioCaptureAction(AudioControlProtos.AudioControl.AudioCaptureAction.ON)
-                    .setAudioSaveFeatures(AudioControlProtos.AudioControl.AudioCaptureAction.OFF)
-                    .setAudioSaveRawData(AudioControlProtos.AudioControl.AudioCaptureAction.OFF);
-
-            if (featureFlipper.deviceFeatureActive(FeatureFlipper.ALWAYS_ON_AUDIO, deviceName, groups)) {
-                audioControl.setAudioCaptureAction(AudioControlProtos.AudioControl.AudioCaptureAction.ON);
-                audioControl.setAudioSaveFeatures(AudioControlProtos.AudioControl.AudioCaptureAction.ON);
-                audioControl.setAudioSaveRawData(AudioControlProtos.AudioControl.AudioCaptureAction.ON);
-            }
-
-
-            //feature flip SENSE_UPLOADS_KEYWORD_FEATURES controls if Sense uploads the keyword features or not
-            final AudioFeaturesControlProtos.AudioFeaturesControl.Builder audioFeaturesControl =
-                    AudioFeaturesControlProtos.AudioFeaturesControl.newBuilder().setEnableKeywordFeatures(
-                                    featureFlipper.deviceFeatureActive(ServiceFeatureFlipper.SENSE_UPLOADS_KEYWORD_FEATURES.getFeatureName(), deviceName, groups));
-
 
 
-            final Boolean isIncreasedInterval = featureFlipper.deviceFeatureActive(FeatureFlipper.INCREASE_UPLOAD_INTERVAL, deviceName, groups);
+            final Boolean isIncreasedInterval = features.isActive(DeviceFeature.INCREASE_UPLOAD_INTERVAL);
             final int uploadCycle = computeNextUploadInterval(nextRingTime, now, senseUploadConfiguration, isIncreasedInterval);
             responseBuilder.setBatchSize(uploadCycle);
 
             if (shouldWriteRingTimeHistory(now, nextRingTime, responseBuilder.getBatchSize())) {
-                this.ringTimeHistoryDAODynamoDB.setNextRingTime(deviceName, userInfoList, nextRingTime);
+                this.ringTimeHistoryWriter.setNextRingTime(deviceName, userInfoList, nextRingTime);
             }
 
 
             //Log to a kinesis stream an alarm action if within the Alarm Actions window (default 60 mins)
             if(shouldLogAlarmActions(now, nextRingTime, ALARM_ACTIONS_WINDOW_MINS)) {
-                final DataLogger alarmActionsLogger = kinesisLoggerFactory.get(QueueName.ALARM_ACTIONS);
                 for(final AlarmExpansion expansion : nextRingTime.expansions){
                     final ExpansionProtos.AlarmAction.Builder alarmActionBuilder = ExpansionProtos.AlarmAction.newBuilder()
                         .setDeviceId(deviceName)
@@ -759,36 +867,59 @@ public class ReceiveResource extends BaseResource {
                         .setTargetValueMin(expansion.targetValue.min)
                         .setTargetValueMax(expansion.targetValue.max);
 
-                    if(expansion.enabled) {
+                    if(expansion.enabled && alarmActionPublisher.publish(expansion.id, alarmActionBuilder.build())) {
                         LOGGER.info("action=kinesis-alarm-action-put sense_id={} expansion_id={}", deviceName, expansion.id);
-                        alarmActionsLogger.put(deviceName, alarmActionBuilder.build().toByteArray());
                     }
                 }
 
             }
 
             LOGGER.debug("{} batch size set to {}", deviceName, responseBuilder.getBatchSize());
-            setPillColors(userInfoList, responseBuilder);
-            responseBuilder.setAudioControl(audioControl);
-            responseBuilder.setAudioFeaturesControl(audioFeaturesControl);
+            responseBuilder.addAllPillSettings(syncPlan.pillSettings);
+            responseBuilder.setAudioControl(syncPlan.audioControl);
+            responseBuilder.setAudioFeaturesControl(syncPlan.audioFeaturesControl);
 
         } else {
             LOGGER.error("error=no-timezone message=default-utc-for-ota sense_id={} ip_address={}", deviceName, ipAddress);
-            if (featureFlipper.deviceFeatureActive(FeatureFlipper.ENABLE_OTA_UPDATES, deviceName, groups)) {
-                final List<OutputProtos.SyncResponse.FileDownload> fileDownloadList = computeOTAFileList(deviceName, groups, DateTimeZone.UTC, batch, userInfoList, deviceHasOutOfSyncClock, hardwareVersion);
-                if (!fileDownloadList.isEmpty()) {
-                    if (shouldOverrideOTA(deviceName, groups)) {
-                        LOGGER.info("action=ota_override sense_id={}", deviceName);
-                        fileDownloadList.clear();
-                    }
-                    responseBuilder.addAllFiles(fileDownloadList);
-                    responseBuilder.setResetMcu(false);
-                }
+        }
+
+        // FORCE_OTA and the response commands in one read. Not a concurrent lookup: the read consumes the commands,
+        // it is only issued once nothing can drop the response, and never given up on half way
+        final boolean fetchForcedOTA = otaEnabled && canForceOTA(firmwareVersion, hasOutOfSyncClock);
+        final boolean allowResponseCommands = features.isActive(DeviceFeature.ALLOW_RESPONSE_COMMANDS);
+        final Map<ResponseCommand, String> commandMap;
+        if (fetchForcedOTA && allowResponseCommands) {
+            commandMap = responseCommandsDAODynamoDB.getResponseCommands(deviceName, firmwareVersion, FORCE_OTA_AND_RESPONSE_COMMANDS_TO_FETCH);
+        } else if (fetchForcedOTA) {
+            commandMap = responseCommandsDAODynamoDB.getResponseCommands(deviceName, firmwareVersion, FORCE_OTA_TO_FETCH);
+        } else if (allowResponseCommands) {
+            commandMap = responseCommandsDAODynamoDB.getResponseCommands(deviceName, firmwareVersion, RESPONSE_COMMANDS_TO_FETCH);
+        } else {
+            commandMap = Collections.emptyMap();
+        }
+
+        if (otaEnabled) {
+            //Perform all OTA checks and compute the update file list (if necessary)
+            // A forced OTA is computed inline, its command has been consumed
+            final boolean forcedOTA = commandMap.containsKey(ResponseCommand.FORCE_OTA);
+            if (forcedOTA) {
+                LOGGER.info("action=force-ota device_id={}", deviceName);
             }
+            final List<OutputProtos.SyncResponse.FileDownload> fileDownloadList;
+            if (forcedOTA) {
+                otaFilesFuture.cancel(true);
+                fileDownloadList = computeOTAFileList(deviceName, groups, features, userTimeZone.or(DateTimeZone.UTC), batch, userInfoList, hasOutOfSyncClock, true, hardwareVersion, ipAddress);
+            } else {
+                fileDownloadList = parallelLookups.await(otaFilesFuture, "ota", syncLookupConfiguration.getOtaTimeoutMillis(), deviceName, Collections.<OutputProtos.SyncResponse.FileDownload>emptyList());
+            }
+            // Forced and clock sync OTAs are not paced by the rollout throttle
+            final boolean rolloutPaced = !forcedOTA && !isClockSyncOverride(firmwareVersion, hasOutOfSyncClock);
+            addOTAFiles(deviceName, fileDownloadList, audioPlayingFuture, rolloutPaced, responseBuilder);
         }
 
-        if (featureFlipper.deviceFeatureActive(FeatureFlipper.ALLOW_RESPONSE_COMMANDS, deviceName, groups)) {
-            addCommandsToResponse(deviceName, firmwareVersion, responseBuilder);
+        if (allowResponseCommands) {
+            LOGGER.info("Response commands allowed for DeviceId: {}", deviceName);
+            addCommandsToResponse(commandMap, responseBuilder);
         }
 
         if (responseBuilder.getFilesCount() > 0) {
@@ -797,16 +928,68 @@ public class ReceiveResource extends BaseResource {
 
         final OutputProtos.SyncResponse syncResponse = responseBuilder.build();
 
-        LOGGER.debug("Len pb = {}", syncResponse.toByteArray().length);
+        LOGGER.debug("Len pb = {}", syncResponse.getSerializedSize());
         return signResponse(syncResponse, encryptionKey, deviceName);
     }
 
+    /**
+     * Parts of the response that only change with the merged user info, firmware version or feature flags
+     */
+    private SyncPlan buildSyncPlan(final List<UserInfo> userInfoList,
+                                   final int firmwareVersion,
+                                   final int flags,
+                                   final RingTime nextRingTime,
+                                   final DateTime now) {
+        int ringDurationInMS = 120 * DateTimeConstants.MILLIS_PER_SECOND;
+        if ((flags & SyncPlan.RING_DURATION_FROM_CONFIG) != 0) {
+            ringDurationInMS = this.ringDurationSec * DateTimeConstants.MILLIS_PER_SECOND;
+        }
+
+        int soundId = 0;
+        if (nextRingTime.soundIds != null && nextRingTime.soundIds.length > 0) {
+            soundId = (int) nextRingTime.soundIds[0];
+        }
+        final OutputProtos.SyncResponse.Alarm alarm = OutputProtos.SyncResponse.Alarm.newBuilder()
+                .setStartTime((int) (nextRingTime.actualRingTimeUTC / DateTimeConstants.MILLIS_PER_SECOND))
+                .setEndTime((int) ((nextRingTime.actualRingTimeUTC + ringDurationInMS) / DateTimeConstants.MILLIS_PER_SECOND))
+                .setRingDurationInSecond(ringDurationInMS / DateTimeConstants.MILLIS_PER_SECOND)
+                .setRingtoneId(soundId)
+                .setRingtonePath(Alarm.Utils.getSoundPathFromSoundId(soundId))
+                .setRingOffsetFromNowInSecond(-1)
+                .build();
+
+        final AudioControlProtos.AudioControl.Builder audioControl = AudioControlProtos.AudioControl
+                .newBuilder()
+                .setAudioCaptureAction(AudioControlProtos.AudioControl.AudioCaptureAction.ON)
+                .setAudioSaveFeatures(AudioControlProtos.AudioControl.AudioCaptureAction.OFF)
+                .setAudioSaveRawData(AudioControlProtos.AudioControl.AudioCaptureAction.OFF);
+
+        if ((flags & SyncPlan.ALWAYS_ON_AUDIO) != 0) {
+            audioControl.setAudioCaptureAction(AudioControlProtos.AudioControl.AudioCaptureAction.ON);
+            audioControl.setAudioSaveFeatures(AudioControlProtos.AudioControl.AudioCaptureAction.ON);
+            audioControl.setAudioSaveRawData(AudioControlProtos.AudioControl.AudioCaptureAction.ON);
+        }
+
+        //feature flip SENSE_UPLOADS_KEYWORD_FEATURES controls if Sense uploads the keyword features or not
+        final AudioFeaturesControlProtos.AudioFeaturesControl audioFeaturesControl =
+                AudioFeaturesControlProtos.AudioFeaturesControl.newBuilder()
+                        .setEnableKeywordFeatures((flags & SyncPlan.KEYWORD_FEATURES) != 0)
+                        .build();
+
+        final List<OutputProtos.SyncResponse.PillSettings> pillSettings = ImmutableList.copyOf(
+                setPillColors(userInfoList, OutputProtos.SyncResponse.newBuilder()).getPillSettingsList());
+
+        return new SyncPlan(userInfoList, firmwareVersion, flags, nextRingTime,
+                alarm, audioControl.build(), audioFeaturesControl, pillSettings,
+                syncPlanCache.validUntilMillis(nextRingTime, now.getMillis()));
+    }
+
     /**
      * Serialize and sign protobuf
      * @return
      */
     private byte[] signResponse(final OutputProtos.SyncResponse syncResponse, final byte[] encryptionKey, final String senseId) {
-        final Optional<byte[]> signedResponse = SignedMessage.sign(syncResponse.toByteArray(), encryptionKey);
+        final Optional<byte[]> signedResponse = messageSigner.sign(senseId, syncResponse, encryptionKey);
         if (!signedResponse.isPresent()) {
             LOGGER.error("Failed signing message");
             return plainTextError(Response.Status.INTERNAL_SERVER_ERROR, "");
@@ -820,6 +1003,33 @@ public class ReceiveResource extends BaseResource {
         return signedResponse.get();
     }
 
+    /**
+     * Files are held back while audio is playing or over the rollout cap, Sense will get them on a later sync
+     */
+    private void addOTAFiles(final String deviceName,
+                             final List<OutputProtos.SyncResponse.FileDownload> fileDownloadList,
+                             final Future<Boolean> audioPlayingFuture,
+                             final boolean rolloutPaced,
+                             final OutputProtos.SyncResponse.Builder responseBuilder) {
+        if (fileDownloadList.isEmpty()) {
+            audioPlayingFuture.cancel(true);
+            return;
+        }
+        responseBuilder.setResetMcu(false); //Clear the reset MCU command since in the fw it will take precedence over the OTA
+
+        // SLEEP_SOUNDS_OVERRIDE_OTA: only looked up when the feature is active
+        if (parallelLookups.await(audioPlayingFuture, "sense-state", syncLookupConfiguration.getSenseStateTimeoutMillis(), deviceName, false)) {
+            LOGGER.warn("action=ota-override sense_id={}", deviceName);
+            return;
+        }
+        // Last, a token is only taken when the files are sent
+        if (rolloutPaced && !otaRolloutThrottle.tryAcquire(deviceName, DateTime.now(DateTimeZone.UTC).getMillis())) {
+            // Over the rollout cap, Sense gets its files on a later sync
+            return;
+        }
+        responseBuilder.addAllFiles(fileDownloadList);
+    }
+
     public boolean shouldOverrideOTA(final String deviceId, final List<String> groups) {
         if (!featureFlipper.deviceFeatureActive(FeatureFlipper.SLEEP_SOUNDS_OVERRIDE_OTA, deviceId, groups)) {
             return false;
@@ -830,12 +1040,12 @@ public class ReceiveResource extends BaseResource {
 
     public boolean isAudioPlaying(final String deviceId) {
 
-        Optional<SenseStateAtTime> senseState = senseStateDynamoDB.getState(deviceId);
+        Optional<SenseStateAtTime> senseState = senseStateWriter.getState(deviceId);
         if(!senseState.isPresent()) {
             LOGGER.error("error=no_sense_state sense_id={}", deviceId);
             return false;
         }
-        
+
         final State.SenseState state = senseState.get().state;
         if(!state.hasAudioState()) {
             LOGGER.error("error=no_audio_state sense_id={}", deviceId);
@@ -843,7 +1053,7 @@ public class ReceiveResource extends BaseResource {
         }
 
         return state.getAudioState().getPlayingAudio();
-    } 
+    }
 
     public static boolean shouldWriteRingTimeHistory(final DateTime now, final RingTime nextRingTime, final int uploadIntervalInMinutes) {
         return now.plusMinutes(uploadIntervalInMinutes).isBefore(nextRingTime.actualRingTimeUTC) == false &&  // now + upload_cycle >= next_ring
@@ -937,7 +1147,7 @@ public class ReceiveResource extends BaseResource {
         final String ipAddress = getIpAddress(request);
         SenseCommandProtos.batched_pill_data batchPilldata = null;
         try {
-            batchPilldata = SenseCommandProtos.batched_pill_data.parseFrom(signedMessage.body);
+            batchPilldata = SenseCommandProtos.batched_pill_data.parseFrom(signedMessage.bodyInputStream());
         } catch (IOException exception) {
             LOGGER.error("error=protobuf-parsing-failed sense_id={} ip_address={} message={}", senseId, ipAddress, exception.getMessage());
             return plainTextError(Response.Status.BAD_REQUEST, "");
@@ -950,7 +1160,7 @@ public class ReceiveResource extends BaseResource {
             LOGGER.error("error=keystore-get-failed sense_id={} ip_address={}", batchPilldata.getDeviceId(), ipAddress);
             return plainTextError(Response.Status.BAD_REQUEST, "");
         }
-        final Optional<SignedMessage.Error> error = signedMessage.validateWithKey(optionalKeyBytes.get());
+        final Optional<SignedMessage.Error> error = messageSigner.validate(batchPilldata.getDeviceId(), signedMessage, optionalKeyBytes.get());
 
         if (error.isPresent()) {
             // Only log this if this sense is voluntarily disabled
@@ -974,45 +1184,19 @@ public class ReceiveResource extends BaseResource {
         // we are just forwarding it along
         cleanBatch.addAllProx(batchPilldata.getProxList());
 
-        for (final SenseCommandProtos.pill_data pill : batchPilldata.getPillsList()) {
-            final DateTime now = DateTime.now();
-            final Long pillTimestamp = pill.getTimestamp() * 1000L;
-
-            if (pillTimestamp > now.plusHours(CLOCK_SKEW_TOLERATED_IN_HOURS).getMillis()) {
-                final DateTime outOfSyncDateTime = new DateTime(pillTimestamp, DateTimeZone.UTC);
-                LOGGER.warn("Pill data timestamp from {} is too much in the future. now = {}, timestamp = {}",
-                        pill.getDeviceId(),
-                        now,
-                        outOfSyncDateTime);
-                pillClockOutOfSync.mark(1);
-
-                // This is intended to check for very specific clock bugs from Sense on 10/01/2015
-                if (featureFlipper.deviceFeatureActive(FeatureFlipper.ATTEMPT_TO_CORRECT_PILL_REPORTED_TIMESTAMP, pill.getDeviceId(), Collections.EMPTY_LIST)) {
-                    final Optional<Long> optionalCorrectedTimestamp = correctForPillClockSkewBug(outOfSyncDateTime, now);
-                    LOGGER.warn("Attempt to correct pill data timestamp for {}", pill.getDeviceId());
-                    if (optionalCorrectedTimestamp.isPresent()) {
-                        // add pill data with corrected timestamp to Kinesis
-                        final Long correctedTimestamp = optionalCorrectedTimestamp.get();
-                        final SenseCommandProtos.pill_data correctedPill = SenseCommandProtos.pill_data.newBuilder(pill).
-                                setTimestamp(correctedTimestamp).
-                                build();
-
-                        LOGGER.warn("Pill data timestamp corrected for {} to {}", correctedPill.getDeviceId(),
-                                new DateTime(correctedPill.getTimestamp() * 1000L, DateTimeZone.UTC));
-
-                        cleanBatch.addPills(correctedPill);
-                    }
-                }
-
-                // skip saving to Kinesis regular clock skew data
-                continue;
-            }
-            cleanBatch.addPills(pill);
+        final PillBatchSanitizer.Result sanitized = pillBatchSanitizer.sanitize(featureFlipper, batchPilldata.getDeviceId(),
+                batchPilldata.getPillsList(), DateTime.now(DateTimeZone.UTC).getMillis());
+        if (sanitized.outOfSync > 0) {
+            // Out of sync pill data is not saved to Kinesis, unless it could be corrected
+            pillClockOutOfSync.mark(sanitized.outOfSync);
         }
+        cleanBatch.addAllPills(sanitized.pills);
 
-        // Put raw pill data into Kinesis
-        final DataLogger batchDataLogger = kinesisLoggerFactory.get(QueueName.BATCH_PILL_DATA);
-        batchDataLogger.put(batchPilldata.getDeviceId(), cleanBatch.build().toByteArray());
+        // Put raw pill data into Kinesis, in batches by the producer. Sense retries the upload if its queue is full
+        if (!batchPillDataProducer.offer(batchPilldata.getDeviceId(), cleanBatch.build().toByteArray())) {
+            LOGGER.error("error=kinesis-queue-full stream=batch_pill_data sense_id={}", batchPilldata.getDeviceId());
+            return plainTextError(Response.Status.SERVICE_UNAVAILABLE, "");
+        }
 
 
         final SenseCommandProtos.MorpheusCommand responseCommand = SenseCommandProtos.MorpheusCommand.newBuilder()
@@ -1020,7 +1204,7 @@ public class ReceiveResource extends BaseResource {
                 .setVersion(0)
                 .build();
 
-        final Optional<byte[]> signedResponse = SignedMessage.sign(responseCommand.toByteArray(), optionalKeyBytes.get());
+        final Optional<byte[]> signedResponse = messageSigner.sign(batchPilldata.getDeviceId(), responseCommand, optionalKeyBytes.get());
         if (!signedResponse.isPresent()) {
             LOGGER.error("Failed signing message");
             return plainTextError(Response.Status.INTERNAL_SERVER_ERROR, "");
@@ -1030,15 +1214,7 @@ public class ReceiveResource extends BaseResource {
     }
 
     public static Optional<Long> correctForPillClockSkewBug(final DateTime pillDateTime, DateTime referenceDateTime) {
-        // check if pill datetime is 6 months ahead
-        if (pillDateTime.isAfter(referenceDateTime.plusHours(CLOCK_BUG_SKEW_IN_HOURS))) {
-            // attempt to correct for 6 months clock skew
-            final DateTime correctedDateTime = DateTimeUtil.possiblySanitizeSampleTime(referenceDateTime, pillDateTime, CLOCK_SKEW_TOLERATED_IN_HOURS);
-            if (!correctedDateTime.equals(pillDateTime)) {
-                return Optional.of(correctedDateTime.getMillis() / 1000L); // return data in seconds!!!
-            }
-        }
-        return Optional.absent();
+        return PillBatchSanitizer.correctForClockSkewBug(pillDateTime.getMillis(), referenceDateTime.getMillis());
     }
 
     private Optional<DateTimeZone> getUserTimeZone(List<UserInfo> userInfoList) {
@@ -1066,6 +1242,24 @@ public class ReceiveResource extends BaseResource {
         return ImmutableMap.copyOf(map);
     }
 
+    /**
+     * Devices coming from factory on 0.9.22_rc7 with the clock sync issue get special OTA handling
+     */
+    private static boolean isClockSyncOverride(final int firmwareVersion, final boolean hasOutOfSyncClock) {
+        return hasOutOfSyncClock && Integer.toString(firmwareVersion).equals(FW_VERSION_0_9_22_RC7);
+    }
+
+    /**
+     * Whether to read FORCE_OTA: only devices on a fw version that requires upgrade can be forced.
+     * Not read for 0.9.22_rc7 devices with an out of sync clock, their special handling ignores it.
+     */
+    private boolean canForceOTA(final int firmwareVersion, final boolean hasOutOfSyncClock) {
+        if (isClockSyncOverride(firmwareVersion, hasOutOfSyncClock)) {
+            return false;
+        }
+        return featureFlipper.deviceFeatureActive(FeatureFlipper.FW_VERSIONS_REQUIRING_UPDATE, Integer.toString(firmwareVersion), Collections.EMPTY_LIST);
+    }
+
     /**
      * Performs all OTA availability checks and produces an update file list
      * @param deviceID
@@ -1076,22 +1270,30 @@ public class ReceiveResource extends BaseResource {
      */
     private List<OutputProtos.SyncResponse.FileDownload> computeOTAFileList(final String deviceID,
                                                                             final List<String> deviceGroups,
+                                                                            final DeviceFeatureSnapshot features,
                                                                             final DateTimeZone userTimeZone,
                                                                             final DataInputProtos.batched_periodic_data batchData,
                                                                             final List<UserInfo> userInfoList,
                                                                             final Boolean hasOutOfSyncClock,
-                                                                            final HardwareVersion hardwareVersion) {
+                                                                            final boolean forcedOTA,
+                                                                            final HardwareVersion hardwareVersion,
+                                                                            final String ipAddress) {
         final String currentFirmwareVersion = Integer.toString(batchData.getFirmwareVersion());
+
+        // groups take precedence over feature
+        final String updateGroup = deviceGroups.isEmpty() ? FeatureFlipper.OTA_RELEASE : deviceGroups.get(0);
+        final long nowMillis = DateTime.now(DateTimeZone.UTC).getMillis();
+
         final int uptimeInSeconds = (batchData.hasUptimeInSecond()) ? batchData.getUptimeInSecond() : -1;
         final DateTime currentDTZ = DateTime.now().withZone(userTimeZone);
         final DateTime startOTAWindow = new DateTime(userTimeZone).withHourOfDay(otaConfiguration.getStartUpdateWindowHour()).withMinuteOfHour(0).withSecondOfMinute(0);
         final DateTime endOTAWindow = new DateTime(userTimeZone).withHourOfDay(otaConfiguration.getEndUpdateWindowHour()).withMinuteOfHour(0).withSecondOfMinute(0);
         final Integer deviceUptimeDelay = otaConfiguration.getDeviceUptimeDelay();
-        Boolean bypassOTAChecks = (featureFlipper.deviceFeatureActive(FeatureFlipper.BYPASS_OTA_CHECKS, deviceID, deviceGroups));
-        final String ipAddress = getIpAddress(request);
+        // Devices on a fw version that requires upgrade and have the response command for forced ota set bypass OTA checks
+        final Boolean bypassOTAChecks = forcedOTA || features.isActive(DeviceFeature.BYPASS_OTA_CHECKS);
 
         // Allow special handling for devices coming from factory on 0.9.22_rc7 with the clock sync issue
-        if (hasOutOfSyncClock && currentFirmwareVersion.equals(FW_VERSION_0_9_22_RC7)) {
+        if (isClockSyncOverride(batchData.getFirmwareVersion(), hasOutOfSyncClock)) {
             Integer pillCount = 0;
             for (final UserInfo userInfo : userInfoList) {
                 if (userInfo.pillColor.isPresent()) {
@@ -1100,35 +1302,18 @@ public class ReceiveResource extends BaseResource {
             }
             if (pillCount > 1 || uptimeInSeconds > (CLOCK_SYNC_SPECIAL_OTA_UPTIME_MINS * DateTimeConstants.SECONDS_PER_MINUTE)) {
                 if (!deviceGroups.isEmpty()) {
-                    final String updateGroup = deviceGroups.get(0);
-                    final SenseFirmwareUpdateQuery senseFirmwareUpdateQuery = SenseFirmwareUpdateQuery.forSense(deviceID, updateGroup, currentFirmwareVersion, hardwareVersion);
                     LOGGER.warn("Clock Sync OTA Override for DeviceId {} with Group {}", deviceID, updateGroup);
-                    final FirmwareUpdate firmwareUpdate = firmwareUpdateStore.getFirmwareUpdate(senseFirmwareUpdateQuery);
-                    return firmwareUpdate.files;
+                    return getFirmwareFiles(deviceID, updateGroup, currentFirmwareVersion, hardwareVersion, false, userTimeZone, nowMillis);
                 } else {
-                    if (featureFlipper.deviceFeatureActive(FeatureFlipper.OTA_RELEASE, deviceID, deviceGroups)) {
+                    if (features.isActive(DeviceFeature.OTA_RELEASE)) {
                         LOGGER.warn("Clock Sync OTA Override for DeviceId {} with no group", deviceID);
-                        final SenseFirmwareUpdateQuery senseFirmwareUpdateQuery = SenseFirmwareUpdateQuery.forSense(deviceID, FeatureFlipper.OTA_RELEASE, currentFirmwareVersion, hardwareVersion);
-                        final FirmwareUpdate firmwareUpdate = firmwareUpdateStore.getFirmwareUpdate(senseFirmwareUpdateQuery);
-                        return firmwareUpdate.files;
+                        return getFirmwareFiles(deviceID, updateGroup, currentFirmwareVersion, hardwareVersion, false, userTimeZone, nowMillis);
                     }
                 }
             }
             return Collections.emptyList();
         }
 
-        //Devices on a fw version that requires upgrade and have the response command for forced ota set should bypass OTA checks
-        if ((featureFlipper.deviceFeatureActive(FeatureFlipper.FW_VERSIONS_REQUIRING_UPDATE, currentFirmwareVersion, Collections.EMPTY_LIST))) {
-            final Map<ResponseCommand, String> commandMap = responseCommandsDAODynamoDB.getResponseCommands(
-                deviceID,
-                Integer.valueOf(currentFirmwareVersion),
-                Lists.newArrayList(ResponseCommand.FORCE_OTA));
-            if(!commandMap.isEmpty() && commandMap.containsKey(ResponseCommand.FORCE_OTA)) {
-                LOGGER.info("action=force-ota device_id={}", deviceID);
-                bypassOTAChecks = true;
-            }
-        }
-
         // Primary OTA code path
         final boolean canOTA = OTAProcessor.canDeviceOTA(
                 deviceID,
@@ -1144,26 +1329,40 @@ public class ReceiveResource extends BaseResource {
 
         if (canOTA) {
 
-            // groups take precedence over feature
             if (!deviceGroups.isEmpty()) {
-                final String updateGroup = deviceGroups.get(0);
                 LOGGER.debug("DeviceId {} belongs to groups: {}", deviceID, deviceGroups);
-                final SenseFirmwareUpdateQuery senseFirmwareUpdateQuery = SenseFirmwareUpdateQuery.forSense(deviceID, updateGroup, currentFirmwareVersion, hardwareVersion);
-                final FirmwareUpdate firmwareUpdate = firmwareUpdateStore.getFirmwareUpdate(senseFirmwareUpdateQuery);
-                return firmwareUpdate.files;
+                return getFirmwareFiles(deviceID, updateGroup, currentFirmwareVersion, hardwareVersion, !forcedOTA, userTimeZone, nowMillis);
             } else {
                 // This feature flipper can disable OTA for all groups and all devices if set to 0%
-                if (featureFlipper.deviceFeatureActive(FeatureFlipper.OTA_RELEASE, deviceID, deviceGroups)) {
+                if (features.isActive(DeviceFeature.OTA_RELEASE)) {
                     LOGGER.debug("Feature 'release' is active for device: {}", deviceID);
-                    final SenseFirmwareUpdateQuery senseFirmwareUpdateQuery = SenseFirmwareUpdateQuery.forSense(deviceID, FeatureFlipper.OTA_RELEASE, currentFirmwareVersion, hardwareVersion);
-                    final FirmwareUpdate firmwareUpdate = firmwareUpdateStore.getFirmwareUpdate(senseFirmwareUpdateQuery);
-                    return firmwareUpdate.files;
+                    return getFirmwareFiles(deviceID, updateGroup, currentFirmwareVersion, hardwareVersion, !forcedOTA, userTimeZone, nowMillis);
                 }
             }
         }
         return Collections.emptyList();
     }
 
+    private List<OutputProtos.SyncResponse.FileDownload> getFirmwareFiles(final String deviceID,
+                                                                          final String updateGroup,
+                                                                          final String currentFirmwareVersion,
+                                                                          final HardwareVersion hardwareVersion,
+                                                                          final boolean useDecisionCache,
+                                                                          final DateTimeZone userTimeZone,
+                                                                          final long nowMillis) {
+        if (useDecisionCache && otaDecisionCache.isUpToDate(deviceID, currentFirmwareVersion, hardwareVersion, updateGroup, nowMillis)) {
+            // Already on the latest firmware of its group
+            return Collections.emptyList();
+        }
+        // Always from the store, its presigned URLs are only valid as long as its own cache entry
+        final SenseFirmwareUpdateQuery senseFirmwareUpdateQuery = SenseFirmwareUpdateQuery.forSense(deviceID, updateGroup, currentFirmwareVersion, hardwareVersion);
+        final FirmwareUpdate firmwareUpdate = firmwareUpdateStore.getFirmwareUpdate(senseFirmwareUpdateQuery);
+        if (firmwareUpdate.files.isEmpty()) {
+            otaDecisionCache.markUpToDate(deviceID, currentFirmwareVersion, hardwareVersion, updateGroup, userTimeZone, nowMillis);
+        }
+        return firmwareUpdate.files;
+    }
+
     public Optional<byte[]> getKey(String deviceId, List<String> groups, String ipAddress) {
 
         if (KeyStoreDynamoDB.DEFAULT_FACTORY_DEVICE_ID.equals(deviceId) &&
@@ -1178,24 +1377,14 @@ public class ReceiveResource extends BaseResource {
 
     }
 
-    private void addCommandsToResponse(final String deviceName, final Integer firmwareVersion, final OutputProtos.SyncResponse.Builder responseBuilder) {
-
-        LOGGER.info("Response commands allowed for DeviceId: {}", deviceName);
-        //Create a list of SyncResponse commands to be fetched from DynamoDB for a given device & firmware
-        final List<ResponseCommand> respCommandsToFetch = Lists.newArrayList(
-                ResponseCommand.RESET_TO_FACTORY_FW,
-                ResponseCommand.RESET_MCU,
-                ResponseCommand.SET_LOG_LEVEL
-        );
-
-        final Map<ResponseCommand, String> commandMap = responseCommandsDAODynamoDB.getResponseCommands(deviceName, firmwareVersion, respCommandsToFetch);
+    private void addCommandsToResponse(final Map<ResponseCommand, String> commandMap, final OutputProtos.SyncResponse.Builder responseBuilder) {
 
         if (commandMap.isEmpty()) {
             return;
         }
 
         //Process and inject commands
-        for (final ResponseCommand cmd : respCommandsToFetch) {
+        for (final ResponseCommand cmd : RESPONSE_COMMANDS_TO_FETCH) {
             if (!commandMap.containsKey(cmd)) {
                 continue;
             }
@@ -1227,6 +1416,18 @@ public class ReceiveResource extends BaseResource {
     }
 
     public static boolean isClockOutOfSync(final DateTime sampleTime, final DateTime referenceTime, final Integer offsetThreshold) {
-        return sampleTime.isAfter(referenceTime.plusHours(offsetThreshold)) || sampleTime.isBefore(referenceTime.minusHours(offsetThreshold));
+        return isClockOutOfSync(sampleTime.getMillis(), referenceTime.getMillis(), offsetThreshold);
+    }
+
+    public static boolean isClockOutOfSync(final long sampleMillis, final long referenceMillis, final int offsetThresholdInHours) {
+        final long offsetMillis = offsetThresholdInHours * (long) DateTimeConstants.MILLIS_PER_HOUR;
+        return sampleMillis > referenceMillis + offsetMillis || sampleMillis < referenceMillis - offsetMillis;
+    }
+
+    /**
+     * Same as new DateTime(timestampMillis, DateTimeZone.UTC).withSecondOfMinute(0) for whole second timestamps, without allocating
+     */
+    public static long roundToMinute(final long timestampMillis) {
+        return timestampMillis - Math.floorMod(timestampMillis, (long) DateTimeConstants.MILLIS_PER_MINUTE);
     }
 }
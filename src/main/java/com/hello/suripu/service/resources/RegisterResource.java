@@ -11,7 +11,6 @@ import com.hello.suripu.core.db.DeviceDAO;
 import com.hello.suripu.core.db.KeyStore;
 import com.hello.suripu.core.db.KeyStoreDynamoDB;
 import com.hello.suripu.core.flipper.FeatureFlipper;
-import com.hello.suripu.core.flipper.GroupFlipper;
 import com.hello.suripu.core.logging.DataLogger;
 import com.hello.suripu.core.logging.KinesisLoggerFactory;
 import com.hello.suripu.core.models.DeviceAccountPair;
@@ -27,6 +26,8 @@ import com.hello.suripu.service.SignedMessage;
 import com.hello.suripu.service.pairing.PairingAttempt;
 import com.hello.suripu.service.pairing.PairingManager;
 import com.hello.suripu.service.pairing.PairingResult;
+import com.hello.suripu.service.signing.MessageSigner;
+import com.hello.suripu.service.utils.GroupMembershipIndex;
 import com.hello.suripu.service.utils.KinesisRegistrationLogger;
 import com.hello.suripu.service.utils.ServiceFeatureFlipper;
 import com.librato.rollout.RolloutClient;
@@ -66,6 +67,7 @@ public class RegisterResource extends BaseResource {
     private final KeyStore senseKeyStore;
     private final static String UNKNOWN_SENSE_ID = "UNKNOWN";
     private final PairingManager pairingManager;
+    private final MessageSigner messageSigner;
     
     @Context
     HttpServletRequest request;
@@ -73,14 +75,15 @@ public class RegisterResource extends BaseResource {
     @Inject
     RolloutClient featureFlipper;
 
-    private final GroupFlipper groupFlipper;
+    private final GroupMembershipIndex groupFlipper;
 
     public RegisterResource(final DeviceDAO deviceDAO,
                             final OAuthTokenStore<AccessToken, ClientDetails, ClientCredentials> tokenStore,
                             final KinesisLoggerFactory kinesisLoggerFactory,
                             final KeyStore senseKeyStore,
-                            final GroupFlipper groupFlipper,
-                            final PairingManager pairingManager){
+                            final GroupMembershipIndex groupFlipper,
+                            final PairingManager pairingManager,
+                            final MessageSigner messageSigner){
 
         this.deviceDAO = deviceDAO;
         this.tokenStore = tokenStore;
@@ -88,6 +91,7 @@ public class RegisterResource extends BaseResource {
         this.senseKeyStore = senseKeyStore;
         this.groupFlipper = groupFlipper;
         this.pairingManager = pairingManager;
+        this.messageSigner = messageSigner;
     }
 
     protected final boolean checkCommandType(final MorpheusCommand morpheusCommand, final PairAction action){
@@ -138,7 +142,7 @@ public class RegisterResource extends BaseResource {
 
         try {
             signedMessage = SignedMessage.parse(encryptedRequest);  // This call will throw
-            morpheusCommand = MorpheusCommand.parseFrom(signedMessage.body);
+            morpheusCommand = MorpheusCommand.parseFrom(signedMessage.bodyInputStream());
         } catch (IOException exception) {
             final String errorMessage = String.format("Failed parsing protobuf: %s", exception.getMessage());
             LOGGER.error(errorMessage);
@@ -227,7 +231,7 @@ public class RegisterResource extends BaseResource {
             throwPlainTextError(Response.Status.UNAUTHORIZED, "no key");
         }
 
-        final Optional<SignedMessage.Error> error = signedMessage.validateWithKey(keyBytesOptional.get());
+        final Optional<SignedMessage.Error> error = messageSigner.validate(senseId, signedMessage, keyBytesOptional.get());
 
         if(error.isPresent()) {
             final String errorMessage = String.format("Fail to validate signature %s", error.get().message);
@@ -335,7 +339,7 @@ public class RegisterResource extends BaseResource {
         }
         LOGGER.trace("Key used to sign device {} : {}", senseId, Hex.encodeHexString(keyBytesOptional.get()));
 
-        final Optional<byte[]> signedResponse = SignedMessage.sign(morpheusCommandBuilder.build().toByteArray(), keyBytesOptional.get());
+        final Optional<byte[]> signedResponse = messageSigner.sign(senseId, morpheusCommandBuilder.build(), keyBytesOptional.get());
         if(!signedResponse.isPresent()) {
             LOGGER.error("Failed signing message for deviceId = {}", senseId);
             return plainTextError(Response.Status.INTERNAL_SERVER_ERROR, "");
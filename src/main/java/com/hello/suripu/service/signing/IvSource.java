@@ -0,0 +1,13 @@
+package com.hello.suripu.service.signing;
+
+/**
+ * Source of initialization vectors for signing responses sent to Sense.
+ * Implementations must be safe to call from any request thread.
+ */
+public interface IvSource {
+
+    /**
+     * Fills buffer[offset, offset + length) with fresh random bytes
+     */
+    void fill(byte[] buffer, int offset, int length);
+}
@@ -0,0 +1,135 @@
+package com.hello.suripu.service.signing;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.protobuf.MessageLite;
+import com.hello.suripu.service.SignedMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Validates and signs messages exchanged with Sense.
+ *
+ * Digests and ciphers are expensive to look up from the security providers, so each thread keeps its own.
+ * Verification reuses per-thread scratch buffers and does not allocate when the signature matches.
+ * Expanded key specs are kept in a bounded cache keyed by device id.
+ * IVs come from a pluggable {@link IvSource} so signing never blocks on entropy.
+ */
+public class MessageSigner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MessageSigner.class);
+
+    private static class DeviceKey {
+        final byte[] key;
+        final SecretKeySpec keySpec;
+
+        DeviceKey(final byte[] key) {
+            this.key = key.clone();
+            this.keySpec = SignedMessage.newKeySpec(key);
+        }
+    }
+
+    private static final ThreadLocal<MessageDigest> DIGESTS = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return SignedMessage.newDigest();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private static final ThreadLocal<SignedMessage.Verifier> VERIFIERS = new ThreadLocal<SignedMessage.Verifier>() {
+        @Override
+        protected SignedMessage.Verifier initialValue() {
+            try {
+                return SignedMessage.Verifier.create();
+            } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private static final ThreadLocal<Cipher> CIPHERS = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return SignedMessage.newCipher();
+            } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    // device id -> key spec
+    private final Cache<String, DeviceKey> keyCache;
+
+    private final IvSource ivSource;
+
+    private MessageSigner(final Cache<String, DeviceKey> keyCache, final IvSource ivSource) {
+        this.keyCache = keyCache;
+        this.ivSource = ivSource;
+    }
+
+    /**
+     * @param maxCachedKeys upper bound on the number of device key specs kept in memory
+     * @return New MessageSigner object with unreported IV metrics
+     */
+    public static MessageSigner create(final long maxCachedKeys) {
+        return create(maxCachedKeys, ReseedingIvSource.create(new MetricRegistry()));
+    }
+
+    /**
+     * @param maxCachedKeys upper bound on the number of device key specs kept in memory
+     * @param ivSource generates the IV of every signed response
+     * @return New MessageSigner object
+     */
+    public static MessageSigner create(final long maxCachedKeys, final IvSource ivSource) {
+        final Cache<String, DeviceKey> cache = CacheBuilder.newBuilder()
+                .maximumSize(maxCachedKeys)
+                .build();
+        return new MessageSigner(cache, ivSource);
+    }
+
+    public Optional<SignedMessage.Error> validate(final String deviceId, final SignedMessage signedMessage, final byte[] key) {
+        return signedMessage.validate(VERIFIERS.get(), keySpec(deviceId, key));
+    }
+
+    public Optional<byte[]> sign(final String deviceId, final byte[] body, final byte[] key) {
+        final byte[] iv = new byte[SignedMessage.IV_LENGTH];
+        ivSource.fill(iv, 0, iv.length);
+        return SignedMessage.sign(body, iv, DIGESTS.get(), CIPHERS.get(), keySpec(deviceId, key));
+    }
+
+    /**
+     * Serializes the message directly into the signed response buffer, prefer this over signing toByteArray()
+     */
+    public Optional<byte[]> sign(final String deviceId, final MessageLite message, final byte[] key) {
+        return SignedMessage.sign(message, ivSource, DIGESTS.get(), CIPHERS.get(), keySpec(deviceId, key));
+    }
+
+    /**
+     * Keys can be re-provisioned, so a cached spec is only reused if it was built from the same key bytes
+     */
+    SecretKeySpec keySpec(final String deviceId, final byte[] key) {
+        final DeviceKey cached = keyCache.getIfPresent(deviceId);
+        if (cached != null && Arrays.equals(cached.key, key)) {
+            return cached.keySpec;
+        }
+
+        LOGGER.trace("action=cache-key-spec sense_id={}", deviceId);
+        final DeviceKey deviceKey = new DeviceKey(key);
+        keyCache.put(deviceId, deviceKey);
+        return deviceKey.keySpec;
+    }
+}
@@ -0,0 +1,115 @@
+package com.hello.suripu.service.signing;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Each thread gets its own SHA1PRNG, explicitly seeded so it never falls back to the provider's (potentially blocking)
+ * self-seeding, and reseeded every reseedInterval IVs from the OS non-blocking source.
+ * Threads never share a generator, so there is no contention on the provider lock.
+ */
+public class ReseedingIvSource implements IvSource {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReseedingIvSource.class);
+
+    private static final String DRBG_ALGORITHM = "SHA1PRNG";
+    private static final String SEED_ALGORITHM = "NativePRNGNonBlocking";
+    private static final int SEED_LENGTH = 32;
+    public static final long DEFAULT_RESEED_INTERVAL = 1 << 16;
+
+    private static class Generator {
+        final SecureRandom drbg;
+        byte[] scratch = new byte[16];
+        long generatedSinceSeed = 0L;
+
+        Generator(final SecureRandom drbg) {
+            this.drbg = drbg;
+        }
+    }
+
+    private final SecureRandom seedSource;
+    private final long reseedInterval;
+    private final Timer ivGeneration;
+    private final Meter reseeds;
+
+    private final ThreadLocal<Generator> generators = new ThreadLocal<Generator>() {
+        @Override
+        protected Generator initialValue() {
+            try {
+                final Generator generator = new Generator(SecureRandom.getInstance(DRBG_ALGORITHM));
+                reseed(generator);
+                return generator;
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private ReseedingIvSource(final SecureRandom seedSource, final long reseedInterval, final Timer ivGeneration, final Meter reseeds) {
+        this.seedSource = seedSource;
+        this.reseedInterval = reseedInterval;
+        this.ivGeneration = ivGeneration;
+        this.reseeds = reseeds;
+    }
+
+    public static ReseedingIvSource create(final MetricRegistry metrics) {
+        return create(metrics, DEFAULT_RESEED_INTERVAL);
+    }
+
+    public static ReseedingIvSource create(final MetricRegistry metrics, final long reseedInterval) {
+        if(reseedInterval <= 0) {
+            throw new IllegalArgumentException("reseedInterval must be positive");
+        }
+
+        return new ReseedingIvSource(
+                seedSource(),
+                reseedInterval,
+                metrics.timer(name(ReseedingIvSource.class, "iv-generation")),
+                metrics.meter(name(ReseedingIvSource.class, "reseeds"))
+        );
+    }
+
+    private static SecureRandom seedSource() {
+        try {
+            return SecureRandom.getInstance(SEED_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            LOGGER.warn("error=seed-source-unavailable algorithm={} fallback=default", SEED_ALGORITHM);
+            return new SecureRandom();
+        }
+    }
+
+    @Override
+    public void fill(final byte[] buffer, final int offset, final int length) {
+        final long start = System.nanoTime();
+        final Generator generator = generators.get();
+        if(generator.generatedSinceSeed >= reseedInterval) {
+            reseed(generator);
+        }
+
+        if(generator.scratch.length != length) {
+            generator.scratch = new byte[length];
+        }
+        generator.drbg.nextBytes(generator.scratch);
+        System.arraycopy(generator.scratch, 0, buffer, offset, length);
+        generator.generatedSinceSeed++;
+
+        ivGeneration.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private void reseed(final Generator generator) {
+        final byte[] seed = new byte[SEED_LENGTH];
+        seedSource.nextBytes(seed);
+        generator.drbg.setSeed(seed);
+        generator.generatedSinceSeed = 0L;
+        reseeds.mark();
+    }
+}
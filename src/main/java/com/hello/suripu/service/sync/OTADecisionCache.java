@@ -0,0 +1,142 @@
+package com.hello.suripu.service.sync;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.hello.suripu.core.firmware.HardwareVersion;
+import com.hello.suripu.service.configuration.OTAConfiguration;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Senses the firmware update store had nothing for, keyed by (device id, current firmware, hardware version, update group).
+ *
+ * Most Senses are on the latest firmware and can skip the store until the entry expires. Only the "no update" decision
+ * is kept: file lists hold presigned URLs and always come from the store, which caches them with their own expiry.
+ * Entries expire after decision_max_age_minutes (never more than s3cache_expire_minutes), and at the next boundary of
+ * the OTA window so a release staged outside of it is picked up when the window opens. Forced and clock sync OTAs do
+ * not read it.
+ *
+ * The store caches its own answer for s3cache_expire_minutes and its load time is not exposed, so the two add up:
+ * a new release reaches a Sense up to s3cache_expire_minutes + decision_max_age_minutes after it is published,
+ * which is why the decision is kept short.
+ */
+public class OTADecisionCache {
+
+    private static class Key {
+        final String deviceId;
+        final String firmwareVersion;
+        final HardwareVersion hardwareVersion;
+        final String updateGroup;
+
+        Key(final String deviceId, final String firmwareVersion, final HardwareVersion hardwareVersion, final String updateGroup) {
+            this.deviceId = deviceId;
+            this.firmwareVersion = firmwareVersion;
+            this.hardwareVersion = hardwareVersion;
+            this.updateGroup = updateGroup;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return deviceId.equals(other.deviceId)
+                    && firmwareVersion.equals(other.firmwareVersion)
+                    && hardwareVersion == other.hardwareVersion
+                    && updateGroup.equals(other.updateGroup);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(deviceId, firmwareVersion, hardwareVersion, updateGroup);
+        }
+    }
+
+    private final Cache<Key, Long> cache;
+    private final long maxAgeMillis;
+    private final int startUpdateWindowHour;
+    private final int endUpdateWindowHour;
+
+    private final Meter hits;
+    private final Meter misses;
+
+    private OTADecisionCache(final Cache<Key, Long> cache, final long maxAgeMillis, final OTAConfiguration configuration, final MetricRegistry metrics) {
+        this.cache = cache;
+        this.maxAgeMillis = maxAgeMillis;
+        this.startUpdateWindowHour = configuration.getStartUpdateWindowHour();
+        this.endUpdateWindowHour = configuration.getEndUpdateWindowHour();
+        this.hits = metrics.meter(name(OTADecisionCache.class, "hits"));
+        this.misses = metrics.meter(name(OTADecisionCache.class, "misses"));
+        metrics.register(name(OTADecisionCache.class, "size"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return cache.size();
+            }
+        });
+    }
+
+    public static OTADecisionCache create(final OTAConfiguration configuration, final MetricRegistry metrics) {
+        final long maxAgeMillis = TimeUnit.MINUTES.toMillis(Math.min(configuration.getDecisionMaxAgeMinutes(), configuration.getS3CacheExpireMinutes()));
+        final Cache<Key, Long> cache = CacheBuilder.newBuilder()
+                .maximumSize(configuration.getDecisionCacheSize())
+                .expireAfterWrite(maxAgeMillis, TimeUnit.MILLISECONDS)
+                .build();
+        return new OTADecisionCache(cache, maxAgeMillis, configuration, metrics);
+    }
+
+    public boolean isUpToDate(final String deviceId,
+                              final String firmwareVersion,
+                              final HardwareVersion hardwareVersion,
+                              final String updateGroup,
+                              final long nowMillis) {
+        final Long expiresAtMillis = cache.getIfPresent(new Key(deviceId, firmwareVersion, hardwareVersion, updateGroup));
+        if (expiresAtMillis == null || expiresAtMillis <= nowMillis) {
+            misses.mark();
+            return false;
+        }
+        hits.mark();
+        return true;
+    }
+
+    public void markUpToDate(final String deviceId,
+                             final String firmwareVersion,
+                             final HardwareVersion hardwareVersion,
+                             final String updateGroup,
+                             final DateTimeZone userTimeZone,
+                             final long nowMillis) {
+        final Key key = new Key(deviceId, firmwareVersion, hardwareVersion, updateGroup);
+        cache.put(key, validUntilMillis(userTimeZone, nowMillis));
+    }
+
+    /**
+     * The next start or end of the OTA window in the user's timezone, capped by decision_max_age_minutes
+     */
+    long validUntilMillis(final DateTimeZone userTimeZone, final long nowMillis) {
+        final long maxValidUntilMillis = nowMillis + maxAgeMillis;
+        final DateTime now = new DateTime(nowMillis, userTimeZone);
+        final DateTime today = now.withTimeAtStartOfDay();
+        final long[] boundaries = {
+                today.withHourOfDay(startUpdateWindowHour).getMillis(),
+                today.withHourOfDay(endUpdateWindowHour).getMillis(),
+                today.plusDays(1).withHourOfDay(startUpdateWindowHour).getMillis()
+        };
+        for (final long boundary : boundaries) {
+            if (boundary > nowMillis) {
+                return Math.min(boundary, maxValidUntilMillis);
+            }
+        }
+        return maxValidUntilMillis;
+    }
+}
@@ -0,0 +1,119 @@
+package com.hello.suripu.service.sync;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.hello.suripu.service.configuration.OTAConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Caps how many Senses are handed OTA files per minute on this node, so a fleet entering the update window
+ * at the same time doesn't download firmware in the same minute.
+ *
+ * Token bucket refilled at rollout_grants_per_minute, up to rollout_burst. A Sense over the cap is deferred
+ * for a random 1 to rollout_retry_max_minutes minutes and doesn't compete for tokens until then. A Sense that was
+ * granted keeps getting its files for s3cache_expire_minutes, the download spans several syncs.
+ * Only asked once files are about to be sent: forced and clock sync OTAs don't go through it.
+ */
+public class OTARolloutThrottle {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OTARolloutThrottle.class);
+
+    private final Cache<String, Boolean> granted;
+    private final Cache<String, Long> deferredUntil;
+    private final Random random;
+
+    private final int grantsPerMinute;
+    private final int burst;
+    private final int retryMaxMinutes;
+
+    // guarded by this
+    private double tokens;
+    private long lastRefillMillis = -1L;
+
+    private final Meter grants;
+    private final Meter deferrals;
+
+    OTARolloutThrottle(final Cache<String, Boolean> granted,
+                       final Cache<String, Long> deferredUntil,
+                       final Random random,
+                       final OTAConfiguration configuration,
+                       final MetricRegistry metrics) {
+        this.granted = granted;
+        this.deferredUntil = deferredUntil;
+        this.random = random;
+        this.grantsPerMinute = configuration.getRolloutGrantsPerMinute();
+        this.burst = configuration.getRolloutBurst();
+        this.retryMaxMinutes = configuration.getRolloutRetryMaxMinutes();
+        this.tokens = burst;
+        this.grants = metrics.meter(name(OTARolloutThrottle.class, "grants"));
+        this.deferrals = metrics.meter(name(OTARolloutThrottle.class, "deferrals"));
+        metrics.register(name(OTARolloutThrottle.class, "deferred"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return deferredUntil.size();
+            }
+        });
+    }
+
+    public static OTARolloutThrottle create(final OTAConfiguration configuration, final MetricRegistry metrics) {
+        final Cache<String, Boolean> granted = CacheBuilder.newBuilder()
+                .maximumSize(configuration.getDecisionCacheSize())
+                .expireAfterWrite(configuration.getS3CacheExpireMinutes(), TimeUnit.MINUTES)
+                .build();
+        final Cache<String, Long> deferredUntil = CacheBuilder.newBuilder()
+                .maximumSize(configuration.getDecisionCacheSize())
+                .expireAfterWrite(configuration.getRolloutRetryMaxMinutes(), TimeUnit.MINUTES)
+                .build();
+        return new OTARolloutThrottle(granted, deferredUntil, new Random(), configuration, metrics);
+    }
+
+    /**
+     * @return true if the Sense can be sent its OTA files now
+     */
+    public boolean tryAcquire(final String deviceId, final long nowMillis) {
+        if (grantsPerMinute <= 0 || granted.getIfPresent(deviceId) != null) {
+            return true;
+        }
+
+        final Long retryAtMillis = deferredUntil.getIfPresent(deviceId);
+        if (retryAtMillis != null && retryAtMillis > nowMillis) {
+            return false;
+        }
+
+        if (takeToken(nowMillis)) {
+            deferredUntil.invalidate(deviceId);
+            granted.put(deviceId, Boolean.TRUE);
+            grants.mark();
+            return true;
+        }
+
+        final long delayMillis = TimeUnit.MINUTES.toMillis(1) + (long) (random.nextDouble() * TimeUnit.MINUTES.toMillis(Math.max(retryMaxMinutes - 1, 0)));
+        deferredUntil.put(deviceId, nowMillis + delayMillis);
+        deferrals.mark();
+        LOGGER.info("action=defer-ota sense_id={} retry_in_seconds={}", deviceId, TimeUnit.MILLISECONDS.toSeconds(delayMillis));
+        return false;
+    }
+
+    private synchronized boolean takeToken(final long nowMillis) {
+        if (lastRefillMillis >= 0 && nowMillis > lastRefillMillis) {
+            final double refill = (nowMillis - lastRefillMillis) * grantsPerMinute / (double) TimeUnit.MINUTES.toMillis(1);
+            tokens = Math.min(burst, tokens + refill);
+        }
+        lastRefillMillis = Math.max(lastRefillMillis, nowMillis);
+
+        if (tokens < 1.0) {
+            return false;
+        }
+        tokens -= 1.0;
+        return true;
+    }
+}
@@ -0,0 +1,91 @@
+package com.hello.suripu.service.sync;
+
+import com.hello.suripu.api.audio.AudioControlProtos;
+import com.hello.suripu.api.audio.AudioFeaturesControlProtos;
+import com.hello.suripu.api.output.OutputProtos;
+import com.hello.suripu.core.models.RingTime;
+import com.hello.suripu.core.models.UserInfo;
+
+import java.util.List;
+
+/**
+ * Parts of a SyncResponse that do not depend on the uploaded samples, only on the merged user info,
+ * the firmware version and a few feature flags. Identical from one sync to the next for most minutes of the day.
+ */
+public class SyncPlan {
+
+    // Feature flags (and device state) a plan was built with
+    public static final int FUTURE_ALARM = 1;
+    public static final int RING_DURATION_FROM_CONFIG = 1 << 1;
+    public static final int ALWAYS_ON_AUDIO = 1 << 2;
+    public static final int KEYWORD_FEATURES = 1 << 3;
+    public static final int SUFFICIENT_UPTIME = 1 << 4;
+
+    // The plan was built from this instance, a new list means the merged user info (alarms, ring time, timezone) was reloaded
+    public final List<UserInfo> userInfoList;
+    public final int firmwareVersion;
+    public final int flags;
+
+    public final RingTime nextRingTime;
+    public final OutputProtos.SyncResponse.Alarm alarm;  // ring offset from now is set on every sync
+    public final AudioControlProtos.AudioControl audioControl;
+    public final AudioFeaturesControlProtos.AudioFeaturesControl audioFeaturesControl;
+    public final List<OutputProtos.SyncResponse.PillSettings> pillSettings;
+
+    public final long validUntilMillis;
+
+    public SyncPlan(final List<UserInfo> userInfoList,
+                    final int firmwareVersion,
+                    final int flags,
+                    final RingTime nextRingTime,
+                    final OutputProtos.SyncResponse.Alarm alarm,
+                    final AudioControlProtos.AudioControl audioControl,
+                    final AudioFeaturesControlProtos.AudioFeaturesControl audioFeaturesControl,
+                    final List<OutputProtos.SyncResponse.PillSettings> pillSettings,
+                    final long validUntilMillis) {
+        this.userInfoList = userInfoList;
+        this.firmwareVersion = firmwareVersion;
+        this.flags = flags;
+        this.nextRingTime = nextRingTime;
+        this.alarm = alarm;
+        this.audioControl = audioControl;
+        this.audioFeaturesControl = audioFeaturesControl;
+        this.pillSettings = pillSettings;
+        this.validUntilMillis = validUntilMillis;
+    }
+
+    public static int flags(final boolean futureAlarm,
+                            final boolean ringDurationFromConfig,
+                            final boolean alwaysOnAudio,
+                            final boolean keywordFeatures,
+                            final boolean sufficientUptime) {
+        int flags = 0;
+        if (futureAlarm) {
+            flags |= FUTURE_ALARM;
+        }
+        if (ringDurationFromConfig) {
+            flags |= RING_DURATION_FROM_CONFIG;
+        }
+        if (alwaysOnAudio) {
+            flags |= ALWAYS_ON_AUDIO;
+        }
+        if (keywordFeatures) {
+            flags |= KEYWORD_FEATURES;
+        }
+        if (sufficientUptime) {
+            flags |= SUFFICIENT_UPTIME;
+        }
+        return flags;
+    }
+
+    public boolean hasFlag(final int flag) {
+        return (flags & flag) != 0;
+    }
+
+    public boolean isValidFor(final List<UserInfo> userInfoList, final int firmwareVersion, final int flags, final long nowMillis) {
+        return this.userInfoList == userInfoList
+                && this.firmwareVersion == firmwareVersion
+                && this.flags == flags
+                && nowMillis < validUntilMillis;
+    }
+}
@@ -0,0 +1,102 @@
+package com.hello.suripu.service.sync;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.hello.suripu.core.models.RingTime;
+import com.hello.suripu.core.models.UserInfo;
+import com.hello.suripu.service.configuration.SyncPlanConfiguration;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Last sync plan of each Sense.
+ *
+ * A plan is reused until its merged user info, firmware version or feature flags change, and never within
+ * the ring window of its next alarm: smart alarms and the ring time history need the ring time recomputed there.
+ */
+public class SyncPlanCache {
+
+    private final Cache<String, SyncPlan> cache;
+    private final long maxAgeMillis;
+    private final long nearRingWindowMillis;
+
+    private final Meter hits;
+    private final Meter misses;
+    private final Meter invalidations;
+
+    private SyncPlanCache(final Cache<String, SyncPlan> cache, final long maxAgeMillis, final long nearRingWindowMillis, final MetricRegistry metrics) {
+        this.cache = cache;
+        this.maxAgeMillis = maxAgeMillis;
+        this.nearRingWindowMillis = nearRingWindowMillis;
+        this.hits = metrics.meter(name(SyncPlanCache.class, "hits"));
+        this.misses = metrics.meter(name(SyncPlanCache.class, "misses"));
+        this.invalidations = metrics.meter(name(SyncPlanCache.class, "invalidations"));
+        metrics.register(name(SyncPlanCache.class, "size"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return cache.size();
+            }
+        });
+    }
+
+    public static SyncPlanCache create(final SyncPlanConfiguration configuration, final MetricRegistry metrics) {
+        final long maxAgeMillis = TimeUnit.SECONDS.toMillis(configuration.getMaxAgeSeconds());
+        final Cache<String, SyncPlan> cache = CacheBuilder.newBuilder()
+                .maximumSize(configuration.getMaxSize())
+                .expireAfterWrite(maxAgeMillis, TimeUnit.MILLISECONDS)
+                .build();
+        return new SyncPlanCache(cache, maxAgeMillis, TimeUnit.MINUTES.toMillis(configuration.getNearRingWindowMinutes()), metrics);
+    }
+
+    public Optional<SyncPlan> get(final String senseId, final List<UserInfo> userInfoList, final int firmwareVersion, final int flags, final long nowMillis) {
+        final SyncPlan plan = cache.getIfPresent(senseId);
+        if (plan == null) {
+            misses.mark();
+            return Optional.absent();
+        }
+
+        if (!plan.isValidFor(userInfoList, firmwareVersion, flags, nowMillis)) {
+            invalidations.mark();
+            cache.invalidate(senseId);
+            return Optional.absent();
+        }
+
+        hits.mark();
+        return Optional.of(plan);
+    }
+
+    /**
+     * @return false if the plan is not worth keeping, its alarm is about to ring
+     */
+    public boolean put(final String senseId, final SyncPlan plan) {
+        if (plan.validUntilMillis <= 0L) {
+            return false;
+        }
+        cache.put(senseId, plan);
+        return true;
+    }
+
+    /**
+     * Until the next ring window starts, capped by max_age_seconds. 0 when already within it.
+     */
+    public long validUntilMillis(final RingTime nextRingTime, final long nowMillis) {
+        final long validUntilMillis = nowMillis + maxAgeMillis;
+        if (nextRingTime.isEmpty()) {
+            return validUntilMillis;
+        }
+
+        // Smart alarms ring before the expected time
+        final long ringWindowStartMillis = Math.min(nextRingTime.actualRingTimeUTC, nextRingTime.expectedRingTimeUTC) - nearRingWindowMillis;
+        if (ringWindowStartMillis <= nowMillis) {
+            return 0L;
+        }
+        return Math.min(validUntilMillis, ringWindowStartMillis);
+    }
+}
@@ -0,0 +1,44 @@
+package com.hello.suripu.service.utils;
+
+import com.hello.suripu.core.flipper.FeatureFlipper;
+
+/**
+ * Feature flags read while building the SyncResponse of a Sense, each evaluated at most once per request by a {@link DeviceFeatureSnapshot}.
+ * At most 32 of them, a snapshot is a single long with two bits per flag.
+ */
+public enum DeviceFeature {
+
+    ALLOW_RESPONSE_COMMANDS(FeatureFlipper.ALLOW_RESPONSE_COMMANDS, true),
+    ALWAYS_ON_AUDIO(FeatureFlipper.ALWAYS_ON_AUDIO, true),
+    BYPASS_OTA_CHECKS(FeatureFlipper.BYPASS_OTA_CHECKS, true),
+    CALIBRATION(FeatureFlipper.CALIBRATION, false),  // hasCalibrationEnabled, per device only
+    CALIBRATION_WITH_GROUPS(FeatureFlipper.CALIBRATION, true),
+    ENABLE_OTA_UPDATES(FeatureFlipper.ENABLE_OTA_UPDATES, true),
+    INCREASE_UPLOAD_INTERVAL(FeatureFlipper.INCREASE_UPLOAD_INTERVAL, true),
+    MEASURE_CLOCK_DRIFT(FeatureFlipper.MEASURE_CLOCK_DRIFT, true),
+    NEW_ROOM_CONDITION(FeatureFlipper.NEW_ROOM_CONDITION, true),
+    OTA_RELEASE(FeatureFlipper.OTA_RELEASE, true),
+    REBOOT_CLOCK_OUT_OF_SYNC_DEVICES(FeatureFlipper.REBOOT_CLOCK_OUT_OF_SYNC_DEVICES, true),
+    RING_DURATION_FROM_CONFIG(FeatureFlipper.RING_DURATION_FROM_CONFIG, false),
+    SLEEP_SOUNDS_OVERRIDE_OTA(FeatureFlipper.SLEEP_SOUNDS_OVERRIDE_OTA, true),
+    FUTURE_ALARM_ENABLED(ServiceFeatureFlipper.FUTURE_ALARM_ENABLED.getFeatureName(), true),
+    PRINT_ALARM_ACK(ServiceFeatureFlipper.PRINT_ALARM_ACK.getFeatureName(), false),
+    SENSE_UPLOADS_KEYWORD_FEATURES(ServiceFeatureFlipper.SENSE_UPLOADS_KEYWORD_FEATURES.getFeatureName(), true),
+    SMART_ALARM_SAFEGUARD(ServiceFeatureFlipper.SMART_ALARM_SAFEGAURD.getFeatureName(), false);
+
+    private final String featureName;
+    private final boolean withGroups;  // some flags have always been evaluated for the device alone
+
+    DeviceFeature(final String featureName, final boolean withGroups) {
+        this.featureName = featureName;
+        this.withGroups = withGroups;
+    }
+
+    public String getFeatureName() {
+        return featureName;
+    }
+
+    public boolean isWithGroups() {
+        return withGroups;
+    }
+}
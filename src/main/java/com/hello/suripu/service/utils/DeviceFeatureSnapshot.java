@@ -0,0 +1,49 @@
+package com.hello.suripu.service.utils;
+
+import com.librato.rollout.RolloutClient;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@link DeviceFeature}s of a (device, groups) pair for one request, each evaluated the first time it is read
+ * and kept as two bits of a long: evaluated, and active. Safe to share with the request's concurrent lookups,
+ * a flag read by two threads at once may be evaluated twice.
+ */
+public class DeviceFeatureSnapshot {
+
+    private final RolloutClient featureFlipper;
+    private final String deviceId;
+    private final List<String> groups;
+    private final AtomicLong bits = new AtomicLong(0L);
+
+    private DeviceFeatureSnapshot(final RolloutClient featureFlipper, final String deviceId, final List<String> groups) {
+        this.featureFlipper = featureFlipper;
+        this.deviceId = deviceId;
+        this.groups = groups;
+    }
+
+    public static DeviceFeatureSnapshot of(final RolloutClient featureFlipper, final String deviceId, final List<String> groups) {
+        return new DeviceFeatureSnapshot(featureFlipper, deviceId, groups);
+    }
+
+    public boolean isActive(final DeviceFeature feature) {
+        final long evaluatedBit = 1L << (2 * feature.ordinal());
+        final long activeBit = evaluatedBit << 1;
+
+        final long current = bits.get();
+        if ((current & evaluatedBit) != 0L) {
+            return (current & activeBit) != 0L;
+        }
+
+        final List<String> featureGroups = (feature.isWithGroups()) ? groups : Collections.<String>emptyList();
+        final boolean active = featureFlipper.deviceFeatureActive(feature.getFeatureName(), deviceId, featureGroups);
+        final long update = (active) ? evaluatedBit | activeBit : evaluatedBit;
+        long previous;
+        do {
+            previous = bits.get();
+        } while (!bits.compareAndSet(previous, previous | update));
+        return active;
+    }
+}
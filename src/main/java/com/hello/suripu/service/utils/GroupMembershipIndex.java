@@ -0,0 +1,210 @@
+package com.hello.suripu.service.utils;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.hello.suripu.core.db.TeamStore;
+import com.hello.suripu.core.db.TeamStoreDAO;
+import com.hello.suripu.core.models.Team;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Groups of each device and account, inverted from the teams in the TeamStore.
+ *
+ * The whole index is rebuilt on every refresh and swapped in at once, lookups read whatever index is current
+ * without locking and return a shared list: devices and accounts in the same groups get the same instance.
+ * Groups are listed in TeamStore order, like GroupFlipper: the first one is the OTA update group of a device.
+ * A failed refresh keeps serving the previous index, the first one must succeed.
+ */
+public class GroupMembershipIndex implements Managed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GroupMembershipIndex.class);
+
+    private static final int START_ATTEMPTS = 3;
+    private static final long START_RETRY_DELAY_MILLIS = 1000L;
+
+    private static class Index {
+        final ImmutableMap<String, ImmutableList<String>> devices;
+        final ImmutableMap<Long, ImmutableList<String>> accounts;
+        final int distinctMemberships;
+
+        Index(final ImmutableMap<String, ImmutableList<String>> devices, final ImmutableMap<Long, ImmutableList<String>> accounts, final int distinctMemberships) {
+            this.devices = devices;
+            this.accounts = accounts;
+            this.distinctMemberships = distinctMemberships;
+        }
+
+        static Index empty() {
+            return new Index(ImmutableMap.<String, ImmutableList<String>>of(), ImmutableMap.<Long, ImmutableList<String>>of(), 0);
+        }
+    }
+
+    private final TeamStoreDAO teamStore;
+    private final int pollingIntervalSeconds;
+
+    private final Timer refreshes;
+    private final Meter refreshFailures;
+    private final Histogram membershipSize;
+
+    private volatile Index index = Index.empty();
+    private ScheduledExecutorService refresher;
+
+    public GroupMembershipIndex(final TeamStoreDAO teamStore, final int pollingIntervalSeconds, final MetricRegistry metrics) {
+        this.teamStore = teamStore;
+        this.pollingIntervalSeconds = pollingIntervalSeconds;
+
+        this.refreshes = metrics.timer(name(GroupMembershipIndex.class, "refresh"));
+        this.refreshFailures = metrics.meter(name(GroupMembershipIndex.class, "refresh-failures"));
+        this.membershipSize = metrics.histogram(name(GroupMembershipIndex.class, "membership-size"));
+        metrics.register(name(GroupMembershipIndex.class, "devices"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return index.devices.size();
+            }
+        });
+        metrics.register(name(GroupMembershipIndex.class, "accounts"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return index.accounts.size();
+            }
+        });
+        metrics.register(name(GroupMembershipIndex.class, "distinct-memberships"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return index.distinctMemberships;
+            }
+        });
+    }
+
+    public List<String> getGroups(final String deviceId) {
+        final List<String> groups = index.devices.get(deviceId);
+        return (groups == null) ? ImmutableList.<String>of() : groups;
+    }
+
+    public List<String> getGroups(final Long accountId) {
+        final List<String> groups = index.accounts.get(accountId);
+        return (groups == null) ? ImmutableList.<String>of() : groups;
+    }
+
+    /**
+     * @return false if the TeamStore could not be read, the previous index is kept
+     */
+    public boolean refresh() {
+        final Timer.Context context = refreshes.time();
+        try {
+            final List<Team> deviceTeams = teamStore.getTeams(TeamStore.Type.DEVICES);
+            final List<Team> userTeams = teamStore.getTeams(TeamStore.Type.USERS);
+
+            final Map<String, Set<String>> deviceGroups = invert(deviceTeams);
+            final Map<String, Set<String>> accountGroups = invert(userTeams);
+
+            final Map<List<String>, ImmutableList<String>> memberships = Maps.newHashMap();
+            final ImmutableMap.Builder<String, ImmutableList<String>> devices = ImmutableMap.builder();
+            for (final Map.Entry<String, Set<String>> entry : deviceGroups.entrySet()) {
+                devices.put(entry.getKey(), intern(memberships, entry.getValue()));
+            }
+
+            final ImmutableMap.Builder<Long, ImmutableList<String>> accounts = ImmutableMap.builder();
+            for (final Map.Entry<String, Set<String>> entry : accountGroups.entrySet()) {
+                try {
+                    accounts.put(Long.parseLong(entry.getKey()), intern(memberships, entry.getValue()));
+                } catch (NumberFormatException e) {
+                    LOGGER.warn("warning=invalid-account-id account_id={}", entry.getKey());
+                }
+            }
+
+            index = new Index(devices.build(), accounts.build(), memberships.size());
+            return true;
+        } catch (Exception e) {
+            refreshFailures.mark();
+            LOGGER.error("error=group-membership-refresh-failure message={}", e.getMessage());
+            return false;
+        } finally {
+            context.stop();
+        }
+    }
+
+    private Map<String, Set<String>> invert(final List<Team> teams) {
+        final Interner<String> groupNames = Interners.newStrongInterner();
+        final Map<String, Set<String>> groupsById = Maps.newHashMap();
+        for (final Team team : teams) {
+            final String groupName = groupNames.intern(team.name);
+            for (final String id : team.ids) {
+                Set<String> groups = groupsById.get(id);
+                if (groups == null) {
+                    groups = Sets.newLinkedHashSet();
+                    groupsById.put(id, groups);
+                }
+                groups.add(groupName);
+            }
+        }
+        return groupsById;
+    }
+
+    /**
+     * Keyed by list, the same groups in another order are another membership
+     */
+    private ImmutableList<String> intern(final Map<List<String>, ImmutableList<String>> memberships, final Set<String> groups) {
+        membershipSize.update(groups.size());
+        final ImmutableList<String> membership = ImmutableList.copyOf(groups);
+        final ImmutableList<String> interned = memberships.get(membership);
+        if (interned != null) {
+            return interned;
+        }
+        memberships.put(membership, membership);
+        return membership;
+    }
+
+    /**
+     * Loads the index before the service takes requests. An empty index would give devices of every group
+     * release OTA decisions, so the service does not start until a load succeeds.
+     */
+    @Override
+    public void start() throws Exception {
+        int attempt = 1;
+        while (!refresh()) {
+            if (attempt >= START_ATTEMPTS) {
+                throw new IllegalStateException("group membership index could not be loaded from the TeamStore");
+            }
+            LOGGER.warn("warning=group-membership-index-empty attempt={}", attempt);
+            attempt++;
+            Thread.sleep(START_RETRY_DELAY_MILLIS);
+        }
+        refresher = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("group-membership-%d").setDaemon(true).build());
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        }, pollingIntervalSeconds, pollingIntervalSeconds, TimeUnit.SECONDS);
+        LOGGER.info("action=start-group-membership-index devices={} accounts={}", index.devices.size(), index.accounts.size());
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+}
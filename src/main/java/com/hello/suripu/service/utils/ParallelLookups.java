@@ -0,0 +1,77 @@
+package com.hello.suripu.service.utils;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.Futures;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Issues independent lookups (mostly DynamoDB) of a request concurrently, and waits on each with its own timeout.
+ *
+ * Lookups must not touch request scoped objects (HttpServletRequest...), they run on the executor threads.
+ * The executor is expected to be bounded and run lookups on the caller thread when saturated,
+ * so that under load we degrade to the serial behaviour instead of rejecting requests.
+ */
+public class ParallelLookups {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelLookups.class);
+
+    private final ExecutorService executor;
+    private final MetricRegistry metrics;
+
+    public ParallelLookups(final ExecutorService executor, final MetricRegistry metrics) {
+        this.executor = executor;
+        this.metrics = metrics;
+    }
+
+    public <T> Future<T> submit(final Callable<T> lookup) {
+        return executor.submit(lookup);
+    }
+
+    /**
+     * For lookups that turn out not to be needed
+     */
+    public static <T> Future<T> completed(final T value) {
+        return Futures.immediateFuture(value);
+    }
+
+    /**
+     * @return absent if the lookup timed out, failed or returned null
+     */
+    public <T> Optional<T> await(final Future<T> future, final String dependency, final long timeoutMillis, final String senseId) {
+        try {
+            return Optional.fromNullable(future.get(timeoutMillis, TimeUnit.MILLISECONDS));
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            meter(dependency, "timeouts").mark();
+            LOGGER.error("error=lookup-timeout dependency={} timeout_millis={} sense_id={}", dependency, timeoutMillis, senseId);
+        } catch (ExecutionException e) {
+            meter(dependency, "failures").mark();
+            LOGGER.error("error=lookup-failure dependency={} sense_id={} message={}", dependency, senseId, e.getCause() == null ? e.getMessage() : e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            LOGGER.error("error=lookup-interrupted dependency={} sense_id={}", dependency, senseId);
+        }
+        return Optional.absent();
+    }
+
+    public <T> T await(final Future<T> future, final String dependency, final long timeoutMillis, final String senseId, final T fallback) {
+        return await(future, dependency, timeoutMillis, senseId).or(fallback);
+    }
+
+    private Meter meter(final String dependency, final String event) {
+        return metrics.meter(name(ParallelLookups.class, dependency, event));
+    }
+}
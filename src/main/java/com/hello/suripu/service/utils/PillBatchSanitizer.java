@@ -0,0 +1,150 @@
+package com.hello.suripu.service.utils;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.hello.suripu.api.input.SenseCommandProtos;
+import com.hello.suripu.core.flipper.FeatureFlipper;
+import com.hello.suripu.core.util.DateTimeUtil;
+import com.librato.rollout.RolloutClient;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Drops the pill data of a batch whose timestamp is too far in the future, or corrects it for the pills
+ * with ATTEMPT_TO_CORRECT_PILL_REPORTED_TIMESTAMP (6 months clock bug from 10/01/2015).
+ *
+ * Timestamps are compared to a single reference time per batch. The flag is read once per pill of a batch, and only for
+ * pills out of sync.
+ */
+public class PillBatchSanitizer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PillBatchSanitizer.class);
+
+    public static final int CLOCK_SKEW_TOLERATED_IN_HOURS = 2;
+    public static final int CLOCK_BUG_SKEW_IN_HOURS = 6 * 30 * 24 - 1; // 6 months in hours
+
+    private static final long CLOCK_SKEW_TOLERATED_MILLIS = TimeUnit.HOURS.toMillis(CLOCK_SKEW_TOLERATED_IN_HOURS);
+    private static final long CLOCK_BUG_SKEW_MILLIS = TimeUnit.HOURS.toMillis(CLOCK_BUG_SKEW_IN_HOURS);
+
+    public static class Result {
+        public final List<SenseCommandProtos.pill_data> pills;
+        public final int outOfSync;
+        public final int corrected;
+
+        Result(final List<SenseCommandProtos.pill_data> pills, final int outOfSync, final int corrected) {
+            this.pills = pills;
+            this.outOfSync = outOfSync;
+            this.corrected = corrected;
+        }
+
+        public int dropped() {
+            return outOfSync - corrected;
+        }
+    }
+
+    private final Histogram skewMinutes;
+    private final Histogram dropped;
+    private final Histogram corrected;
+
+    private PillBatchSanitizer(final MetricRegistry metrics) {
+        this.skewMinutes = metrics.histogram(name(PillBatchSanitizer.class, "skew-minutes"));
+        this.dropped = metrics.histogram(name(PillBatchSanitizer.class, "dropped"));
+        this.corrected = metrics.histogram(name(PillBatchSanitizer.class, "corrected"));
+    }
+
+    public static PillBatchSanitizer create(final MetricRegistry metrics) {
+        return new PillBatchSanitizer(metrics);
+    }
+
+    public Result sanitize(final RolloutClient featureFlipper,
+                           final String senseId,
+                           final List<SenseCommandProtos.pill_data> pills,
+                           final long nowMillis) {
+        final long maxTimestampMillis = nowMillis + CLOCK_SKEW_TOLERATED_MILLIS;
+
+        // Nearly every batch is in sync, don't copy it
+        int firstOutOfSync = -1;
+        for (int i = 0; i < pills.size(); i++) {
+            if (pills.get(i).getTimestamp() * 1000L > maxTimestampMillis) {
+                firstOutOfSync = i;
+                break;
+            }
+        }
+        if (firstOutOfSync < 0) {
+            dropped.update(0);
+            corrected.update(0);
+            return new Result(pills, 0, 0);
+        }
+
+        final ImmutableList.Builder<SenseCommandProtos.pill_data> clean = ImmutableList.builder();
+        clean.addAll(pills.subList(0, firstOutOfSync));
+        int outOfSyncCount = 0;
+        int correctedCount = 0;
+        long maxSkewMillis = 0L;
+        final Map<String, Boolean> correctionFlags = Maps.newHashMap();
+        for (int i = firstOutOfSync; i < pills.size(); i++) {
+            final SenseCommandProtos.pill_data pill = pills.get(i);
+            final long pillTimestampMillis = pill.getTimestamp() * 1000L;
+            if (pillTimestampMillis <= maxTimestampMillis) {
+                clean.add(pill);
+                continue;
+            }
+
+            outOfSyncCount++;
+            maxSkewMillis = Math.max(maxSkewMillis, pillTimestampMillis - nowMillis);
+            if (!shouldCorrect(featureFlipper, correctionFlags, pill.getDeviceId())) {
+                continue;
+            }
+            final Optional<Long> correctedTimestamp = correctForClockSkewBug(pillTimestampMillis, nowMillis);
+            if (correctedTimestamp.isPresent()) {
+                clean.add(SenseCommandProtos.pill_data.newBuilder(pill).setTimestamp(correctedTimestamp.get()).build());
+                correctedCount++;
+            }
+        }
+
+        skewMinutes.update(TimeUnit.MILLISECONDS.toMinutes(maxSkewMillis));
+        dropped.update(outOfSyncCount - correctedCount);
+        corrected.update(correctedCount);
+        LOGGER.warn("warning=pill-clock-out-of-sync sense_id={} out_of_sync={} corrected={} pills={} max_skew_minutes={}",
+                senseId, outOfSyncCount, correctedCount, pills.size(), TimeUnit.MILLISECONDS.toMinutes(maxSkewMillis));
+        return new Result(clean.build(), outOfSyncCount, correctedCount);
+    }
+
+    private static boolean shouldCorrect(final RolloutClient featureFlipper, final Map<String, Boolean> correctionFlags, final String pillId) {
+        final Boolean cached = correctionFlags.get(pillId);
+        if (cached != null) {
+            return cached;
+        }
+        final boolean active = featureFlipper.deviceFeatureActive(FeatureFlipper.ATTEMPT_TO_CORRECT_PILL_REPORTED_TIMESTAMP, pillId, Collections.<String>emptyList());
+        correctionFlags.put(pillId, active);
+        return active;
+    }
+
+    /**
+     * @return the corrected timestamp in seconds, if the pill is about 6 months ahead
+     */
+    public static Optional<Long> correctForClockSkewBug(final long pillTimestampMillis, final long referenceMillis) {
+        if (pillTimestampMillis <= referenceMillis + CLOCK_BUG_SKEW_MILLIS) {
+            return Optional.absent();
+        }
+        // attempt to correct for 6 months clock skew
+        final DateTime pillDateTime = new DateTime(pillTimestampMillis, DateTimeZone.UTC);
+        final DateTime correctedDateTime = DateTimeUtil.possiblySanitizeSampleTime(new DateTime(referenceMillis, DateTimeZone.UTC), pillDateTime, CLOCK_SKEW_TOLERATED_IN_HOURS);
+        if (!correctedDateTime.equals(pillDateTime)) {
+            return Optional.of(correctedDateTime.getMillis() / 1000L); // return data in seconds!!!
+        }
+        return Optional.absent();
+    }
+}
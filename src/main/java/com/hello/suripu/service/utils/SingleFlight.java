@@ -0,0 +1,71 @@
+package com.hello.suripu.service.utils;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Collapses concurrent reads of the same device from one table into a single call.
+ *
+ * The first caller for a device runs the read on its own thread, callers arriving while it is in flight wait for
+ * and share its result (or exception). Nothing is cached: a read starting after the previous one completed goes to the table.
+ * Results are shared between requests, they must not be mutated.
+ */
+public class SingleFlight {
+
+    private final ConcurrentMap<String, FutureTask<?>> inFlight = new ConcurrentHashMap<>();
+
+    private final Meter calls;
+    private final Meter coalesced;
+
+    public SingleFlight(final String table, final MetricRegistry metrics) {
+        this.calls = metrics.meter(name(SingleFlight.class, table, "calls"));
+        this.coalesced = metrics.meter(name(SingleFlight.class, table, "coalesced"));
+    }
+
+    /**
+     * Exceptions thrown by the read are rethrown to every caller, checked ones wrapped in an UncheckedExecutionException
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(final String deviceId, final Callable<T> read) {
+        final FutureTask<T> task = new FutureTask<>(read);
+        final FutureTask<?> existing = inFlight.putIfAbsent(deviceId, task);
+        if (existing != null) {
+            coalesced.mark();
+            return getUnchecked((FutureTask<T>) existing);
+        }
+
+        calls.mark();
+        try {
+            task.run();
+        } finally {
+            inFlight.remove(deviceId, task);
+        }
+        return getUnchecked(task);
+    }
+
+    private static <T> T getUnchecked(final FutureTask<T> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedExecutionException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new UncheckedExecutionException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.hello.suripu.service;
+
+import com.google.common.base.Optional;
+import com.google.protobuf.CodedInputStream;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SignedMessageTest {
+
+    private static final byte[] KEY = "1234567891234567".getBytes();
+    private static final byte[] OTHER_KEY = "7654321987654321".getBytes();
+
+    /**
+     * Sense sends [PB][IV][Sig] while the server replies with [IV][Sig][PB]
+     */
+    private static byte[] toSenseFormat(final byte[] body, final byte[] key) {
+        final Optional<byte[]> signedOptional = SignedMessage.sign(body, key);
+        assertThat(signedOptional.isPresent(), is(true));
+        final byte[] signed = signedOptional.get();
+
+        final byte[] message = new byte[signed.length];
+        System.arraycopy(body, 0, message, 0, body.length);
+        System.arraycopy(signed, 0, message, body.length, 16 + 32);
+        return message;
+    }
+
+    @Test
+    public void testParseReadsBodyInPlace() throws Exception {
+        final byte[] body = "hello sense".getBytes();
+        final SignedMessage signedMessage = SignedMessage.parse(toSenseFormat(body, KEY));
+
+        assertThat(signedMessage.bodyLength(), is(body.length));
+        assertThat(Arrays.equals(signedMessage.copyBody(), body), is(true));
+
+        final CodedInputStream inputStream = signedMessage.bodyInputStream();
+        assertThat(Arrays.equals(inputStream.readRawBytes(body.length), body), is(true));
+        assertThat(inputStream.isAtEnd(), is(true));
+    }
+
+    @Test
+    public void testValidateWithKey() {
+        final SignedMessage signedMessage = SignedMessage.parse(toSenseFormat("hello sense".getBytes(), KEY));
+        assertThat(signedMessage.validateWithKey(KEY).isPresent(), is(false));
+        assertThat(signedMessage.validateWithKey(OTHER_KEY).isPresent(), is(true));
+    }
+
+    @Test
+    public void testValidateEmptyBody() {
+        final SignedMessage signedMessage = SignedMessage.parse(toSenseFormat(new byte[0], KEY));
+        assertThat(signedMessage.bodyLength(), is(0));
+        assertThat(signedMessage.validateWithKey(KEY).isPresent(), is(false));
+    }
+
+    @Test
+    public void testTamperedBody() {
+        final byte[] message = toSenseFormat("hello sense".getBytes(), KEY);
+        message[0] = (byte) (message[0] ^ 0xFF);
+        assertThat(SignedMessage.parse(message).validateWithKey(KEY).isPresent(), is(true));
+    }
+
+    @Test
+    public void testVerifierReusedAcrossKeys() throws Exception {
+        final SignedMessage.Verifier verifier = SignedMessage.Verifier.create();
+        final SignedMessage first = SignedMessage.parse(toSenseFormat("first".getBytes(), KEY));
+        final SignedMessage second = SignedMessage.parse(toSenseFormat("second".getBytes(), OTHER_KEY));
+
+        assertThat(first.validate(verifier, SignedMessage.newKeySpec(KEY)).isPresent(), is(false));
+        assertThat(second.validate(verifier, SignedMessage.newKeySpec(OTHER_KEY)).isPresent(), is(false));
+        assertThat(first.validate(verifier, SignedMessage.newKeySpec(OTHER_KEY)).isPresent(), is(true));
+        assertThat(first.validate(verifier, SignedMessage.newKeySpec(KEY)).isPresent(), is(false));
+    }
+
+    @Test
+    public void testMismatchDiagnostics() throws Exception {
+        final SignedMessage signedMessage = SignedMessage.parse(toSenseFormat("hello sense".getBytes(), KEY));
+        final Optional<SignedMessage.Error> error = signedMessage.validateWithKey(OTHER_KEY);
+        assertThat(error.isPresent(), is(true));
+        assertThat(error.get().message.startsWith("padded hex: "), is(true));
+        assertThat(error.get().message.contains("decrypted hex: "), is(true));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testBodyTooShort() {
+        SignedMessage.parse(new byte[16 + 31]);
+    }
+}
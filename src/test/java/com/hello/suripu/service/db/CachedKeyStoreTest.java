@@ -0,0 +1,91 @@
+package com.hello.suripu.service.db;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.hello.suripu.core.db.KeyStore;
+import com.hello.suripu.service.configuration.KeyStoreCacheConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class CachedKeyStoreTest {
+
+    private static final String SENSE_ID = "test-sense";
+    private static final byte[] KEY = "1234567891234567".getBytes();
+
+    private KeyStore delegate;
+    private CachedKeyStore keyStore;
+
+    @Before
+    public void setUp() {
+        delegate = mock(KeyStore.class);
+        keyStore = CachedKeyStore.create(delegate, new KeyStoreCacheConfiguration(), MoreExecutors.directExecutor(), new MetricRegistry());
+    }
+
+    @Test
+    public void testKeysAreCached() {
+        doReturn(Optional.of(KEY)).when(delegate).get(SENSE_ID);
+
+        assertThat(keyStore.get(SENSE_ID).get(), is(KEY));
+        assertThat(keyStore.get(SENSE_ID).get(), is(KEY));
+        verify(delegate, times(1)).get(SENSE_ID);
+    }
+
+    @Test
+    public void testUnknownDevicesAreCached() {
+        doReturn(Optional.absent()).when(delegate).get(SENSE_ID);
+
+        assertThat(keyStore.get(SENSE_ID).isPresent(), is(false));
+        assertThat(keyStore.get(SENSE_ID).isPresent(), is(false));
+        verify(delegate, times(1)).get(SENSE_ID);
+    }
+
+    @Test
+    public void testPutInvalidates() {
+        doReturn(Optional.absent()).when(delegate).get(SENSE_ID);
+        assertThat(keyStore.get(SENSE_ID).isPresent(), is(false));
+
+        keyStore.put(SENSE_ID, "31323334353637383931323334353637");
+        doReturn(Optional.of(KEY)).when(delegate).get(SENSE_ID);
+
+        assertThat(keyStore.get(SENSE_ID).get(), is(KEY));
+        verify(delegate, times(2)).get(SENSE_ID);
+    }
+
+    @Test
+    public void testGetStrictIsNotCached() {
+        doReturn(Optional.of(KEY)).when(delegate).getStrict(SENSE_ID);
+
+        keyStore.getStrict(SENSE_ID);
+        keyStore.getStrict(SENSE_ID);
+        verify(delegate, times(2)).getStrict(SENSE_ID);
+        verify(delegate, times(0)).get(SENSE_ID);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDelegateExceptionsAreRethrown() {
+        doThrow(new IllegalStateException("throttled")).when(delegate).get(SENSE_ID);
+        keyStore.get(SENSE_ID);
+    }
+
+    @Test
+    public void testFailuresAreNotCached() {
+        doThrow(new IllegalStateException("throttled")).when(delegate).get(SENSE_ID);
+        try {
+            keyStore.get(SENSE_ID);
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        doReturn(Optional.of(KEY)).when(delegate).get(SENSE_ID);
+        assertThat(keyStore.get(SENSE_ID).get(), is(KEY));
+    }
+}
@@ -0,0 +1,108 @@
+package com.hello.suripu.service.db;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.hello.suripu.api.output.OutputProtos;
+import com.hello.suripu.core.db.MergedUserInfoDynamoDB;
+import com.hello.suripu.core.models.Alarm;
+import com.hello.suripu.core.models.RingTime;
+import com.hello.suripu.core.models.UserInfo;
+import com.hello.suripu.service.configuration.UserInfoCacheConfiguration;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MergedUserInfoCacheTest {
+
+    private static final String SENSE_ID = "test-sense";
+    private static final long NOW = 1480000000000L;
+    private static final UserInfoCacheConfiguration CONFIGURATION = new UserInfoCacheConfiguration();
+    private static final long SHORT_TTL = TimeUnit.SECONDS.toMillis(CONFIGURATION.getShortTtlSeconds());
+    private static final long LONG_TTL = TimeUnit.SECONDS.toMillis(CONFIGURATION.getLongTtlSeconds());
+    private static final long WINDOW = TimeUnit.MINUTES.toMillis(CONFIGURATION.getNearRingWindowMinutes());
+
+    private MergedUserInfoDynamoDB mergedUserInfoDynamoDB;
+    private MetricRegistry metrics;
+    private MergedUserInfoCache cache;
+
+    @Before
+    public void setUp() {
+        mergedUserInfoDynamoDB = mock(MergedUserInfoDynamoDB.class);
+        metrics = new MetricRegistry();
+        cache = MergedUserInfoCache.create(mergedUserInfoDynamoDB, CONFIGURATION, metrics);
+    }
+
+    private static UserInfo userInfo(final Optional<RingTime> ringTime) {
+        return new UserInfo(
+                SENSE_ID,
+                1234L,
+                Lists.<Alarm>newArrayList(),
+                ringTime,
+                Optional.of(DateTimeZone.forID("America/Los_Angeles")),
+                Optional.<OutputProtos.SyncResponse.PillSettings>absent(),
+                0L);
+    }
+
+    private static Optional<RingTime> ringingAt(final long actualRingTime, final long expectedRingTime) {
+        return Optional.of(new RingTime(actualRingTime, expectedRingTime, new long[0], true, Lists.newArrayList()));
+    }
+
+    @Test
+    public void testReadThrough() {
+        final List<UserInfo> userInfoList = Lists.newArrayList(userInfo(Optional.<RingTime>absent()));
+        when(mergedUserInfoDynamoDB.getInfo(SENSE_ID)).thenReturn(userInfoList);
+
+        assertThat(cache.getInfo(SENSE_ID), is(userInfoList));
+        assertThat(cache.getInfo(SENSE_ID), is(userInfoList));
+
+        verify(mergedUserInfoDynamoDB, times(1)).getInfo(SENSE_ID);
+        assertThat(metrics.meter(name(MergedUserInfoCache.class, "hits")).getCount(), is(1L));
+        assertThat(metrics.meter(name(MergedUserInfoCache.class, "misses")).getCount(), is(1L));
+    }
+
+    @Test
+    public void testLongTtlWithoutRingTime() {
+        final List<UserInfo> userInfoList = Lists.newArrayList(userInfo(Optional.<RingTime>absent()));
+        assertThat(cache.ttlMillis(userInfoList, NOW), is(LONG_TTL));
+        assertThat(cache.ttlMillis(Collections.<UserInfo>emptyList(), NOW), is(LONG_TTL));
+    }
+
+    @Test
+    public void testShortTtlNearRingTime() {
+        // Smart alarm rings before the expected time
+        final List<UserInfo> userInfoList = Lists.newArrayList(
+                userInfo(Optional.<RingTime>absent()),
+                userInfo(ringingAt(NOW + WINDOW / 2, NOW + WINDOW + WINDOW / 2)));
+        assertThat(cache.ttlMillis(userInfoList, NOW), is(SHORT_TTL));
+
+        // Just rang
+        assertThat(cache.ttlMillis(Lists.newArrayList(userInfo(ringingAt(NOW - 1000L, NOW - 1000L))), NOW), is(SHORT_TTL));
+    }
+
+    @Test
+    public void testTtlEndsBeforeRingWindow() {
+        final long ringTime = NOW + WINDOW + LONG_TTL / 2;
+        final List<UserInfo> userInfoList = Lists.newArrayList(userInfo(ringingAt(ringTime, ringTime)));
+        assertThat(cache.ttlMillis(userInfoList, NOW), is(LONG_TTL / 2));
+    }
+
+    @Test
+    public void testFarRingTime() {
+        final long ringTime = NOW + TimeUnit.HOURS.toMillis(8);
+        final List<UserInfo> userInfoList = Lists.newArrayList(userInfo(ringingAt(ringTime, ringTime)));
+        assertThat(cache.ttlMillis(userInfoList, NOW), is(LONG_TTL));
+    }
+}
@@ -0,0 +1,122 @@
+package com.hello.suripu.service.db;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.hello.suripu.core.db.RingTimeHistoryDAODynamoDB;
+import com.hello.suripu.core.models.RingTime;
+import com.hello.suripu.core.models.UserInfo;
+import com.hello.suripu.service.configuration.RingTimeHistoryConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+public class RingTimeHistoryWriterTest {
+
+    private static final String SENSE_ID = "test-sense";
+    private static final long RING_TIME = 1480000000000L;
+
+    private RingTimeHistoryDAODynamoDB ringTimeHistoryDAODynamoDB;
+    private RingTimeHistoryWriter writer;
+    private List<UserInfo> userInfoList;
+
+    @Before
+    public void setUp() {
+        ringTimeHistoryDAODynamoDB = mock(RingTimeHistoryDAODynamoDB.class);
+        writer = RingTimeHistoryWriter.create(ringTimeHistoryDAODynamoDB, new RingTimeHistoryConfiguration(), new MetricRegistry());
+        userInfoList = ImmutableList.of();
+    }
+
+    private static RingTime ringingAt(final long ringTime) {
+        return new RingTime(ringTime, ringTime, new long[0], false, Lists.newArrayList());
+    }
+
+    @Test
+    public void testWritesOffTheCallerThread() {
+        assertThat(writer.setNextRingTime(SENSE_ID, userInfoList, ringingAt(RING_TIME)), is(true));
+        verifyZeroInteractions(ringTimeHistoryDAODynamoDB);
+
+        writer.flush();
+        verify(ringTimeHistoryDAODynamoDB, times(1)).setNextRingTime(eq(SENSE_ID), eq(userInfoList), any(RingTime.class));
+    }
+
+    @Test
+    public void testDeduplicatesPendingAndWritten() {
+        writer.setNextRingTime(SENSE_ID, userInfoList, ringingAt(RING_TIME));
+        writer.setNextRingTime(SENSE_ID, userInfoList, ringingAt(RING_TIME));
+        writer.flush();
+
+        // Next upload, same alarm
+        writer.setNextRingTime(SENSE_ID, userInfoList, ringingAt(RING_TIME));
+        writer.flush();
+
+        verify(ringTimeHistoryDAODynamoDB, times(1)).setNextRingTime(anyString(), anyListOf(UserInfo.class), any(RingTime.class));
+    }
+
+    @Test
+    public void testDifferentRingTimesAreWritten() {
+        writer.setNextRingTime(SENSE_ID, userInfoList, ringingAt(RING_TIME));
+        writer.setNextRingTime(SENSE_ID, userInfoList, ringingAt(RING_TIME + 60000L));
+        writer.setNextRingTime("other-sense", userInfoList, ringingAt(RING_TIME));
+        writer.flush();
+
+        verify(ringTimeHistoryDAODynamoDB, times(3)).setNextRingTime(anyString(), anyListOf(UserInfo.class), any(RingTime.class));
+    }
+
+    @Test
+    public void testFailedWritesAreNotDeduplicated() {
+        doThrow(new IllegalStateException("throttled")).when(ringTimeHistoryDAODynamoDB).setNextRingTime(anyString(), anyListOf(UserInfo.class), any(RingTime.class));
+        writer.setNextRingTime(SENSE_ID, userInfoList, ringingAt(RING_TIME));
+        writer.flush();
+
+        writer.setNextRingTime(SENSE_ID, userInfoList, ringingAt(RING_TIME));
+        writer.flush();
+        verify(ringTimeHistoryDAODynamoDB, times(2)).setNextRingTime(anyString(), anyListOf(UserInfo.class), any(RingTime.class));
+    }
+
+    @Test
+    public void testFailedWritesAreRetriedUpToMaxAttempts() {
+        doThrow(new IllegalStateException("throttled")).when(ringTimeHistoryDAODynamoDB).setNextRingTime(anyString(), anyListOf(UserInfo.class), any(RingTime.class));
+        writer.setNextRingTime(SENSE_ID, userInfoList, ringingAt(RING_TIME));
+        final int maxAttempts = new RingTimeHistoryConfiguration().getMaxAttempts();
+        for (int i = 0; i < maxAttempts + 2; i++) {
+            writer.flush();
+        }
+        verify(ringTimeHistoryDAODynamoDB, times(maxAttempts)).setNextRingTime(anyString(), anyListOf(UserInfo.class), any(RingTime.class));
+    }
+
+    @Test
+    public void testRetriedWriteIsDeduplicatedOnceWritten() {
+        doThrow(new IllegalStateException("throttled")).doNothing().when(ringTimeHistoryDAODynamoDB).setNextRingTime(anyString(), anyListOf(UserInfo.class), any(RingTime.class));
+        writer.setNextRingTime(SENSE_ID, userInfoList, ringingAt(RING_TIME));
+        writer.flush();
+        writer.flush();
+
+        writer.setNextRingTime(SENSE_ID, userInfoList, ringingAt(RING_TIME));
+        writer.flush();
+        verify(ringTimeHistoryDAODynamoDB, times(2)).setNextRingTime(anyString(), anyListOf(UserInfo.class), any(RingTime.class));
+    }
+
+    @Test
+    public void testStopDrainsPending() throws Exception {
+        writer.start();
+        writer.setNextRingTime(SENSE_ID, userInfoList, ringingAt(RING_TIME));
+        writer.stop();
+
+        verify(ringTimeHistoryDAODynamoDB, times(1)).setNextRingTime(anyString(), anyListOf(UserInfo.class), any(RingTime.class));
+    }
+}
@@ -0,0 +1,176 @@
+package com.hello.suripu.service.db;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hello.suripu.api.input.State;
+import com.hello.suripu.core.db.SenseStateDynamoDB;
+import com.hello.suripu.core.models.SenseStateAtTime;
+import com.hello.suripu.service.configuration.SenseStateConfiguration;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class SenseStateWriterTest {
+
+    private static final String SENSE_ID = "test-sense";
+
+    private SenseStateDynamoDB senseStateDynamoDB;
+    private SenseStateWriter writer;
+
+    @Before
+    public void setUp() {
+        senseStateDynamoDB = mock(SenseStateDynamoDB.class);
+        writer = SenseStateWriter.create(senseStateDynamoDB, new SenseStateConfiguration(), new MetricRegistry());
+    }
+
+    private static SenseStateAtTime state(final String senseId, final boolean playingAudio) {
+        final State.SenseState senseState = State.SenseState.newBuilder()
+                .setSenseId(senseId)
+                .setAudioState(State.AudioState.newBuilder().setPlayingAudio(playingAudio))
+                .build();
+        return new SenseStateAtTime(senseState, DateTime.now(DateTimeZone.UTC));
+    }
+
+    @Test
+    public void testWritesOffTheCallerThread() {
+        assertThat(writer.updateState(state(SENSE_ID, true)), is(true));
+        verifyZeroInteractions(senseStateDynamoDB);
+
+        writer.flush();
+        verify(senseStateDynamoDB, times(1)).updateState(any(SenseStateAtTime.class));
+    }
+
+    @Test
+    public void testUnchangedStateIsSkipped() {
+        writer.updateState(state(SENSE_ID, true));
+        writer.flush();
+        writer.updateState(state(SENSE_ID, true));
+        writer.flush();
+        verify(senseStateDynamoDB, times(1)).updateState(any(SenseStateAtTime.class));
+
+        writer.updateState(state(SENSE_ID, false));
+        writer.flush();
+        verify(senseStateDynamoDB, times(2)).updateState(any(SenseStateAtTime.class));
+    }
+
+    @Test
+    public void testUnchangedStateIsRewrittenAfterWindow() {
+        final SenseStateConfiguration configuration = mock(SenseStateConfiguration.class);
+        when(configuration.getMaxSize()).thenReturn(100L);
+        when(configuration.getMaxPending()).thenReturn(100);
+        when(configuration.getFlushIntervalMillis()).thenReturn(500L);
+        when(configuration.getRewriteUnchangedMinutes()).thenReturn(0L);
+        when(configuration.getLastKnownSeconds()).thenReturn(60L);
+        final SenseStateWriter alwaysRewrite = SenseStateWriter.create(senseStateDynamoDB, configuration, new MetricRegistry());
+
+        alwaysRewrite.updateState(state(SENSE_ID, true));
+        alwaysRewrite.flush();
+        alwaysRewrite.updateState(state(SENSE_ID, true));
+        alwaysRewrite.flush();
+        verify(senseStateDynamoDB, times(2)).updateState(any(SenseStateAtTime.class));
+    }
+
+    @Test
+    public void testPendingStateIsReplacedByUnchangedState() {
+        writer.updateState(state(SENSE_ID, true));
+        writer.flush();
+        writer.updateState(state(SENSE_ID, false));
+        writer.updateState(state(SENSE_ID, true));
+        writer.flush();
+
+        final ArgumentCaptor<SenseStateAtTime> captor = ArgumentCaptor.forClass(SenseStateAtTime.class);
+        verify(senseStateDynamoDB, times(2)).updateState(captor.capture());
+        assertThat(captor.getAllValues().get(1).state.getAudioState().getPlayingAudio(), is(true));
+    }
+
+    @Test
+    public void testOnlyLatestPendingStateIsWritten() {
+        writer.updateState(state(SENSE_ID, true));
+        writer.updateState(state(SENSE_ID, false));
+        writer.flush();
+
+        verify(senseStateDynamoDB, times(1)).updateState(any(SenseStateAtTime.class));
+        assertThat(writer.getState(SENSE_ID).get().state.getAudioState().getPlayingAudio(), is(false));
+    }
+
+    @Test
+    public void testFailedWritesAreRetriedOnNextFlush() {
+        doThrow(new IllegalStateException("throttled")).doNothing().when(senseStateDynamoDB).updateState(any(SenseStateAtTime.class));
+        writer.updateState(state(SENSE_ID, true));
+        writer.flush();
+        writer.flush();
+        writer.flush();
+        verify(senseStateDynamoDB, times(2)).updateState(any(SenseStateAtTime.class));
+    }
+
+    @Test
+    public void testFailedWriteDoesNotReplaceNewerState() {
+        final SenseStateAtTime newer = state(SENSE_ID, false);
+        doThrow(new IllegalStateException("throttled")).when(senseStateDynamoDB).updateState(any(SenseStateAtTime.class));
+        writer.updateState(state(SENSE_ID, true));
+        writer.flush();
+        writer.updateState(newer);
+
+        doNothing().when(senseStateDynamoDB).updateState(any(SenseStateAtTime.class));
+        writer.flush();
+        verify(senseStateDynamoDB, times(1)).updateState(newer);
+    }
+
+    @Test
+    public void testFailedWriteDoesNotOverwriteNewerStateWrittenInSameFlush() {
+        final SenseStateAtTime older = state(SENSE_ID, true);
+        final SenseStateAtTime newer = state(SENSE_ID, false);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(final InvocationOnMock invocation) {
+                // Reported while the older state is being written
+                writer.updateState(newer);
+                throw new IllegalStateException("throttled");
+            }
+        }).when(senseStateDynamoDB).updateState(older);
+        writer.updateState(older);
+
+        writer.flush();
+        writer.flush();
+        writer.flush();
+        verify(senseStateDynamoDB, times(1)).updateState(older);
+        verify(senseStateDynamoDB, times(1)).updateState(newer);
+        assertThat(writer.getState(SENSE_ID).get(), is(newer));
+    }
+
+    @Test
+    public void testLastKnownStateIsReadLocally() {
+        writer.updateState(state(SENSE_ID, true));
+        assertThat(writer.getState(SENSE_ID).get().state.getAudioState().getPlayingAudio(), is(true));
+        verify(senseStateDynamoDB, never()).getState(anyString());
+
+        writer.getState("other-sense");
+        verify(senseStateDynamoDB, times(1)).getState("other-sense");
+    }
+
+    @Test
+    public void testStopDrainsPending() throws Exception {
+        writer.start();
+        writer.updateState(state(SENSE_ID, true));
+        writer.stop();
+
+        verify(senseStateDynamoDB, times(1)).updateState(any(SenseStateAtTime.class));
+    }
+}
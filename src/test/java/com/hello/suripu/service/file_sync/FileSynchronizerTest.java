@@ -2,8 +2,10 @@ package com.hello.suripu.service.file_sync;
 
 import com.amazonaws.HttpMethod;
 import com.amazonaws.services.s3.AmazonS3;
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.protobuf.ByteString;
 import com.hello.suripu.api.input.FileSync;
 import com.hello.suripu.core.db.FileInfoDAO;
@@ -12,6 +14,7 @@ import com.hello.suripu.core.db.FileInfoSenseOneFiveDAO;
 import com.hello.suripu.core.db.FileManifestDAO;
 import com.hello.suripu.core.firmware.HardwareVersion;
 import com.hello.suripu.core.models.FileInfo;
+import com.hello.suripu.service.configuration.FileInfoCacheConfiguration;
 import org.apache.commons.codec.binary.Hex;
 import org.junit.Before;
 import org.junit.Test;
@@ -36,6 +39,11 @@ public class FileSynchronizerTest {
 
     private FileSynchronizer fileSynchronizer;
 
+    private FileInfoCache fileInfoCache() {
+        return FileInfoCache.create(fileInfoSenseOneDAO, fileInfoSenseOneFiveDAO, new FileInfoCacheConfiguration(),
+                MoreExecutors.directExecutor(), new MetricRegistry());
+    }
+
     @Before
     public void setUp() {
         fileInfoSenseOneDAO = Mockito.mock(FileInfoSenseOneDAO.class);
@@ -45,8 +53,9 @@ public class FileSynchronizerTest {
         final Long PRESIGNED_URL_EXPIRATION_MINUTES = 0L;
         final Long FILE_DOWNLOAD_CACHE_EXPIRATION_MINUTES = 0L;
         fileSynchronizer = FileSynchronizer.create(
-                fileInfoSenseOneDAO, fileInfoSenseOneFiveDAO, fileManifestDAO, s3Signer,
-                FILE_DOWNLOAD_CACHE_EXPIRATION_MINUTES, PRESIGNED_URL_EXPIRATION_MINUTES);
+                fileInfoCache(), fileManifestDAO, s3Signer,
+                FILE_DOWNLOAD_CACHE_EXPIRATION_MINUTES, PRESIGNED_URL_EXPIRATION_MINUTES,
+                MoreExecutors.directExecutor(), new MetricRegistry());
     }
 
     @Test
@@ -223,4 +232,63 @@ public class FileSynchronizerTest {
         final FileSync.FileManifest senseOneFiveManifestDisabled = fileSynchronizer.synchronizeFileManifest(senseId, initialManifest, false, HardwareVersion.SENSE_ONE_FIVE);
         assertThat(senseOneFiveManifestDisabled.getFileInfoCount(), is(0));
     }
-}
\ No newline at end of file
+
+    private static FileInfo cachedFileInfo(final String sha) {
+        return FileInfo.newBuilder()
+                .withFileType(FileInfo.FileType.SLEEP_SOUND)
+                .withId(5L)
+                .withIsPublic(true)
+                .withName("cached")
+                .withPath("path/cached")
+                .withPreviewUri("preview")
+                .withSha(sha)
+                .withUri("http://localhost/cached")
+                .withFirmwareVersion(1)
+                .build();
+    }
+
+    @Test
+    public void testPresignedUrlsAreCachedPerFile() throws Exception {
+        final String senseId = "sense";
+        final FileSynchronizer cachingFileSynchronizer = FileSynchronizer.create(
+                fileInfoCache(), fileManifestDAO, s3Signer,
+                15L, 300L, MoreExecutors.directExecutor(), new MetricRegistry());
+
+        final FileSync.FileManifest initialManifest = FileSync.FileManifest.newBuilder()
+                .setSenseId(senseId)
+                .setFirmwareVersion(5)
+                .build();
+
+        Mockito.when(fileInfoSenseOneDAO.getAll(Mockito.anyInt(), Mockito.eq(senseId))).thenReturn(ImmutableList.of(cachedFileInfo("beef")));
+        Mockito.when(s3Signer.generatePresignedUrl(Mockito.anyString(), Mockito.eq("cached"), Mockito.any(Date.class), Mockito.any(HttpMethod.class)))
+                .thenReturn(new URL("http", "localhost", 80, "/cached"));
+
+        cachingFileSynchronizer.synchronizeFileManifest(senseId, initialManifest, true, HardwareVersion.SENSE_ONE);
+        cachingFileSynchronizer.synchronizeFileManifest(senseId, initialManifest, true, HardwareVersion.SENSE_ONE);
+        Mockito.verify(s3Signer, Mockito.times(1)).generatePresignedUrl(Mockito.anyString(), Mockito.eq("cached"), Mockito.any(Date.class), Mockito.any(HttpMethod.class));
+
+        // Same id, new content on the next firmware version
+        Mockito.when(fileInfoSenseOneDAO.getAll(Mockito.anyInt(), Mockito.eq(senseId))).thenReturn(ImmutableList.of(cachedFileInfo("cafe")));
+        final FileSync.FileManifest nextFirmwareManifest = initialManifest.toBuilder().setFirmwareVersion(6).build();
+        final FileSync.FileManifest responseManifest = cachingFileSynchronizer.synchronizeFileManifest(senseId, nextFirmwareManifest, true, HardwareVersion.SENSE_ONE);
+        Mockito.verify(s3Signer, Mockito.times(2)).generatePresignedUrl(Mockito.anyString(), Mockito.eq("cached"), Mockito.any(Date.class), Mockito.any(HttpMethod.class));
+        assertThat(responseManifest.getFileInfo(0).getDownloadInfo().getSha1(), is(ByteString.copyFrom(Hex.decodeHex("cafe".toCharArray()))));
+    }
+
+    @Test
+    public void testExpectedFilesAreCachedPerFirmwareAndHardwareVersion() throws Exception {
+        final String senseId = "sense";
+        Mockito.when(fileInfoSenseOneDAO.getAll(Mockito.anyInt(), Mockito.eq(senseId))).thenReturn(ImmutableList.of(cachedFileInfo("beef")));
+        Mockito.when(fileInfoSenseOneFiveDAO.getAll(Mockito.anyInt(), Mockito.eq(senseId))).thenReturn(ImmutableList.<FileInfo>of());
+
+        final FileInfoCache fileInfoCache = fileInfoCache();
+        assertThat(fileInfoCache.getAll(HardwareVersion.SENSE_ONE, 5, senseId).size(), is(1));
+        assertThat(fileInfoCache.getAll(HardwareVersion.SENSE_ONE, 5, senseId).size(), is(1));
+        Mockito.verify(fileInfoSenseOneDAO, Mockito.times(1)).getAll(5, senseId);
+
+        assertThat(fileInfoCache.getAll(HardwareVersion.SENSE_ONE, 6, senseId).size(), is(1));
+        assertThat(fileInfoCache.getAll(HardwareVersion.SENSE_ONE_FIVE, 5, senseId).isEmpty(), is(true));
+        Mockito.verify(fileInfoSenseOneDAO, Mockito.times(1)).getAll(6, senseId);
+        Mockito.verify(fileInfoSenseOneFiveDAO, Mockito.times(1)).getAll(5, senseId);
+    }
+}
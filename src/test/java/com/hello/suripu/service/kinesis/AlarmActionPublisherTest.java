@@ -0,0 +1,98 @@
+package com.hello.suripu.service.kinesis;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hello.suripu.api.expansions.ExpansionProtos;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AlarmActionPublisherTest {
+
+    private static final String SENSE_ID = "test-sense";
+    private static final long RING_TIME = 1480000000000L;
+    private static final long EXPANSION_ID = 1L;
+
+    // Accepted and put by the time offer returns
+    private static final Answer<Boolean> PUT = new Answer<Boolean>() {
+        @Override
+        public Boolean answer(final InvocationOnMock invocation) {
+            ((BatchingKinesisProducer.Callback) invocation.getArguments()[2]).onPut();
+            return true;
+        }
+    };
+
+    private BatchingKinesisProducer producer;
+    private AlarmActionPublisher publisher;
+
+    @Before
+    public void setUp() {
+        producer = mock(BatchingKinesisProducer.class);
+        when(producer.offer(anyString(), any(byte[].class), any(BatchingKinesisProducer.Callback.class))).thenAnswer(PUT);
+        publisher = AlarmActionPublisher.create(producer, 100L, new MetricRegistry());
+    }
+
+    private static ExpansionProtos.AlarmAction action(final long uploadTimeSeconds, final int targetValueMax) {
+        return ExpansionProtos.AlarmAction.newBuilder()
+                .setDeviceId(SENSE_ID)
+                .setUnixTime(uploadTimeSeconds)
+                .setServiceType(ExpansionProtos.ServiceType.values()[0])
+                .setExpectedRingtimeUtc(RING_TIME)
+                .setTargetValueMin(0)
+                .setTargetValueMax(targetValueMax)
+                .build();
+    }
+
+    @Test
+    public void testPublishedOncePerAlarm() {
+        final long uploadTime = RING_TIME / 1000 - 3600;
+        assertThat(publisher.publish(EXPANSION_ID, action(uploadTime, 100)), is(true));
+        assertThat(publisher.publish(EXPANSION_ID, action(uploadTime + 60, 100)), is(false));
+        assertThat(publisher.publish(EXPANSION_ID, action(uploadTime + 120, 100)), is(false));
+
+        verify(producer, times(1)).offer(anyString(), any(byte[].class), any(BatchingKinesisProducer.Callback.class));
+    }
+
+    @Test
+    public void testRepublishedOnChange() {
+        final long uploadTime = RING_TIME / 1000 - 3600;
+        publisher.publish(EXPANSION_ID, action(uploadTime, 100));
+        assertThat(publisher.publish(EXPANSION_ID, action(uploadTime + 60, 50)), is(true));
+        assertThat(publisher.publish(EXPANSION_ID + 1, action(uploadTime + 60, 50)), is(true));
+
+        verify(producer, times(3)).offer(anyString(), any(byte[].class), any(BatchingKinesisProducer.Callback.class));
+    }
+
+    @Test
+    public void testDroppedActionsAreRetried() {
+        final long uploadTime = RING_TIME / 1000 - 3600;
+        when(producer.offer(anyString(), any(byte[].class), any(BatchingKinesisProducer.Callback.class))).thenReturn(false);
+        assertThat(publisher.publish(EXPANSION_ID, action(uploadTime, 100)), is(false));
+
+        when(producer.offer(anyString(), any(byte[].class), any(BatchingKinesisProducer.Callback.class))).thenAnswer(PUT);
+        assertThat(publisher.publish(EXPANSION_ID, action(uploadTime + 60, 100)), is(true));
+    }
+
+    @Test
+    public void testActionsDroppedAfterAcceptanceAreRetried() {
+        final long uploadTime = RING_TIME / 1000 - 3600;
+        final ArgumentCaptor<BatchingKinesisProducer.Callback> callback = ArgumentCaptor.forClass(BatchingKinesisProducer.Callback.class);
+        when(producer.offer(anyString(), any(byte[].class), callback.capture())).thenReturn(true);
+        assertThat(publisher.publish(EXPANSION_ID, action(uploadTime, 100)), is(true));
+        callback.getValue().onDropped();
+
+        when(producer.offer(anyString(), any(byte[].class), any(BatchingKinesisProducer.Callback.class))).thenAnswer(PUT);
+        assertThat(publisher.publish(EXPANSION_ID, action(uploadTime + 60, 100)), is(true));
+        assertThat(publisher.publish(EXPANSION_ID, action(uploadTime + 120, 100)), is(false));
+    }
+}
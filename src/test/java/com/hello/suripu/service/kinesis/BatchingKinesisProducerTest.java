@@ -0,0 +1,182 @@
+package com.hello.suripu.service.kinesis;
+
+import com.amazonaws.services.kinesis.AmazonKinesis;
+import com.amazonaws.services.kinesis.model.PutRecordsRequest;
+import com.amazonaws.services.kinesis.model.PutRecordsResult;
+import com.amazonaws.services.kinesis.model.PutRecordsResultEntry;
+import com.codahale.metrics.MetricRegistry;
+import com.hello.suripu.service.configuration.KinesisBatchConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BatchingKinesisProducerTest {
+
+    private static final String STREAM = "sense_sensors_data";
+
+    private AmazonKinesis kinesis;
+    private KinesisBatchConfiguration configuration;
+
+    @Before
+    public void setUp() {
+        kinesis = Mockito.mock(AmazonKinesis.class);
+        configuration = Mockito.mock(KinesisBatchConfiguration.class);
+        when(configuration.getQueueCapacity()).thenReturn(3);
+        when(configuration.getMaxBatchRecords()).thenReturn(500);
+        when(configuration.getMaxBatchBytes()).thenReturn(1024 * 1024);
+        when(configuration.getMaxBufferTimeMillis()).thenReturn(10);
+        when(configuration.getMaxAttempts()).thenReturn(2);
+        when(configuration.getRetryBaseBackoffMillis()).thenReturn(1);
+        when(configuration.getRetryMaxBackoffMillis()).thenReturn(4);
+        when(configuration.getFlusherThreads()).thenReturn(1);
+    }
+
+    private static PutRecordsResult result(final String... errorCodes) {
+        final PutRecordsResult result = new PutRecordsResult();
+        int failed = 0;
+        for (final String errorCode : errorCodes) {
+            result.getRecords().add(new PutRecordsResultEntry().withErrorCode(errorCode));
+            failed += (errorCode == null) ? 0 : 1;
+        }
+        return result.withFailedRecordCount(failed);
+    }
+
+    @Test
+    public void testOfferRejectsWhenQueueIsFull() {
+        final BatchingKinesisProducer producer = BatchingKinesisProducer.create(kinesis, STREAM, configuration, new MetricRegistry());
+        for (int i = 0; i < 3; i++) {
+            assertThat(producer.offer("sense" + i, new byte[]{1}), is(true));
+        }
+        assertThat(producer.offer("sense", new byte[]{1}), is(false));
+    }
+
+    @Test
+    public void testStopFlushesQueuedRecords() throws Exception {
+        when(kinesis.putRecords(any(PutRecordsRequest.class))).thenReturn(result(null, null, null));
+
+        final BatchingKinesisProducer producer = BatchingKinesisProducer.create(kinesis, STREAM, configuration, new MetricRegistry());
+        for (int i = 0; i < 3; i++) {
+            producer.offer("sense" + i, new byte[]{1});
+        }
+        producer.stop();
+
+        final ArgumentCaptor<PutRecordsRequest> captor = ArgumentCaptor.forClass(PutRecordsRequest.class);
+        verify(kinesis, times(1)).putRecords(captor.capture());
+        assertThat(captor.getValue().getStreamName(), is(STREAM));
+        assertThat(captor.getValue().getRecords().size(), is(3));
+        assertThat(captor.getValue().getRecords().get(2).getPartitionKey(), is("sense2"));
+    }
+
+    @Test
+    public void testFailedRecordsAreRetriedUntilMaxAttempts() throws Exception {
+        when(kinesis.putRecords(any(PutRecordsRequest.class)))
+                .thenReturn(result(null, "ProvisionedThroughputExceededException"))
+                .thenReturn(result("ProvisionedThroughputExceededException"));
+
+        final MetricRegistry metrics = new MetricRegistry();
+        final BatchingKinesisProducer producer = BatchingKinesisProducer.create(kinesis, STREAM, configuration, metrics);
+        producer.offer("ok", new byte[]{1});
+        producer.offer("throttled", new byte[]{2});
+        producer.stop();
+
+        final ArgumentCaptor<PutRecordsRequest> captor = ArgumentCaptor.forClass(PutRecordsRequest.class);
+        verify(kinesis, times(2)).putRecords(captor.capture());
+        final List<PutRecordsRequest> requests = captor.getAllValues();
+        assertThat(requests.get(1).getRecords().size(), is(1));
+        assertThat(requests.get(1).getRecords().get(0).getPartitionKey(), is("throttled"));
+
+        assertThat(metrics.meter(MetricRegistry.name(BatchingKinesisProducer.class, STREAM, "records-put")).getCount(), is(1L));
+        assertThat(metrics.meter(MetricRegistry.name(BatchingKinesisProducer.class, STREAM, "records-dropped")).getCount(), is(1L));
+    }
+
+    @Test
+    public void testCallbacksAreToldWhetherRecordsWerePut() throws Exception {
+        when(kinesis.putRecords(any(PutRecordsRequest.class)))
+                .thenReturn(result(null, "ProvisionedThroughputExceededException"))
+                .thenReturn(result("ProvisionedThroughputExceededException"));
+        final BatchingKinesisProducer.Callback put = Mockito.mock(BatchingKinesisProducer.Callback.class);
+        final BatchingKinesisProducer.Callback dropped = Mockito.mock(BatchingKinesisProducer.Callback.class);
+
+        final BatchingKinesisProducer producer = BatchingKinesisProducer.create(kinesis, STREAM, configuration, new MetricRegistry());
+        producer.offer("ok", new byte[]{1}, put);
+        producer.offer("throttled", new byte[]{2}, dropped);
+        producer.stop();
+
+        verify(put, times(1)).onPut();
+        verify(put, times(0)).onDropped();
+        verify(dropped, times(0)).onPut();
+        verify(dropped, times(1)).onDropped();
+    }
+
+    @Test
+    public void testStartedProducerFlushesAfterBufferTime() throws Exception {
+        when(kinesis.putRecords(any(PutRecordsRequest.class))).thenReturn(result(null));
+
+        final BatchingKinesisProducer producer = BatchingKinesisProducer.create(kinesis, STREAM, configuration, new MetricRegistry());
+        producer.start();
+        producer.offer("sense", new byte[]{1});
+
+        verify(kinesis, timeout(2000).times(1)).putRecords(any(PutRecordsRequest.class));
+        producer.stop();
+    }
+
+    @Test
+    public void testThrottledRecordsAreKeptUntilPut() throws Exception {
+        final AtomicBoolean throttled = new AtomicBoolean(true);
+        when(kinesis.putRecords(any(PutRecordsRequest.class))).thenAnswer(new Answer<PutRecordsResult>() {
+            @Override
+            public PutRecordsResult answer(final InvocationOnMock invocation) {
+                final PutRecordsRequest request = (PutRecordsRequest) invocation.getArguments()[0];
+                final String[] errorCodes = new String[request.getRecords().size()];
+                if (throttled.get()) {
+                    Arrays.fill(errorCodes, "ProvisionedThroughputExceededException");
+                }
+                return result(errorCodes);
+            }
+        });
+
+        final MetricRegistry metrics = new MetricRegistry();
+        final BatchingKinesisProducer producer = BatchingKinesisProducer.create(kinesis, STREAM, configuration, metrics);
+        producer.start();
+        producer.offer("sense0", new byte[]{1});
+        producer.offer("sense1", new byte[]{2});
+
+        // Well past max_attempts
+        verify(kinesis, timeout(2000).atLeast(6)).putRecords(any(PutRecordsRequest.class));
+        assertThat(metrics.meter(MetricRegistry.name(BatchingKinesisProducer.class, STREAM, "records-dropped")).getCount(), is(0L));
+
+        // Request threads filling the queue must not push out the records being retried
+        long accepted = 2L;
+        for (int i = 2; i < 10; i++) {
+            if (producer.offer("sense" + i, new byte[]{1})) {
+                accepted++;
+            }
+        }
+
+        throttled.set(false);
+        final long deadline = System.currentTimeMillis() + 2000L;
+        while (metrics.meter(MetricRegistry.name(BatchingKinesisProducer.class, STREAM, "records-put")).getCount() < accepted
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        producer.stop();
+
+        assertThat(metrics.meter(MetricRegistry.name(BatchingKinesisProducer.class, STREAM, "records-put")).getCount(), is(accepted));
+        assertThat(metrics.meter(MetricRegistry.name(BatchingKinesisProducer.class, STREAM, "records-dropped")).getCount(), is(0L));
+    }
+}
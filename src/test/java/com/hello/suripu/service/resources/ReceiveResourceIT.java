@@ -1,27 +1,44 @@
 package com.hello.suripu.service.resources;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
 import com.hello.suripu.api.input.DataInputProtos;
 import com.hello.suripu.api.input.FileSync;
 import com.hello.suripu.api.input.State;
 import com.hello.suripu.api.output.OutputProtos;
-import com.hello.suripu.core.configuration.QueueName;
 import com.hello.suripu.core.db.MergedUserInfoDynamoDB;
 import com.hello.suripu.core.firmware.FirmwareUpdate;
 import com.hello.suripu.core.firmware.FirmwareUpdateStore;
 import com.hello.suripu.core.firmware.SenseFirmwareUpdateQuery;
 import com.hello.suripu.core.flipper.FeatureFlipper;
-import com.hello.suripu.core.flipper.GroupFlipper;
 import com.hello.suripu.core.models.Alarm;
 import com.hello.suripu.core.models.RingTime;
 import com.hello.suripu.core.models.UserInfo;
 import com.hello.suripu.core.util.HelloHttpHeader;
 import com.hello.suripu.service.SignedMessage;
 import com.hello.suripu.service.Util;
+import com.hello.suripu.service.configuration.ClockSyncConfiguration;
 import com.hello.suripu.service.configuration.OTAConfiguration;
+import com.hello.suripu.service.configuration.RingTimeHistoryConfiguration;
+import com.hello.suripu.service.configuration.SenseStateConfiguration;
+import com.hello.suripu.service.configuration.SyncLookupConfiguration;
+import com.hello.suripu.service.configuration.SyncPlanConfiguration;
+import com.hello.suripu.service.configuration.UserInfoCacheConfiguration;
+import com.hello.suripu.service.db.MergedUserInfoCache;
+import com.hello.suripu.service.db.RingTimeHistoryWriter;
+import com.hello.suripu.service.db.SenseStateWriter;
+import com.hello.suripu.service.kinesis.AlarmActionPublisher;
+import com.hello.suripu.service.sync.OTADecisionCache;
+import com.hello.suripu.service.sync.OTARolloutThrottle;
+import com.hello.suripu.service.sync.SyncPlanCache;
+import com.hello.suripu.service.utils.GroupMembershipIndex;
+import com.hello.suripu.service.utils.ParallelLookups;
+import com.hello.suripu.service.utils.PillBatchSanitizer;
+import com.hello.suripu.service.utils.SingleFlight;
 import com.librato.rollout.RolloutClient;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -36,8 +53,11 @@ import java.util.TimeZone;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
 
 /**
  * Created by jnorgan on 10/14/15.
@@ -59,14 +79,12 @@ public class ReceiveResourceIT extends ResourceTest {
     public void setUp() {
         super.setUp();
 
-        BaseResourceTestHelper.kinesisLoggerFactoryStubGet(kinesisLoggerFactory, QueueName.LOGS, dataLogger);
-        BaseResourceTestHelper.kinesisLoggerFactoryStubGet(kinesisLoggerFactory, QueueName.SENSE_SENSORS_DATA, dataLogger);
+        when(senseSensorsDataProducer.offer(anyString(), any(byte[].class))).thenReturn(true);
 
         final ReceiveResource receiveResource = new ReceiveResource(
                 keyStore,
-                kinesisLoggerFactory,
-                mergedUserInfoDynamoDB,
-                ringTimeHistoryDAODynamoDB,
+                MergedUserInfoCache.create(mergedUserInfoDynamoDB, new UserInfoCacheConfiguration(), new MetricRegistry()),
+                RingTimeHistoryWriter.create(ringTimeHistoryDAODynamoDB, new RingTimeHistoryConfiguration(), new MetricRegistry()),
                 true,
                 firmwareUpdateStore,
                 groupFlipper,
@@ -76,9 +94,21 @@ public class ReceiveResourceIT extends ResourceTest {
                 240,
                 calibrationDAO,
                 metricRegistry,
-                senseStateDynamoDB,
+                SenseStateWriter.create(senseStateDynamoDB, new SenseStateConfiguration(), new MetricRegistry()),
                 fileSynchronizer,
-                senseEventsDAO
+                senseEventsDAO,
+                messageSigner,
+                senseSensorsDataProducer,
+                batchPillDataProducer,
+                PillBatchSanitizer.create(new MetricRegistry()),
+                new ParallelLookups(MoreExecutors.newDirectExecutorService(), new MetricRegistry()),
+                new SyncLookupConfiguration(),
+                SyncPlanCache.create(new SyncPlanConfiguration(), new MetricRegistry()),
+                new ClockSyncConfiguration(),
+                new SingleFlight("calibration", new MetricRegistry()),
+                AlarmActionPublisher.create(alarmActionsProducer, 100L, new MetricRegistry()),
+                OTADecisionCache.create(new OTAConfiguration(), new MetricRegistry()),
+                OTARolloutThrottle.create(new OTAConfiguration(), new MetricRegistry())
         );
         receiveResource.request = httpServletRequest;
         receiveResource.featureFlipper = featureFlipper;
@@ -465,7 +495,7 @@ public class ReceiveResourceIT extends ResourceTest {
         doReturn(update).when(firmwareUpdateStore).getFirmwareUpdate(query);
     }
 
-    private void stubGetGroups (final GroupFlipper groupFlipper, final List<String> groups) {
+    private void stubGetGroups (final GroupMembershipIndex groupFlipper, final List<String> groups) {
         doReturn(groups).when(groupFlipper).getGroups(SENSE_ID);
     }
 }
@@ -222,4 +222,28 @@ public class ReceiveResourceTest {
         enabled = ReceiveResource.downloadEnabledForOneFive(false, true); // not DVT but in white-list
         assertThat(enabled, is(true));
     }
+
+    @Test
+    public void testClockOutOfSyncInMillis() {
+        final long now = new DateTime(2016, 11, 24, 10, 30, DateTimeZone.UTC).getMillis();
+        final long twoHours = 2L * DateTimeConstants.MILLIS_PER_HOUR;
+        assertThat(ReceiveResource.isClockOutOfSync(now, now, 2), is(false));
+        assertThat(ReceiveResource.isClockOutOfSync(now + twoHours, now, 2), is(false));
+        assertThat(ReceiveResource.isClockOutOfSync(now - twoHours, now, 2), is(false));
+        assertThat(ReceiveResource.isClockOutOfSync(now + twoHours + 1L, now, 2), is(true));
+        assertThat(ReceiveResource.isClockOutOfSync(now - twoHours - 1L, now, 2), is(true));
+        assertThat(ReceiveResource.isClockOutOfSync(now + 3L * DateTimeConstants.MILLIS_PER_DAY, now, 2), is(true));
+        assertThat(ReceiveResource.isClockOutOfSync(now + twoHours + 1L, now, 3), is(false));
+    }
+
+    @Test
+    public void testRoundToMinute() {
+        final Random random = new Random(42L);
+        for (int i = 0; i < 1000; i++) {
+            // Sense clocks can be years off in either direction
+            final long timestampMillis = (random.nextInt() & 0x7FFFFFFFL) * 1000L - DateTimeConstants.MILLIS_PER_DAY;
+            final DateTime rounded = new DateTime(timestampMillis, DateTimeZone.UTC).withSecondOfMinute(0);
+            assertThat(ReceiveResource.roundToMinute(timestampMillis), is(rounded.getMillis()));
+        }
+    }
 }
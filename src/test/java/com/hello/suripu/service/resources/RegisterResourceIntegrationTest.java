@@ -161,7 +161,8 @@ public class RegisterResourceIntegrationTest extends ResourceTest {
                 kinesisLoggerFactory,
                 keyStore,
                 groupFlipper,
-                pairingManager);
+                pairingManager,
+                messageSigner);
         registerResource.request = httpServletRequest;
         this.registerResource = spy(registerResource);  // the registerResource is a real object, we need to spy it.
 
@@ -13,7 +13,6 @@ import com.hello.suripu.core.db.RingTimeHistoryDAODynamoDB;
 import com.hello.suripu.core.db.SenseEventsDAO;
 import com.hello.suripu.core.db.SenseStateDynamoDB;
 import com.hello.suripu.core.firmware.FirmwareUpdateStore;
-import com.hello.suripu.core.flipper.GroupFlipper;
 import com.hello.suripu.core.logging.DataLogger;
 import com.hello.suripu.core.logging.KinesisLoggerFactory;
 import com.hello.suripu.core.oauth.ClientCredentials;
@@ -23,7 +22,10 @@ import com.hello.suripu.coredropwizard.oauth.AccessToken;
 import com.hello.suripu.service.configuration.OTAConfiguration;
 import com.hello.suripu.service.configuration.SenseUploadConfiguration;
 import com.hello.suripu.service.file_sync.FileSynchronizer;
+import com.hello.suripu.service.kinesis.BatchingKinesisProducer;
 import com.hello.suripu.service.modules.RolloutModule;
+import com.hello.suripu.service.signing.MessageSigner;
+import com.hello.suripu.service.utils.GroupMembershipIndex;
 import com.librato.rollout.RolloutClient;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -36,7 +38,7 @@ import static org.mockito.Mockito.mock;
  * Created by pangwu on 5/5/15.
  */
 public class ResourceTest {
-    @Mock protected GroupFlipper groupFlipper;
+    @Mock protected GroupMembershipIndex groupFlipper;
     @Mock protected KeyStore keyStore;
     @Mock protected MergedUserInfoDynamoDB mergedUserInfoDynamoDB;
     @Mock protected DataLogger dataLogger;
@@ -57,9 +59,14 @@ public class ResourceTest {
     @Mock protected SenseStateDynamoDB senseStateDynamoDB;
     @Mock protected FileSynchronizer fileSynchronizer;
     @Mock protected SenseEventsDAO senseEventsDAO;
+    @Mock protected BatchingKinesisProducer senseSensorsDataProducer;
+    @Mock protected BatchingKinesisProducer alarmActionsProducer;
+    @Mock protected BatchingKinesisProducer batchPillDataProducer;
+    protected MessageSigner messageSigner;
 
     public void setUp(){
         MockitoAnnotations.initMocks(this);
+        messageSigner = MessageSigner.create(10);
         final RolloutModule module = new RolloutModule(mock(FeatureStore.class), 30);
         ObjectGraphRoot.getInstance().init(module);
     }
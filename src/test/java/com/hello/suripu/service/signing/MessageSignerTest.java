@@ -0,0 +1,87 @@
+package com.hello.suripu.service.signing;
+
+import com.google.common.base.Optional;
+import com.hello.suripu.api.ble.SenseCommandProtos;
+import com.hello.suripu.service.SignedMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class MessageSignerTest {
+
+    private static final String SENSE_ID = "sense";
+    private static final byte[] KEY = "1234567891234567".getBytes();
+    private static final byte[] NEW_KEY = "7654321987654321".getBytes();
+
+    private MessageSigner messageSigner;
+
+    @Before
+    public void setUp() {
+        messageSigner = MessageSigner.create(10);
+    }
+
+    /**
+     * Server replies with [IV][Sig][PB], Sense sends [PB][IV][Sig]
+     */
+    private SignedMessage fromSense(final byte[] body, final byte[] key) {
+        final Optional<byte[]> signed = messageSigner.sign(SENSE_ID, body, key);
+        assertThat(signed.isPresent(), is(true));
+
+        final byte[] message = new byte[signed.get().length];
+        System.arraycopy(body, 0, message, 0, body.length);
+        System.arraycopy(signed.get(), 0, message, body.length, 16 + 32);
+        return SignedMessage.parse(message);
+    }
+
+    @Test
+    public void testSignAndValidate() {
+        final SignedMessage signedMessage = fromSense("hello sense".getBytes(), KEY);
+        assertThat(messageSigner.validate(SENSE_ID, signedMessage, KEY).isPresent(), is(false));
+        assertThat(messageSigner.validate(SENSE_ID, signedMessage, NEW_KEY).isPresent(), is(true));
+    }
+
+    @Test
+    public void testCompatibleWithSignedMessage() {
+        final SignedMessage signedMessage = fromSense("hello sense".getBytes(), KEY);
+        assertThat(signedMessage.validateWithKey(KEY).isPresent(), is(false));
+    }
+
+    @Test
+    public void testKeySpecIsCachedPerDevice() {
+        assertThat(messageSigner.keySpec(SENSE_ID, KEY), sameInstance(messageSigner.keySpec(SENSE_ID, KEY.clone())));
+    }
+
+    @Test
+    public void testReprovisionedKeyIsNotServedFromCache() {
+        final SignedMessage signedMessage = fromSense("hello sense".getBytes(), NEW_KEY);
+
+        messageSigner.keySpec(SENSE_ID, KEY);
+        assertThat(messageSigner.keySpec(SENSE_ID, NEW_KEY), not(sameInstance(messageSigner.keySpec(SENSE_ID, KEY))));
+        assertThat(messageSigner.validate(SENSE_ID, signedMessage, NEW_KEY).isPresent(), is(false));
+    }
+
+    @Test
+    public void testSignProtobufWritesBodyAfterHeader() {
+        final SenseCommandProtos.MorpheusCommand command = SenseCommandProtos.MorpheusCommand.newBuilder()
+                .setType(SenseCommandProtos.MorpheusCommand.CommandType.MORPHEUS_COMMAND_PILL_DATA)
+                .setVersion(0)
+                .build();
+        final byte[] body = command.toByteArray();
+
+        final Optional<byte[]> signed = messageSigner.sign(SENSE_ID, command, KEY);
+        assertThat(signed.isPresent(), is(true));
+        assertThat(signed.get().length, is(16 + 32 + body.length));
+        assertThat(Arrays.equals(Arrays.copyOfRange(signed.get(), 16 + 32, signed.get().length), body), is(true));
+
+        final byte[] message = new byte[signed.get().length];
+        System.arraycopy(body, 0, message, 0, body.length);
+        System.arraycopy(signed.get(), 0, message, body.length, 16 + 32);
+        assertThat(messageSigner.validate(SENSE_ID, SignedMessage.parse(message), KEY).isPresent(), is(false));
+    }
+}
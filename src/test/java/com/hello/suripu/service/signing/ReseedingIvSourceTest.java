@@ -0,0 +1,53 @@
+package com.hello.suripu.service.signing;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ReseedingIvSourceTest {
+
+    @Test
+    public void testFillsOnlyRequestedRegion() {
+        final IvSource ivSource = ReseedingIvSource.create(new MetricRegistry());
+        final byte[] buffer = new byte[4 + 16 + 4];
+        ivSource.fill(buffer, 4, 16);
+
+        assertThat(Arrays.equals(Arrays.copyOfRange(buffer, 0, 4), new byte[4]), is(true));
+        assertThat(Arrays.equals(Arrays.copyOfRange(buffer, 20, 24), new byte[4]), is(true));
+        assertThat(Arrays.equals(Arrays.copyOfRange(buffer, 4, 20), new byte[16]), is(false));
+    }
+
+    @Test
+    public void testConsecutiveIvsDiffer() {
+        final IvSource ivSource = ReseedingIvSource.create(new MetricRegistry());
+        final byte[] first = new byte[16];
+        final byte[] second = new byte[16];
+        ivSource.fill(first, 0, 16);
+        ivSource.fill(second, 0, 16);
+        assertThat(Arrays.equals(first, second), is(false));
+    }
+
+    @Test
+    public void testReseedsAndRecordsLatency() {
+        final MetricRegistry metrics = new MetricRegistry();
+        final IvSource ivSource = ReseedingIvSource.create(metrics, 2);
+        final byte[] iv = new byte[16];
+        for(int i = 0; i < 5; i++) {
+            ivSource.fill(iv, 0, iv.length);
+        }
+
+        // initial seed, then before the 3rd and 5th IV
+        assertThat(metrics.meter(name(ReseedingIvSource.class, "reseeds")).getCount(), is(3L));
+        assertThat(metrics.timer(name(ReseedingIvSource.class, "iv-generation")).getCount(), is(5L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidReseedInterval() {
+        ReseedingIvSource.create(new MetricRegistry(), 0);
+    }
+}
@@ -0,0 +1,63 @@
+package com.hello.suripu.service.sync;
+
+import com.codahale.metrics.MetricRegistry;
+import com.hello.suripu.core.firmware.HardwareVersion;
+import com.hello.suripu.service.configuration.OTAConfiguration;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class OTADecisionCacheTest {
+
+    private static final String SENSE_ID = "test-sense";
+    private static final String FIRMWARE_VERSION = "1234";
+    private static final HardwareVersion HARDWARE_VERSION = HardwareVersion.SENSE_ONE;
+    private static final DateTimeZone USER_TIME_ZONE = DateTimeZone.forID("America/Los_Angeles");
+    private static final OTAConfiguration CONFIGURATION = new OTAConfiguration();
+    private static final long MAX_AGE = TimeUnit.MINUTES.toMillis(CONFIGURATION.getDecisionMaxAgeMinutes());
+
+    private OTADecisionCache cache;
+
+    @Before
+    public void setUp() {
+        cache = OTADecisionCache.create(CONFIGURATION, new MetricRegistry());
+    }
+
+    private static long at(final int hourOfDay, final int minuteOfHour) {
+        return new DateTime(2016, 11, 24, hourOfDay, minuteOfHour, USER_TIME_ZONE).getMillis();
+    }
+
+    @Test
+    public void testCachedPerDeviceFirmwareAndGroup() {
+        final long now = at(14, 0);
+        cache.markUpToDate(SENSE_ID, FIRMWARE_VERSION, HARDWARE_VERSION, "release", USER_TIME_ZONE, now);
+
+        assertThat(cache.isUpToDate(SENSE_ID, FIRMWARE_VERSION, HARDWARE_VERSION, "release", now), is(true));
+        assertThat(cache.isUpToDate(SENSE_ID, "5678", HARDWARE_VERSION, "release", now), is(false));
+        assertThat(cache.isUpToDate(SENSE_ID, FIRMWARE_VERSION, HARDWARE_VERSION, "beta", now), is(false));
+        assertThat(cache.isUpToDate("other-sense", FIRMWARE_VERSION, HARDWARE_VERSION, "release", now), is(false));
+        assertThat(cache.isUpToDate(SENSE_ID, FIRMWARE_VERSION, HARDWARE_VERSION, "release", now + MAX_AGE), is(false));
+    }
+
+    @Test
+    public void testValidUntilWindowBoundaries() {
+        final int start = CONFIGURATION.getStartUpdateWindowHour();
+        final int end = CONFIGURATION.getEndUpdateWindowHour();
+
+        // Within the window, far from its end
+        assertThat(cache.validUntilMillis(USER_TIME_ZONE, at(start + 1, 0)), is(at(start + 1, 0) + MAX_AGE));
+
+        // Just before the window opens or closes
+        assertThat(cache.validUntilMillis(USER_TIME_ZONE, at(start - 1, 50)), is(at(start, 0)));
+        assertThat(cache.validUntilMillis(USER_TIME_ZONE, at(end - 1, 50)), is(at(end, 0)));
+
+        // After the window, capped
+        assertThat(cache.validUntilMillis(USER_TIME_ZONE, at(end, 30)), is(at(end, 30) + MAX_AGE));
+    }
+}
@@ -0,0 +1,85 @@
+package com.hello.suripu.service.sync;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.CacheBuilder;
+import com.hello.suripu.service.configuration.OTAConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OTARolloutThrottleTest {
+
+    private static final long NOW = 1480000000000L;
+    private static final long ONE_MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    private OTAConfiguration configuration;
+    private Random random;
+    private OTARolloutThrottle throttle;
+
+    @Before
+    public void setUp() {
+        configuration = mock(OTAConfiguration.class);
+        when(configuration.getRolloutGrantsPerMinute()).thenReturn(2);
+        when(configuration.getRolloutBurst()).thenReturn(2);
+        when(configuration.getRolloutRetryMaxMinutes()).thenReturn(10);
+        when(configuration.getS3CacheExpireMinutes()).thenReturn(60);
+        when(configuration.getDecisionCacheSize()).thenReturn(100L);
+        random = mock(Random.class);
+        when(random.nextDouble()).thenReturn(0.0);
+        throttle = new OTARolloutThrottle(
+                CacheBuilder.newBuilder().<String, Boolean>build(),
+                CacheBuilder.newBuilder().<String, Long>build(),
+                random, configuration, new MetricRegistry());
+    }
+
+    @Test
+    public void testCapsGrantsPerMinute() {
+        assertThat(throttle.tryAcquire("sense-1", NOW), is(true));
+        assertThat(throttle.tryAcquire("sense-2", NOW), is(true));
+        assertThat(throttle.tryAcquire("sense-3", NOW), is(false));
+
+        // Granted Senses keep getting their files while downloading
+        assertThat(throttle.tryAcquire("sense-1", NOW + 1000L), is(true));
+    }
+
+    @Test
+    public void testDeferredUntilRetry() {
+        throttle.tryAcquire("sense-1", NOW);
+        throttle.tryAcquire("sense-2", NOW);
+        assertThat(throttle.tryAcquire("sense-3", NOW), is(false));
+
+        // Tokens are back, but sense-3 waits for its retry and sense-4 gets one
+        assertThat(throttle.tryAcquire("sense-3", NOW + ONE_MINUTE / 2), is(false));
+        assertThat(throttle.tryAcquire("sense-4", NOW + ONE_MINUTE / 2), is(true));
+
+        assertThat(throttle.tryAcquire("sense-3", NOW + ONE_MINUTE), is(true));
+    }
+
+    @Test
+    public void testRetryIsJittered() {
+        when(random.nextDouble()).thenReturn(0.5);
+        throttle.tryAcquire("sense-1", NOW);
+        throttle.tryAcquire("sense-2", NOW);
+        throttle.tryAcquire("sense-3", NOW);
+
+        // 1 + 0.5 * 9 minutes
+        assertThat(throttle.tryAcquire("sense-3", NOW + 5 * ONE_MINUTE), is(false));
+        assertThat(throttle.tryAcquire("sense-3", NOW + 6 * ONE_MINUTE), is(true));
+    }
+
+    @Test
+    public void testDisabled() {
+        when(configuration.getRolloutGrantsPerMinute()).thenReturn(0);
+        throttle = OTARolloutThrottle.create(configuration, new MetricRegistry());
+        for (int i = 0; i < 10; i++) {
+            assertThat(throttle.tryAcquire("sense-" + i, NOW), is(true));
+        }
+    }
+}
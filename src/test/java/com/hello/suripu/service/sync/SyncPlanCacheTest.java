@@ -0,0 +1,99 @@
+package com.hello.suripu.service.sync;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.hello.suripu.api.audio.AudioControlProtos;
+import com.hello.suripu.api.audio.AudioFeaturesControlProtos;
+import com.hello.suripu.api.output.OutputProtos;
+import com.hello.suripu.core.models.RingTime;
+import com.hello.suripu.core.models.UserInfo;
+import com.hello.suripu.service.configuration.SyncPlanConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SyncPlanCacheTest {
+
+    private static final String SENSE_ID = "test-sense";
+    private static final int FIRMWARE_VERSION = 1234;
+    private static final long NOW = 1480000000000L;
+    private static final SyncPlanConfiguration CONFIGURATION = new SyncPlanConfiguration();
+    private static final long MAX_AGE = TimeUnit.SECONDS.toMillis(CONFIGURATION.getMaxAgeSeconds());
+    private static final long WINDOW = TimeUnit.MINUTES.toMillis(CONFIGURATION.getNearRingWindowMinutes());
+
+    private SyncPlanCache syncPlanCache;
+    private List<UserInfo> userInfoList;
+
+    @Before
+    public void setUp() {
+        syncPlanCache = SyncPlanCache.create(CONFIGURATION, new MetricRegistry());
+        userInfoList = ImmutableList.of();
+    }
+
+    private static RingTime ringingAt(final long ringTime) {
+        return new RingTime(ringTime, ringTime, new long[0], false, Lists.newArrayList());
+    }
+
+    private SyncPlan plan(final List<UserInfo> userInfoList, final int flags, final long validUntilMillis) {
+        return new SyncPlan(userInfoList, FIRMWARE_VERSION, flags, RingTime.createEmpty(),
+                OutputProtos.SyncResponse.Alarm.getDefaultInstance(),
+                AudioControlProtos.AudioControl.getDefaultInstance(),
+                AudioFeaturesControlProtos.AudioFeaturesControl.getDefaultInstance(),
+                Collections.<OutputProtos.SyncResponse.PillSettings>emptyList(),
+                validUntilMillis);
+    }
+
+    @Test
+    public void testReusedWhileUnchanged() {
+        final int flags = SyncPlan.flags(false, false, true, true, true);
+        final SyncPlan plan = plan(userInfoList, flags, NOW + MAX_AGE);
+        assertThat(syncPlanCache.put(SENSE_ID, plan), is(true));
+
+        assertThat(syncPlanCache.get(SENSE_ID, userInfoList, FIRMWARE_VERSION, flags, NOW).get() == plan, is(true));
+        assertThat(syncPlanCache.get(SENSE_ID, userInfoList, FIRMWARE_VERSION, flags, NOW + MAX_AGE - 1).isPresent(), is(true));
+    }
+
+    @Test
+    public void testInvalidatedByChanges() {
+        final int flags = SyncPlan.flags(false, false, false, false, true);
+
+        syncPlanCache.put(SENSE_ID, plan(userInfoList, flags, NOW + MAX_AGE));
+        // Reloaded merged user info
+        assertThat(syncPlanCache.get(SENSE_ID, Lists.<UserInfo>newArrayList(), FIRMWARE_VERSION, flags, NOW).isPresent(), is(false));
+
+        syncPlanCache.put(SENSE_ID, plan(userInfoList, flags, NOW + MAX_AGE));
+        assertThat(syncPlanCache.get(SENSE_ID, userInfoList, FIRMWARE_VERSION + 1, flags, NOW).isPresent(), is(false));
+
+        syncPlanCache.put(SENSE_ID, plan(userInfoList, flags, NOW + MAX_AGE));
+        assertThat(syncPlanCache.get(SENSE_ID, userInfoList, FIRMWARE_VERSION, flags | SyncPlan.ALWAYS_ON_AUDIO, NOW).isPresent(), is(false));
+
+        syncPlanCache.put(SENSE_ID, plan(userInfoList, flags, NOW + MAX_AGE));
+        assertThat(syncPlanCache.get(SENSE_ID, userInfoList, FIRMWARE_VERSION, flags, NOW + MAX_AGE).isPresent(), is(false));
+    }
+
+    @Test
+    public void testValidUntilNextRingWindow() {
+        assertThat(syncPlanCache.validUntilMillis(RingTime.createEmpty(), NOW), is(NOW + MAX_AGE));
+
+        final long farRingTime = NOW + TimeUnit.HOURS.toMillis(8);
+        assertThat(syncPlanCache.validUntilMillis(ringingAt(farRingTime), NOW), is(NOW + MAX_AGE));
+
+        final long ringTime = NOW + WINDOW + MAX_AGE / 2;
+        assertThat(syncPlanCache.validUntilMillis(ringingAt(ringTime), NOW), is(NOW + MAX_AGE / 2));
+    }
+
+    @Test
+    public void testNotCachedWithinRingWindow() {
+        final long validUntil = syncPlanCache.validUntilMillis(ringingAt(NOW + WINDOW / 2), NOW);
+        assertThat(validUntil, is(0L));
+        assertThat(syncPlanCache.put(SENSE_ID, plan(userInfoList, 0, validUntil)), is(false));
+        assertThat(syncPlanCache.get(SENSE_ID, userInfoList, FIRMWARE_VERSION, 0, NOW).isPresent(), is(false));
+    }
+}
@@ -0,0 +1,74 @@
+package com.hello.suripu.service.utils;
+
+import com.google.common.collect.Lists;
+import com.hello.suripu.core.flipper.FeatureFlipper;
+import com.librato.rollout.RolloutClient;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class DeviceFeatureSnapshotTest {
+
+    private static final String SENSE_ID = "test-sense";
+
+    private RolloutClient featureFlipper;
+
+    @Before
+    public void setUp() {
+        featureFlipper = mock(RolloutClient.class);
+    }
+
+    @Test
+    public void testEvaluatesWithOrWithoutGroups() {
+        final List<String> groups = Lists.newArrayList("release");
+        doReturn(true).when(featureFlipper).deviceFeatureActive(FeatureFlipper.ENABLE_OTA_UPDATES, SENSE_ID, groups);
+        doReturn(true).when(featureFlipper).deviceFeatureActive(FeatureFlipper.CALIBRATION, SENSE_ID, Collections.<String>emptyList());
+
+        final DeviceFeatureSnapshot snapshot = DeviceFeatureSnapshot.of(featureFlipper, SENSE_ID, groups);
+
+        assertThat(snapshot.isActive(DeviceFeature.ENABLE_OTA_UPDATES), is(true));
+        assertThat(snapshot.isActive(DeviceFeature.CALIBRATION), is(true));
+        assertThat(snapshot.isActive(DeviceFeature.CALIBRATION_WITH_GROUPS), is(false));
+        assertThat(snapshot.isActive(DeviceFeature.ALWAYS_ON_AUDIO), is(false));
+    }
+
+    @Test
+    public void testEachFeatureEvaluatedOnce() {
+        final DeviceFeatureSnapshot snapshot = DeviceFeatureSnapshot.of(featureFlipper, SENSE_ID, Lists.newArrayList("release"));
+        for (final DeviceFeature feature : DeviceFeature.values()) {
+            snapshot.isActive(feature);
+            snapshot.isActive(feature);
+        }
+        verify(featureFlipper, times(DeviceFeature.values().length)).deviceFeatureActive(anyString(), anyString(), anyList());
+    }
+
+    @Test
+    public void testFeaturesAreOnlyEvaluatedWhenRead() {
+        doReturn(true).when(featureFlipper).deviceFeatureActive(anyString(), anyString(), anyList());
+        final DeviceFeatureSnapshot snapshot = DeviceFeatureSnapshot.of(featureFlipper, SENSE_ID, Lists.newArrayList("release"));
+        verify(featureFlipper, never()).deviceFeatureActive(anyString(), anyString(), anyList());
+
+        assertThat(snapshot.isActive(DeviceFeature.ENABLE_OTA_UPDATES), is(true));
+        assertThat(snapshot.isActive(DeviceFeature.ENABLE_OTA_UPDATES), is(true));
+        verify(featureFlipper, times(1)).deviceFeatureActive(anyString(), anyString(), anyList());
+        verify(featureFlipper, never()).deviceFeatureActive(eq(ServiceFeatureFlipper.PRINT_ALARM_ACK.getFeatureName()), anyString(), anyList());
+    }
+
+    @Test
+    public void testFitsInALong() {
+        assertThat(2 * DeviceFeature.values().length <= Long.SIZE, is(true));
+    }
+}
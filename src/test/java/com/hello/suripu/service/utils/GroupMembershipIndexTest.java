@@ -0,0 +1,114 @@
+package com.hello.suripu.service.utils;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.hello.suripu.core.db.TeamStore;
+import com.hello.suripu.core.db.TeamStoreDAO;
+import com.hello.suripu.core.models.Team;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+public class GroupMembershipIndexTest {
+
+    private TeamStoreDAO teamStore;
+    private GroupMembershipIndex index;
+
+    @Before
+    public void setUp() {
+        teamStore = mock(TeamStoreDAO.class);
+        index = new GroupMembershipIndex(teamStore, 30, new MetricRegistry());
+
+        doReturn(Lists.newArrayList(
+                new Team("office", Sets.newHashSet("sense-1", "sense-2")),
+                new Team("beta", Sets.newHashSet("sense-2", "sense-3")),
+                new Team("alpha", Sets.newHashSet("sense-3", "sense-2"))
+        )).when(teamStore).getTeams(TeamStore.Type.DEVICES);
+        doReturn(Lists.newArrayList(
+                new Team("employees", Sets.newHashSet("1", "2", "not-an-account"))
+        )).when(teamStore).getTeams(TeamStore.Type.USERS);
+    }
+
+    private static List<String> groups(final String... names) {
+        return Arrays.asList(names);
+    }
+
+    @Test
+    public void testInvertsTeams() {
+        assertThat(index.refresh(), is(true));
+
+        assertThat(index.getGroups("sense-1"), is(groups("office")));
+        assertThat(index.getGroups("sense-2"), is(groups("office", "beta", "alpha")));
+        assertThat(index.getGroups("sense-3"), is(groups("beta", "alpha")));
+        assertThat(index.getGroups("unknown").isEmpty(), is(true));
+
+        assertThat(index.getGroups(1L), is(groups("employees")));
+        assertThat(index.getGroups(3L).isEmpty(), is(true));
+    }
+
+    @Test
+    public void testKeepsTeamStoreOrder() {
+        // The first group is the OTA update group, the order must not depend on group names
+        doReturn(Lists.newArrayList(
+                new Team("release", Sets.newHashSet("sense-1")),
+                new Team("beta", Sets.newHashSet("sense-1", "sense-2"))
+        )).when(teamStore).getTeams(TeamStore.Type.DEVICES);
+        index.refresh();
+
+        assertThat(index.getGroups("sense-1"), is(groups("release", "beta")));
+        assertThat(index.getGroups("sense-2"), is(groups("beta")));
+    }
+
+    @Test
+    public void testSameGroupsShareAList() {
+        index.refresh();
+        assertThat(index.getGroups(1L) == index.getGroups(2L), is(true));
+        assertThat(index.getGroups("sense-1") == index.getGroups("sense-1"), is(true));
+    }
+
+    @Test
+    public void testFailedRefreshKeepsPreviousIndex() {
+        index.refresh();
+        doThrow(new RuntimeException("throttled")).when(teamStore).getTeams(TeamStore.Type.DEVICES);
+
+        assertThat(index.refresh(), is(false));
+        assertThat(index.getGroups("sense-1"), is(groups("office")));
+    }
+
+    @Test
+    public void testRefreshReplacesIndex() {
+        index.refresh();
+        doReturn(Collections.<Team>emptyList()).when(teamStore).getTeams(TeamStore.Type.DEVICES);
+
+        assertThat(index.refresh(), is(true));
+        assertThat(index.getGroups("sense-1").isEmpty(), is(true));
+        assertThat(index.getGroups(1L), is(groups("employees")));
+    }
+
+    @Test
+    public void testStartRetriesFirstLoad() throws Exception {
+        doThrow(new RuntimeException("throttled")).doReturn(Lists.newArrayList(
+                new Team("office", Sets.newHashSet("sense-1"))
+        )).when(teamStore).getTeams(TeamStore.Type.DEVICES);
+
+        index.start();
+        assertThat(index.getGroups("sense-1"), is(groups("office")));
+        index.stop();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testStartFailsWithoutFirstLoad() throws Exception {
+        doThrow(new RuntimeException("throttled")).when(teamStore).getTeams(TeamStore.Type.DEVICES);
+        index.start();
+    }
+}
@@ -0,0 +1,82 @@
+package com.hello.suripu.service.utils;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ParallelLookupsTest {
+
+    private ExecutorService executor;
+    private MetricRegistry metrics;
+    private ParallelLookups parallelLookups;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        metrics = new MetricRegistry();
+        parallelLookups = new ParallelLookups(executor, metrics);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testReturnsResult() {
+        final Future<String> future = parallelLookups.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return "value";
+            }
+        });
+        assertThat(parallelLookups.await(future, "test", 1000L, "sense"), is(Optional.of("value")));
+    }
+
+    @Test
+    public void testTimeoutFallsBackAndCancels() {
+        final CountDownLatch never = new CountDownLatch(1);
+        final Future<String> future = parallelLookups.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                never.await();
+                return "value";
+            }
+        });
+        assertThat(parallelLookups.await(future, "test", 10L, "sense", "fallback"), is("fallback"));
+        assertThat(future.isCancelled(), is(true));
+        assertThat(metrics.meter(name(ParallelLookups.class, "test", "timeouts")).getCount(), is(1L));
+    }
+
+    @Test
+    public void testFailureFallsBack() {
+        final ParallelLookups direct = new ParallelLookups(MoreExecutors.newDirectExecutorService(), metrics);
+        final Future<String> future = direct.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                throw new RuntimeException("dynamo is down");
+            }
+        });
+        assertThat(direct.await(future, "test", 10L, "sense", "fallback"), is("fallback"));
+        assertThat(metrics.meter(name(ParallelLookups.class, "test", "failures")).getCount(), is(1L));
+    }
+
+    @Test
+    public void testNullResultIsAbsent() {
+        final Future<String> future = ParallelLookups.completed(null);
+        assertThat(parallelLookups.await(future, "test", 10L, "sense").isPresent(), is(false));
+    }
+}
@@ -0,0 +1,93 @@
+package com.hello.suripu.service.utils;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.hello.suripu.api.input.SenseCommandProtos;
+import com.hello.suripu.core.flipper.FeatureFlipper;
+import com.librato.rollout.RolloutClient;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class PillBatchSanitizerTest {
+
+    private static final String SENSE_ID = "test-sense";
+    private static final long NOW = 1480000000000L;
+    private static final long NOW_SECONDS = NOW / 1000L;
+    private static final long ONE_HOUR_SECONDS = TimeUnit.HOURS.toSeconds(1);
+
+    private RolloutClient featureFlipper;
+    private PillBatchSanitizer sanitizer;
+
+    @Before
+    public void setUp() {
+        featureFlipper = mock(RolloutClient.class);
+        sanitizer = PillBatchSanitizer.create(new MetricRegistry());
+    }
+
+    private static SenseCommandProtos.pill_data pill(final String pillId, final long timestampSeconds) {
+        return SenseCommandProtos.pill_data.newBuilder()
+                .setDeviceId(pillId)
+                .setTimestamp(timestampSeconds)
+                .build();
+    }
+
+    @Test
+    public void testInSyncBatchIsKept() {
+        final List<SenseCommandProtos.pill_data> pills = ImmutableList.of(
+                pill("pill-1", NOW_SECONDS - ONE_HOUR_SECONDS),
+                pill("pill-2", NOW_SECONDS + ONE_HOUR_SECONDS));
+
+        final PillBatchSanitizer.Result result = sanitizer.sanitize(featureFlipper, SENSE_ID, pills, NOW);
+        assertThat(result.pills, sameInstance(pills));
+        assertThat(result.outOfSync, is(0));
+        verifyZeroInteractions(featureFlipper);
+    }
+
+    @Test
+    public void testOutOfSyncPillsAreDropped() {
+        final List<SenseCommandProtos.pill_data> pills = ImmutableList.of(
+                pill("pill-1", NOW_SECONDS),
+                pill("pill-2", NOW_SECONDS + 3 * ONE_HOUR_SECONDS),
+                pill("pill-3", NOW_SECONDS - ONE_HOUR_SECONDS));
+
+        final PillBatchSanitizer.Result result = sanitizer.sanitize(featureFlipper, SENSE_ID, pills, NOW);
+        assertThat(result.pills.size(), is(2));
+        assertThat(result.pills.get(0).getDeviceId(), is("pill-1"));
+        assertThat(result.pills.get(1).getDeviceId(), is("pill-3"));
+        assertThat(result.outOfSync, is(1));
+        assertThat(result.dropped(), is(1));
+    }
+
+    @Test
+    public void testCorrectionFlagIsReadOncePerPillOfABatch() {
+        when(featureFlipper.deviceFeatureActive(anyString(), anyString(), anyListOf(String.class))).thenReturn(false);
+        final List<SenseCommandProtos.pill_data> pills = ImmutableList.of(
+                pill("pill-1", NOW_SECONDS + 3 * ONE_HOUR_SECONDS),
+                pill("pill-1", NOW_SECONDS + 4 * ONE_HOUR_SECONDS));
+
+        sanitizer.sanitize(featureFlipper, SENSE_ID, pills, NOW);
+        verify(featureFlipper, times(1)).deviceFeatureActive(eq(FeatureFlipper.ATTEMPT_TO_CORRECT_PILL_REPORTED_TIMESTAMP), eq("pill-1"), anyListOf(String.class));
+    }
+
+    @Test
+    public void testClockSkewBugNotCorrected() {
+        final long tenHours = TimeUnit.HOURS.toMillis(10);
+        assertThat(PillBatchSanitizer.correctForClockSkewBug(NOW + tenHours, NOW).isPresent(), is(false));
+        assertThat(PillBatchSanitizer.correctForClockSkewBug(NOW - tenHours, NOW).isPresent(), is(false));
+    }
+}
@@ -0,0 +1,108 @@
+package com.hello.suripu.service.utils;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class SingleFlightTest {
+
+    private static final String SENSE_ID = "test-sense";
+
+    private ExecutorService executor;
+    private MetricRegistry metrics;
+    private SingleFlight singleFlight;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(2);
+        metrics = new MetricRegistry();
+        singleFlight = new SingleFlight("calibration", metrics);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentReadsAreCoalesced() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger reads = new AtomicInteger();
+
+        final Future<String> leader = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return singleFlight.execute(SENSE_ID, new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        reads.incrementAndGet();
+                        started.countDown();
+                        release.await();
+                        return "calibration";
+                    }
+                });
+            }
+        });
+        started.await();
+
+        final Future<String> follower = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return singleFlight.execute(SENSE_ID, new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        reads.incrementAndGet();
+                        return "second read";
+                    }
+                });
+            }
+        });
+        while (metrics.meter(name(SingleFlight.class, "calibration", "coalesced")).getCount() == 0) {
+            Thread.sleep(1L);
+        }
+        release.countDown();
+
+        assertThat(leader.get(1, TimeUnit.SECONDS), is("calibration"));
+        assertThat(follower.get(1, TimeUnit.SECONDS), is("calibration"));
+        assertThat(reads.get(), is(1));
+    }
+
+    @Test
+    public void testSequentialReadsAreNotCached() {
+        final AtomicInteger reads = new AtomicInteger();
+        final Callable<Integer> read = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return reads.incrementAndGet();
+            }
+        };
+
+        assertThat(singleFlight.execute(SENSE_ID, read), is(1));
+        assertThat(singleFlight.execute(SENSE_ID, read), is(2));
+        assertThat(metrics.meter(name(SingleFlight.class, "calibration", "calls")).getCount(), is(2L));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRethrowsFailures() {
+        singleFlight.execute(SENSE_ID, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                throw new IllegalStateException("throttled");
+            }
+        });
+    }
+}